@@ -0,0 +1,134 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Objetos serializados pelos benchmarks
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public final class Fixtures {
+	/**
+	 * Objeto com {@link #DEPTH} níveis de aninhamento
+	 */
+	public static class Deep {
+		private Deep child;
+		private String name;
+	}
+
+	/**
+	 * Objeto plano, apenas com valores simples
+	 */
+	public static class Flat {
+		private boolean active = true;
+		private String city = "São Paulo";
+		private String email = "moisespsena@gmail.com";
+		private long id = 1234567890L;
+		private int age = 31;
+		private String lastName = "Sena";
+		private String name = "Moises";
+		private double score = 98.75;
+		private String street = "Rua das Flores, 100 & Cia";
+		private String zip = "01001-000";
+	}
+
+	public static class Item {
+		private long id;
+		private String name;
+		private double price;
+	}
+
+	/**
+	 * Objeto com uma lista de {@link #SIZE} itens
+	 */
+	public static class Items {
+		private List<Item> items;
+		private String name = "items";
+	}
+
+	/**
+	 * Objeto com um mapa de {@link #SIZE} entradas
+	 */
+	public static class Values {
+		private String name = "values";
+		private Map<String, Integer> values;
+	}
+
+	public static final int DEPTH = 32;
+
+	public static final int SIZE = 1000;
+
+	/**
+	 * Objeto do tipo informado: <code>flat</code>, <code>deep</code>,
+	 * <code>list</code> ou <code>map</code>
+	 */
+	public static Object create(final String shape) {
+		if ("flat".equals(shape)) {
+			return new Flat();
+		} else if ("deep".equals(shape)) {
+			return deep();
+		} else if ("list".equals(shape)) {
+			return items();
+		} else if ("map".equals(shape)) {
+			return values();
+		}
+		throw new IllegalArgumentException("Unknown shape " + shape);
+	}
+
+	private static Deep deep() {
+		Deep deep = null;
+		for (int i = DEPTH; i > 0; i--) {
+			final Deep parent = new Deep();
+			parent.name = "level " + i;
+			parent.child = deep;
+			deep = parent;
+		}
+		return deep;
+	}
+
+	private static Items items() {
+		final Items items = new Items();
+		items.items = new ArrayList<Item>(SIZE);
+		for (int i = 0; i < SIZE; i++) {
+			final Item item = new Item();
+			item.id = i;
+			item.name = "item " + i;
+			item.price = i * 1.5;
+			items.items.add(item);
+		}
+		return items;
+	}
+
+	private static Values values() {
+		final Values values = new Values();
+		values.values = new LinkedHashMap<String, Integer>(SIZE * 2);
+		for (int i = 0; i < SIZE; i++) {
+			values.values.put("key" + i, i);
+		}
+		return values;
+	}
+
+	private Fixtures() {
+	}
+}
@@ -0,0 +1,186 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ArrayQSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.PropertiesQSFormatWriter;
+
+/**
+ * {@link QSWriter} e {@link QSFormatWriter} isolados do XStream: os mesmos
+ * nós de {@link Fixtures} são gravados diretamente no writer.
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar QSWriterBenchmark -prof gc
+ * </pre>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QSWriterBenchmark {
+	@Param({ "object", "array", "properties" })
+	public String format;
+
+	private QSFormatWriter formatWriter;
+
+	/**
+	 * Valores pré-calculados, para que a alocação medida seja a do writer
+	 */
+	private final String[] ids = new String[Fixtures.SIZE];
+	private final String[] keys = new String[Fixtures.SIZE];
+	private final String[] levels = new String[Fixtures.DEPTH + 1];
+	private final String[] names = new String[Fixtures.SIZE];
+	private final String[] prices = new String[Fixtures.SIZE];
+
+	@Param({ "flat", "deep", "list", "map" })
+	public String shape;
+
+	@Param({ "false", "true" })
+	public boolean withoutRoot;
+
+	private final CountingWriter writer = new CountingWriter();
+
+	private void leaf(final QSWriter qsWriter, final String name,
+			final String value) {
+		qsWriter.startNode(name, String.class);
+		qsWriter.setValue(value);
+		qsWriter.endNode();
+	}
+
+	@Setup
+	public void setUp() {
+		if ("array".equals(format)) {
+			formatWriter = new ArrayQSFormatWriter();
+		} else if ("properties".equals(format)) {
+			formatWriter = new PropertiesQSFormatWriter();
+		} else {
+			formatWriter = new ObjectQSFormatWriter();
+		}
+
+		for (int i = 0; i < Fixtures.SIZE; i++) {
+			ids[i] = String.valueOf(i);
+			keys[i] = "key" + i;
+			names[i] = "item " + i;
+			prices[i] = String.valueOf(i * 1.5);
+		}
+		for (int i = 1; i <= Fixtures.DEPTH; i++) {
+			levels[i] = "level " + i;
+		}
+	}
+
+	@Benchmark
+	public long write() {
+		writer.reset();
+
+		final QSWriter qsWriter = withoutRoot ? new QSWriter(writer,
+				QSWriter.DROP_ROOT_MODE, formatWriter) : new QSWriter(writer,
+				formatWriter);
+
+		if ("flat".equals(shape)) {
+			writeFlat(qsWriter);
+		} else if ("deep".equals(shape)) {
+			writeDeep(qsWriter);
+		} else if ("list".equals(shape)) {
+			writeList(qsWriter);
+		} else {
+			writeMap(qsWriter);
+		}
+		qsWriter.flush();
+
+		return writer.getCount();
+	}
+
+	private void writeDeep(final QSWriter qsWriter) {
+		for (int i = 1; i <= Fixtures.DEPTH; i++) {
+			qsWriter.startNode(i == 1 ? "deep" : "child", Fixtures.Deep.class);
+			leaf(qsWriter, "name", levels[i]);
+		}
+		for (int i = 1; i <= Fixtures.DEPTH; i++) {
+			qsWriter.endNode();
+		}
+	}
+
+	private void writeFlat(final QSWriter qsWriter) {
+		qsWriter.startNode("flat", Fixtures.Flat.class);
+		leaf(qsWriter, "active", "true");
+		leaf(qsWriter, "city", "São Paulo");
+		leaf(qsWriter, "email", "moisespsena@gmail.com");
+		leaf(qsWriter, "id", "1234567890");
+		leaf(qsWriter, "age", "31");
+		leaf(qsWriter, "lastName", "Sena");
+		leaf(qsWriter, "name", "Moises");
+		leaf(qsWriter, "score", "98.75");
+		leaf(qsWriter, "street", "Rua das Flores, 100 & Cia");
+		leaf(qsWriter, "zip", "01001-000");
+		qsWriter.endNode();
+	}
+
+	private void writeList(final QSWriter qsWriter) {
+		qsWriter.startNode("items", Fixtures.Items.class);
+		qsWriter.startNode("items", ArrayList.class);
+		for (int i = 0; i < Fixtures.SIZE; i++) {
+			qsWriter.startNode("item", Fixtures.Item.class);
+			leaf(qsWriter, "id", ids[i]);
+			leaf(qsWriter, "name", names[i]);
+			leaf(qsWriter, "price", prices[i]);
+			qsWriter.endNode();
+		}
+		qsWriter.endNode();
+		leaf(qsWriter, "name", "items");
+		qsWriter.endNode();
+	}
+
+	private void writeMap(final QSWriter qsWriter) {
+		qsWriter.startNode("values", Fixtures.Values.class);
+		leaf(qsWriter, "name", "values");
+		qsWriter.startNode("values", LinkedHashMap.class);
+		for (int i = 0; i < Fixtures.SIZE; i++) {
+			qsWriter.startNode("entry", Map.Entry.class);
+			leaf(qsWriter, "string", keys[i]);
+			leaf(qsWriter, "int", ids[i]);
+			qsWriter.endNode();
+		}
+		qsWriter.endNode();
+		qsWriter.endNode();
+	}
+}
@@ -0,0 +1,141 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.caelum.vraptor.interceptor.DefaultTypeNameExtractor;
+import br.com.caelum.vraptor.interceptor.TypeNameExtractor;
+import br.com.caelum.vraptor.serialization.NullProxyInitializer;
+import br.com.caelum.vraptor.serialization.ProxyInitializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSCache;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSSerialization;
+
+/**
+ * Serialização completa com {@link XStreamQSSerialization}: XStream,
+ * {@link com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter}
+ * e formatação.
+ * 
+ * <p>
+ * {@link #serializeNewXStream()} descarta o {@link XStreamQSCache} antes de
+ * cada chamada, reproduzindo a criação de um XStream por serialização, para
+ * comparação com {@link #serialize()}.
+ * </p>
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar SerializationBenchmark -prof gc
+ * java -jar target/benchmarks.jar SerializationBenchmark -bm avgt -tu us -p shape=flat
+ * </pre>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+	/**
+	 * Acesso ao cache compartilhado
+	 */
+	private static final class CacheAccess extends XStreamQSSerialization {
+		private CacheAccess(final TypeNameExtractor extractor,
+				final ProxyInitializer initializer) {
+			super(extractor, initializer);
+		}
+
+		private XStreamQSCache cache() {
+			return getXStreamCache();
+		}
+	}
+
+	private XStreamQSCache cache;
+
+	private final TypeNameExtractor extractor = new DefaultTypeNameExtractor();
+
+	@Param({ "object", "array", "properties" })
+	public String format;
+
+	private final ProxyInitializer initializer = new NullProxyInitializer();
+
+	private Object object;
+
+	private XStreamQSSerialization serialization;
+
+	@Param({ "flat", "deep", "list", "map" })
+	public String shape;
+
+	@Param({ "false", "true" })
+	public boolean withoutRoot;
+
+	private final CountingWriter writer = new CountingWriter();
+
+	@Benchmark
+	public long serialize() {
+		writer.reset();
+		serialization.to(writer).from(object).recursive().serialize();
+		return writer.getCount();
+	}
+
+	/**
+	 * Sem o cache: XStream, mapper, converters e driver criados a cada
+	 * serialização
+	 */
+	@Benchmark
+	public long serializeNewXStream() {
+		cache.clear();
+		writer.reset();
+		serialization.to(writer).from(object).recursive().serialize();
+		return writer.getCount();
+	}
+
+	/**
+	 * A configuração é criada uma única vez, como em um componente de
+	 * aplicação
+	 */
+	@Setup
+	public void setUp() {
+		object = Fixtures.create(shape);
+		cache = new CacheAccess(extractor, initializer).cache();
+
+		serialization = new XStreamQSSerialization(extractor, initializer);
+		if ("array".equals(format)) {
+			serialization = serialization.arrayFormat();
+		} else if ("properties".equals(format)) {
+			serialization = serialization.propertiesFormat();
+		}
+		if (withoutRoot) {
+			serialization = serialization.withoutRoot();
+		}
+	}
+}
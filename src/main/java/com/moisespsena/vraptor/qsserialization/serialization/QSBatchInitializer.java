@@ -0,0 +1,68 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization;
+
+import java.util.List;
+
+import br.com.caelum.vraptor.serialization.ProxyInitializer;
+
+/**
+ * Inicializa em lote os proxies e as coleções ainda não carregados, ex: com um
+ * único <code>select ... where id in (...)</code>, evitando uma consulta por
+ * associação durante a serialização.
+ * 
+ * <p>
+ * Antes da serialização, os valores não carregados encontrados no mesmo
+ * caminho de objetos irmãos (ex: o <code>owner</code> de todos os itens de uma
+ * lista) são entregues juntos a {@link #initialize(List)}. Os valores que
+ * permanecerem não carregados são inicializados um a um pelo
+ * {@link ProxyInitializer}, como sem o lote.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSBatchInitializer {
+	/**
+	 * Objeto real representado pelo valor, cujos campos são percorridos em
+	 * busca de outros valores não carregados, ex: a implementação por trás de
+	 * um proxy, cujos próprios campos ficam vazios
+	 * 
+	 * @param value
+	 *            Valor já inicializado, nunca <code>null</code>
+	 * @return O próprio valor quando não é um proxy
+	 */
+	Object getActualValue(Object value);
+
+	/**
+	 * Carrega os valores de uma vez
+	 * 
+	 * @param values
+	 *            Valores não carregados de um mesmo caminho, sem repetições
+	 */
+	void initialize(List<Object> values);
+
+	/**
+	 * Se o valor é um proxy ou uma coleção ainda não carregado
+	 * 
+	 * @param value
+	 *            Valor de um campo ou elemento de coleção, nunca
+	 *            <code>null</code>
+	 */
+	boolean isUninitialized(Object value);
+}
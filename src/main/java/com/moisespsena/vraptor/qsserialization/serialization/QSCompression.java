@@ -0,0 +1,181 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressão da saída de {@link QSSerialization#to(OutputStream, String)},
+ * aplicada enquanto a serialização é gravada.
+ * 
+ * <p>
+ * O cabeçalho <code>Content-Encoding</code> da resposta deve ser
+ * {@link #getContentEncoding()}, ex:
+ * </p>
+ * 
+ * <pre>
+ * <code>QSCompression compression = QSCompression.negotiate(request
+ * 		.getHeader("Accept-Encoding"));
+ * if (compression != null) {
+ * 	response.setHeader("Content-Encoding", compression.getContentEncoding());
+ * }
+ * serialization.withCompression(compression)
+ * 		.to(response.getOutputStream(), "UTF-8").from(products).serialize();</code>
+ * </pre>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public enum QSCompression {
+	/**
+	 * Formato gzip (RFC 1952)
+	 */
+	GZIP("gzip") {
+		@Override
+		public DeflaterOutputStream wrap(final OutputStream out)
+				throws IOException {
+			return new GZIPOutputStream(out, BUFFER_SIZE) {
+				@Override
+				public void finish() throws IOException {
+					try {
+						super.finish();
+					} finally {
+						def.end();
+					}
+				}
+			};
+		}
+	},
+
+	/**
+	 * Formato zlib (RFC 1950), o <code>deflate</code> do HTTP
+	 */
+	DEFLATE("deflate") {
+		@Override
+		public DeflaterOutputStream wrap(final OutputStream out) {
+			return new DeflaterOutputStream(out, new Deflater(), BUFFER_SIZE) {
+				@Override
+				public void finish() throws IOException {
+					try {
+						super.finish();
+					} finally {
+						def.end();
+					}
+				}
+			};
+		}
+	};
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Escolhe a compressão aceita pelo cliente, preferindo {@link #GZIP} em
+	 * caso de empate
+	 * 
+	 * @param acceptEncoding
+	 *            Cabeçalho <code>Accept-Encoding</code> da requisição
+	 * @return A compressão, ou <code>null</code> para a saída sem compressão
+	 */
+	public static QSCompression negotiate(final String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+
+		final QSCompression[] compressions = values();
+		final float[] qualities = new float[compressions.length];
+		Arrays.fill(qualities, -1);
+		float anyQuality = 0;
+
+		for (final String part : acceptEncoding.split(",")) {
+			final String[] params = part.split(";");
+			final String coding = params[0].trim().toLowerCase(Locale.ENGLISH);
+			final float quality = quality(params);
+
+			if ("*".equals(coding)) {
+				anyQuality = quality;
+			} else if ("x-gzip".equals(coding)) {
+				qualities[GZIP.ordinal()] = quality;
+			} else {
+				for (final QSCompression compression : compressions) {
+					if (compression.contentEncoding.equals(coding)) {
+						qualities[compression.ordinal()] = quality;
+					}
+				}
+			}
+		}
+
+		QSCompression best = null;
+		float bestQuality = 0;
+		for (final QSCompression compression : compressions) {
+			final float quality = qualities[compression.ordinal()] < 0 ? anyQuality
+					: qualities[compression.ordinal()];
+			if (quality > bestQuality) {
+				best = compression;
+				bestQuality = quality;
+			}
+		}
+		return best;
+	}
+
+	private static float quality(final String[] params) {
+		for (int i = 1; i < params.length; i++) {
+			final String param = params[i].trim();
+			if (param.startsWith("q=")) {
+				try {
+					return Float.parseFloat(param.substring(2).trim());
+				} catch (final NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	private final String contentEncoding;
+
+	private QSCompression(final String contentEncoding) {
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * Valor do cabeçalho <code>Content-Encoding</code>
+	 */
+	public String getContentEncoding() {
+		return contentEncoding;
+	}
+
+	/**
+	 * Cria o stream de compressão. O chamador deve executar
+	 * {@link DeflaterOutputStream#finish()} ao terminar, inclusive em caso de
+	 * erro: ele grava os dados pendentes e libera a memória nativa do
+	 * {@link Deflater}, sem fechar o destino. Após
+	 * {@link DeflaterOutputStream#finish()} o stream não aceita mais dados.
+	 * 
+	 * @param out
+	 *            Destino dos bytes comprimidos
+	 * @throws IOException
+	 */
+	public abstract DeflaterOutputStream wrap(OutputStream out)
+			throws IOException;
+}
@@ -0,0 +1,78 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization;
+
+/**
+ * Formatação e comparação de ETags
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public final class QSETag {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * ETag forte do hash da saída. Saídas comprimidas recebem a codificação
+	 * como sufixo, pois os bytes são diferentes.
+	 * 
+	 * @param hash
+	 * @param compression
+	 *            Compressão, ou <code>null</code>
+	 */
+	public static String format(final long hash, final QSCompression compression) {
+		final StringBuilder etag = new StringBuilder(32).append('"');
+		for (int shift = 60; shift >= 0; shift -= 4) {
+			etag.append(HEX[(int) (hash >>> shift) & 0xF]);
+		}
+		if (compression != null) {
+			etag.append('-').append(compression.getContentEncoding());
+		}
+		return etag.append('"').toString();
+	}
+
+	/**
+	 * Se o ETag corresponde ao valor do cabeçalho <code>If-None-Match</code>,
+	 * com a comparação fraca da RFC 7232
+	 * 
+	 * @param ifNoneMatch
+	 *            Valor do cabeçalho, ex: <code>"a", W/"b"</code> ou
+	 *            <code>*</code>, ou <code>null</code>
+	 * @param etag
+	 */
+	public static boolean matches(final String ifNoneMatch, final String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*")) {
+				return true;
+			}
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private QSETag() {
+	}
+}
@@ -0,0 +1,40 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization;
+
+/**
+ * Recebe o ETag de cada serialização de uma configuração criada com
+ * {@link QSSerialization#withETag(QSETagListener)} ou
+ * {@link QSSerialization#withETag(QSETagListener, String)}.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSETagListener {
+	/**
+	 * Executado ao final da serialização ou, no modo condicional, antes da
+	 * gravação, quando ainda é possível definir os cabeçalhos da resposta
+	 * 
+	 * @param etag
+	 *            ETag forte, com aspas, ex: <code>"9f3a0c2b41d8e7a1"</code>
+	 * @param notModified
+	 *            Se o ETag corresponde ao <code>If-None-Match</code> e nada
+	 *            foi gravado
+	 */
+	void etag(String etag, boolean notModified);
+}
@@ -0,0 +1,107 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization;
+
+/**
+ * Métricas de uma serialização, repassadas ao {@link QSMetricsListener}
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSMetrics {
+	private final long charsWritten;
+	private final long durationNanos;
+	private final boolean failed;
+	private final int leafCount;
+	private final int maxDepth;
+	private final int nodeCount;
+	private final Class<?> rootType;
+
+	public QSMetrics(final Class<?> rootType, final long durationNanos,
+			final int nodeCount, final int maxDepth, final int leafCount,
+			final long charsWritten, final boolean failed) {
+		this.rootType = rootType;
+		this.durationNanos = durationNanos;
+		this.nodeCount = nodeCount;
+		this.maxDepth = maxDepth;
+		this.leafCount = leafCount;
+		this.charsWritten = charsWritten;
+		this.failed = failed;
+	}
+
+	/**
+	 * Caracteres gravados no writer. A quantidade de bytes depende da
+	 * codificação do destino.
+	 */
+	public long getCharsWritten() {
+		return charsWritten;
+	}
+
+	/**
+	 * Tempo entre o <code>from(...)</code> e o fim do
+	 * <code>serialize()</code>, em nanosegundos
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * Quantidade de valores gravados
+	 */
+	public int getLeafCount() {
+		return leafCount;
+	}
+
+	/**
+	 * Maior profundidade alcançada, sendo 1 a do nó raiz
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Quantidade de nós, incluindo atributos
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Classe do objeto serializado, já sem proxy
+	 */
+	public Class<?> getRootType() {
+		return rootType;
+	}
+
+	/**
+	 * Se a serialização terminou com exceção
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	@Override
+	public String toString() {
+		return "QSMetrics[rootType="
+				+ (rootType == null ? null : rootType.getName())
+				+ ", durationNanos=" + durationNanos + ", nodeCount="
+				+ nodeCount + ", maxDepth=" + maxDepth + ", leafCount="
+				+ leafCount + ", charsWritten=" + charsWritten + ", failed="
+				+ failed + "]";
+	}
+}
@@ -0,0 +1,37 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization;
+
+/**
+ * Recebe as métricas de cada serialização de uma configuração criada com
+ * {@link QSSerialization#withMetrics(QSMetricsListener)}.
+ * 
+ * <p>
+ * É executado na thread da serialização, ao final de
+ * {@link br.com.caelum.vraptor.serialization.Serializer#serialize()}, inclusive
+ * quando ela falha. Deve ser thread-safe e rápido, repassando os valores ao
+ * sistema de métricas. As exceções lançadas pelo listener são ignoradas, para
+ * não ocultar a falha da serialização.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSMetricsListener {
+	void serialized(QSMetrics metrics);
+}
@@ -20,13 +20,25 @@
 package com.moisespsena.vraptor.qsserialization.serialization;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 import br.com.caelum.vraptor.serialization.NoRootSerialization;
+import br.com.caelum.vraptor.serialization.ProxyInitializer;
 import br.com.caelum.vraptor.serialization.Serialization;
 import br.com.caelum.vraptor.serialization.Serializer;
 
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.QSFragmentCache;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.QSReferenceMode;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHierarchicalStreamDriver.WriterCreatedListener;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSPathFilter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSRemovalFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSSnapshot;
 
 /**
  * Query String Serialization
@@ -36,6 +48,9 @@ import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring
  * 
  */
 public interface QSSerialization extends Serialization {
+	/**
+	 * Retorna uma nova configuração no formato array
+	 */
 	public QSSerialization arrayFormat();
 
 	<T> Serializer from(T object, String alias, QSFormatWriter formatWriter);
@@ -47,13 +62,207 @@ public interface QSSerialization extends Serialization {
 			final WriterCreatedListener writerCreatedListener,
 			QSFormatWriter formatWriter);
 
+	/**
+	 * Retorna uma nova configuração no formato objeto
+	 */
 	public QSSerialization objectFormat();
 
+	/**
+	 * Retorna uma nova configuração que serializa raízes {@link Collection}
+	 * maiores que <code>chunkSize</code> em partes executadas em paralelo,
+	 * gravadas na ordem dos elementos. A saída é idêntica à sequencial. Com
+	 * <code>null</code> o modo paralelo é desativado.
+	 * 
+	 * <p>
+	 * Os proxies e os lotes do {@link QSBatchInitializer} são inicializados na
+	 * thread que chama {@link Serializer#serialize()}. Outras associações
+	 * carregadas sob demanda devem estar carregadas antes.
+	 * </p>
+	 * 
+	 * @param executor
+	 *            Executa as partes; o ciclo de vida é de quem o informa
+	 * @param chunkSize
+	 *            Quantidade de elementos de cada parte
+	 * @since 1.1
+	 */
+	public QSSerialization parallel(ExecutorService executor, int chunkSize);
+
+	/**
+	 * Retorna uma nova configuração no formato .properties
+	 */
 	public QSSerialization propertiesFormat();
 
+	/**
+	 * Retorna uma nova configuração que grava no writer informado
+	 * 
+	 * @param writer
+	 * @since 1.1
+	 */
+	public QSSerialization to(Writer writer);
+
+	/**
+	 * Retorna uma nova configuração que grava os bytes no stream, comprimidos
+	 * conforme {@link #withCompression(QSCompression)}
+	 * 
+	 * @param output
+	 * @param encoding
+	 *            Codificação de caracteres
+	 * @since 1.1
+	 */
+	public QSSerialization to(OutputStream output, String encoding);
+
+	/**
+	 * Retorna uma nova configuração que, antes de cada serialização, inicializa
+	 * em lote os proxies e coleções não carregados no mesmo caminho de objetos
+	 * irmãos. Com <code>null</code> cada proxy é inicializado pelo
+	 * {@link ProxyInitializer} quando alcançado. As raízes {@link Iterator} e
+	 * {@link Iterable} são gravadas à medida em que são obtidas, portanto não
+	 * são percorridas antes e os seus proxies são inicializados apenas pelo
+	 * {@link ProxyInitializer}; o mesmo ocorre com um filtro de
+	 * {@link #withPathFilter(QSPathFilter)}, para que os campos rejeitados
+	 * nunca sejam carregados.
+	 * 
+	 * @param batchInitializer
+	 * @since 1.1
+	 */
+	public QSSerialization withBatchInitializer(
+			QSBatchInitializer batchInitializer);
+
+	/**
+	 * Retorna uma nova configuração que comprime a saída de
+	 * {@link #to(OutputStream, String)} à medida em que é gravada. Com
+	 * <code>null</code> a saída não é comprimida; um destino {@link Writer}
+	 * nunca é comprimido.
+	 * 
+	 * @param compression
+	 * @since 1.1
+	 */
+	public QSSerialization withCompression(QSCompression compression);
+
+	/**
+	 * Retorna uma nova configuração que calcula o ETag da saída durante a
+	 * gravação e o informa ao listener ao final de cada serialização. Com
+	 * <code>null</code> o ETag não é calculado.
+	 * 
+	 * @param etagListener
+	 * @since 1.1
+	 */
+	public QSSerialization withETag(QSETagListener etagListener);
+
+	/**
+	 * Retorna uma nova configuração condicional: cada serialização é gravada
+	 * em memória enquanto o ETag é calculado, o listener é informado e a saída
+	 * é gravada no destino apenas quando o ETag não corresponde ao
+	 * <code>If-None-Match</code>, ex:
+	 * 
+	 * <pre>
+	 * <code>serialization.withETag(new QSETagListener() {
+	 * 	public void etag(String etag, boolean notModified) {
+	 * 		response.setHeader("ETag", etag);
+	 * 		if (notModified) {
+	 * 			response.setStatus(304);
+	 * 		}
+	 * 	}
+	 * }, request.getHeader("If-None-Match")).to(writer).from(product).serialize();</code>
+	 * </pre>
+	 * 
+	 * @param etagListener
+	 * @param ifNoneMatch
+	 *            Valor do cabeçalho, ou <code>null</code>
+	 * @since 1.1
+	 */
+	public QSSerialization withETag(QSETagListener etagListener,
+			String ifNoneMatch);
+
+	/**
+	 * Retorna uma nova configuração que reaproveita as entradas já gravadas
+	 * dos objetos {@link QSVersioned} ou {@link QSImmutable} enquanto a versão
+	 * não mudar. Com <code>null</code> todos os objetos são serializados.
+	 * 
+	 * @param fragmentCache
+	 * @since 1.1
+	 */
+	public QSSerialization withFragmentCache(QSFragmentCache fragmentCache);
+
+	/**
+	 * Retorna uma nova configuração que aplica os limites de saída em cada
+	 * serialização. Com <code>null</code> não há limites.
+	 * 
+	 * @param limits
+	 * @since 1.1
+	 */
+	public QSSerialization withLimits(QSLimits limits);
+
+	/**
+	 * Retorna uma nova configuração que informa as métricas de cada
+	 * serialização ao listener. Com <code>null</code> as métricas são
+	 * desativadas e nada é medido.
+	 * 
+	 * @param metricsListener
+	 * @since 1.1
+	 */
+	public QSSerialization withMetrics(QSMetricsListener metricsListener);
+
+	/**
+	 * Retorna uma nova configuração que grava apenas os caminhos aceitos pelo
+	 * filtro; os campos rejeitados não são percorridos. Com <code>null</code>
+	 * todos os caminhos são gravados.
+	 * 
+	 * @param pathFilter
+	 * @since 1.1
+	 */
+	public QSSerialization withPathFilter(QSPathFilter pathFilter);
+
+	/**
+	 * Retorna uma nova configuração com o tratamento de objetos repetidos no
+	 * grafo, ex: ciclos entre entidades pai e filhas
+	 * 
+	 * @param referenceMode
+	 *            Modo, ou <code>null</code> para
+	 *            {@link QSReferenceMode#NO_REFERENCES}
+	 * @since 1.1
+	 */
+	public QSSerialization withReferenceMode(QSReferenceMode referenceMode);
+
+	/**
+	 * Retorna uma nova configuração que grava apenas as entradas novas,
+	 * alteradas e removidas desde a serialização anterior registrada no
+	 * snapshot. Com <code>null</code> todas as entradas são gravadas.
+	 * 
+	 * <p>
+	 * O formato, e o de cada {@link #withTee(Writer, QSFormatWriter)}, deve
+	 * ter sintaxe para as entradas removidas, ou seja, implementar
+	 * {@link QSRemovalFormatWriter}, como o de {@link #propertiesFormat()}.
+	 * Com outro formato <code>from(...)</code> lança
+	 * {@link IllegalArgumentException}.
+	 * </p>
+	 * 
+	 * @param snapshot
+	 * @since 1.1
+	 */
+	public QSSerialization withSnapshot(QSSnapshot snapshot);
+
+	/**
+	 * Retorna uma nova configuração que grava as mesmas entradas também no
+	 * writer, no formato informado, a partir de um único percurso do objeto.
+	 * Ex: a query string e um arquivo <code>.properties</code> de uma vez.
+	 * Com {@link #withSnapshot(QSSnapshot)} a saída adicional recebe também
+	 * as entradas removidas, portanto o formato deve implementar
+	 * {@link QSRemovalFormatWriter}.
+	 * 
+	 * @param writer
+	 *            Saída adicional
+	 * @param formatWriter
+	 *            Formato da saída adicional
+	 * @since 1.1
+	 */
+	public QSSerialization withTee(Writer writer, QSFormatWriter formatWriter);
+
 	/**
 	 * Exclude the root alias from serialization.
 	 * 
+	 * Retorna uma nova configuração.
+	 * 
 	 * @since 1.0
 	 * @throws IOException
 	 */
@@ -0,0 +1,38 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization;
+
+/**
+ * Objeto cujo conteúdo serializado pode ser reaproveitado enquanto a versão
+ * não mudar, ver {@link QSSerialization#withFragmentCache}.
+ * 
+ * <p>
+ * A versão deve mudar sempre que algum valor serializado do objeto, inclusive
+ * dos objetos alcançados por ele, for alterado. Objetos que nunca mudam podem
+ * usar {@link QSImmutable}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSVersioned {
+	/**
+	 * Versão corrente do conteúdo, ex: contador de alterações ou hash
+	 */
+	long getQSVersion();
+}
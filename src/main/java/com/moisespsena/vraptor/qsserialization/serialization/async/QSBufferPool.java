@@ -0,0 +1,94 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.async;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool thread-safe de buffers de bytes de tamanho fixo, usado por
+ * {@link QSBufferedOutput}
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSBufferPool {
+	/**
+	 * Buffers de 8 KiB, mantendo até 256 buffers livres
+	 */
+	public static final QSBufferPool DEFAULT = new QSBufferPool(8192, 256);
+
+	private final int bufferSize;
+	private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicInteger free = new AtomicInteger();
+	private final int maxFree;
+
+	/**
+	 * @param bufferSize
+	 *            Tamanho de cada buffer
+	 * @param maxFree
+	 *            Quantidade máxima de buffers livres mantidos no pool
+	 */
+	public QSBufferPool(final int bufferSize, final int maxFree) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive");
+		}
+		this.bufferSize = bufferSize;
+		this.maxFree = maxFree;
+	}
+
+	/**
+	 * Retorna um buffer livre, ou um novo caso o pool esteja vazio
+	 */
+	public byte[] acquire() {
+		final byte[] buffer = buffers.poll();
+		if (buffer == null) {
+			return new byte[bufferSize];
+		}
+		free.decrementAndGet();
+		return buffer;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Quantidade de buffers livres no pool
+	 */
+	public int getFree() {
+		return free.get();
+	}
+
+	/**
+	 * Devolve o buffer ao pool, que o descarta se já estiver cheio
+	 * 
+	 * @param buffer
+	 */
+	public void release(final byte[] buffer) {
+		if (buffer.length != bufferSize) {
+			return;
+		}
+		if (free.incrementAndGet() <= maxFree) {
+			buffers.offer(buffer);
+		} else {
+			free.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.async;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Destino em memória, formado por buffers de um {@link QSBufferPool}, que é
+ * descarregado em uma {@link QSNonBlockingOutput} apenas enquanto ela aceita
+ * escrita. Permite gerar a serialização na thread da requisição e liberá-la
+ * enquanto um cliente lento recebe a resposta, ex. com Servlet 3.1:
+ * 
+ * <pre>
+ * <code>final QSBufferedOutput buffered = new QSBufferedOutput();
+ * serialization.to(buffered.writer("UTF-8")).from(product).serialize();
+ * 
+ * final AsyncContext async = request.startAsync();
+ * final ServletOutputStream out = response.getOutputStream();
+ * final QSNonBlockingOutput output = new QSNonBlockingOutput() {
+ * 	public boolean isReady() {
+ * 		return out.isReady();
+ * 	}
+ * 
+ * 	public void write(byte[] b, int off, int len) throws IOException {
+ * 		out.write(b, off, len);
+ * 	}
+ * };
+ * out.setWriteListener(new WriteListener() {
+ * 	public void onWritePossible() throws IOException {
+ * 		if (buffered.drainTo(output)) {
+ * 			async.complete();
+ * 		}
+ * 	}
+ * 
+ * 	public void onError(Throwable t) {
+ * 		buffered.release();
+ * 		async.complete();
+ * 	}
+ * });</code>
+ * </pre>
+ * 
+ * <p>
+ * Não é thread-safe: a escrita deve terminar antes do primeiro
+ * {@link #drainTo(QSNonBlockingOutput)}, e o container não executa
+ * <code>onWritePossible()</code> concorrentemente.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSBufferedOutput extends OutputStream {
+	private final Deque<byte[]> buffers = new ArrayDeque<byte[]>();
+
+	/**
+	 * Último buffer, que recebe a escrita
+	 */
+	private byte[] current;
+	private final QSBufferPool pool;
+
+	/**
+	 * Posição de leitura do primeiro buffer
+	 */
+	private int readPosition;
+	private long size;
+
+	/**
+	 * Posição de escrita de {@link #current}
+	 */
+	private int writePosition;
+
+	public QSBufferedOutput() {
+		this(QSBufferPool.DEFAULT);
+	}
+
+	public QSBufferedOutput(final QSBufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Grava na saída os bytes pendentes enquanto ela estiver pronta
+	 * 
+	 * @param output
+	 * @return <code>true</code> se todos os bytes foram gravados, ou
+	 *         <code>false</code> se a saída deixou de aceitar escrita e o
+	 *         método deve ser executado novamente quando ela estiver pronta
+	 * @throws IOException
+	 */
+	public boolean drainTo(final QSNonBlockingOutput output)
+			throws IOException {
+		while (!buffers.isEmpty()) {
+			final byte[] buffer = buffers.peekFirst();
+			final int end = buffer == current ? writePosition : buffer.length;
+			if (readPosition < end) {
+				if (!output.isReady()) {
+					return false;
+				}
+				output.write(buffer, readPosition, end - readPosition);
+				size -= end - readPosition;
+			}
+
+			buffers.pollFirst();
+			pool.release(buffer);
+			readPosition = 0;
+			if (buffer == current) {
+				current = null;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Devolve os buffers ao pool descartando os bytes pendentes, ex: quando o
+	 * cliente desconecta
+	 */
+	public void release() {
+		for (final byte[] buffer : buffers) {
+			pool.release(buffer);
+		}
+		buffers.clear();
+		current = null;
+		readPosition = 0;
+		size = 0;
+	}
+
+	/**
+	 * Quantidade de bytes pendentes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Garante espaço em {@link #current}
+	 */
+	private void ensure() {
+		if ((current == null) || (writePosition == current.length)) {
+			current = pool.acquire();
+			buffers.addLast(current);
+			writePosition = 0;
+		}
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		int position = off;
+		final int end = off + len;
+		while (position < end) {
+			ensure();
+			final int count = Math.min(end - position, current.length
+					- writePosition);
+			System.arraycopy(b, position, current, writePosition, count);
+			writePosition += count;
+			position += count;
+		}
+		size += len;
+	}
+
+	@Override
+	public void write(final int b) {
+		ensure();
+		current[writePosition++] = (byte) b;
+		size++;
+	}
+
+	/**
+	 * {@link Writer} que codifica os caracteres neste destino. O
+	 * <code>serialize()</code> executa o {@link Writer#flush()} ao terminar.
+	 * 
+	 * @param encoding
+	 *            Codificação de caracteres da resposta
+	 */
+	public Writer writer(final String encoding) {
+		return new OutputStreamWriter(this, Charset.forName(encoding));
+	}
+}
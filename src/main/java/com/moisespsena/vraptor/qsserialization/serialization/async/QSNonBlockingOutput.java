@@ -0,0 +1,37 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.async;
+
+import java.io.IOException;
+
+/**
+ * Saída não bloqueante de destino de {@link QSBufferedOutput}, com o mesmo
+ * contrato do <code>ServletOutputStream</code> do Servlet 3.1:
+ * {@link #write(byte[], int, int)} só é chamado após {@link #isReady()}
+ * retornar <code>true</code>, e quando ele retorna <code>false</code> o
+ * container avisa, via <code>WriteListener.onWritePossible()</code>, que a
+ * escrita pode continuar.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSNonBlockingOutput {
+	boolean isReady();
+
+	void write(byte[] b, int off, int len) throws IOException;
+}
@@ -0,0 +1,163 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.moisespsena.vraptor.qsserialization.serialization.QSBatchInitializer;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+/**
+ * Percorre o grafo por nível antes da serialização, seguindo apenas os campos
+ * que serão gravados, e entrega ao {@link QSBatchInitializer} os valores não
+ * carregados de cada caminho de uma vez.
+ * 
+ * <p>
+ * Os elementos de coleções, mapas e arrays compartilham o caminho da
+ * coleção, portanto o mesmo campo de todos os itens de uma lista forma um
+ * único lote. Cada objeto é percorrido uma única vez e os proxies são
+ * percorridos pelo objeto real, obtido de
+ * {@link QSBatchInitializer#getActualValue(Object)}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+final class QSBatchLoader {
+	/**
+	 * Valor encontrado no caminho
+	 */
+	private static final class Entry {
+		private final String path;
+		private final Object value;
+
+		private Entry(final String path, final Object value) {
+			this.path = path;
+			this.value = value;
+		}
+	}
+
+	private final QSBatchInitializer batchInitializer;
+	private final Mapper mapper;
+	private final ReflectionProvider reflectionProvider;
+	private final QSSerializer serializer;
+	private final Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+
+	QSBatchLoader(final QSBatchInitializer batchInitializer,
+			final Mapper mapper, final ReflectionProvider reflectionProvider,
+			final QSSerializer serializer) {
+		this.batchInitializer = batchInitializer;
+		this.mapper = mapper;
+		this.reflectionProvider = reflectionProvider;
+		this.serializer = serializer;
+	}
+
+	/**
+	 * Adiciona ao próximo nível os valores contidos no objeto
+	 */
+	private void expand(final Entry entry, final List<Entry> next) {
+		if ((entry.value == null)
+				|| serializer.isPrimitive(entry.value.getClass())
+				|| (visited.put(entry.value, Boolean.TRUE) != null)) {
+			return;
+		}
+
+		// os campos de um proxy ficam vazios, os valores estão no objeto real
+		final Object value = batchInitializer.getActualValue(entry.value);
+		if ((value != entry.value)
+				&& (visited.put(value, Boolean.TRUE) != null)) {
+			return;
+		}
+
+		if (value instanceof Collection) {
+			for (final Object item : (Collection<?>) value) {
+				next.add(new Entry(entry.path, item));
+			}
+		} else if (value instanceof Map) {
+			for (final Map.Entry<?, ?> item : ((Map<?, ?>) value).entrySet()) {
+				next.add(new Entry(entry.path, item.getKey()));
+				next.add(new Entry(entry.path, item.getValue()));
+			}
+		} else if (value instanceof Object[]) {
+			for (final Object item : (Object[]) value) {
+				next.add(new Entry(entry.path, item));
+			}
+		} else if (!value.getClass().isArray()) {
+			reflectionProvider.visitSerializableFields(value,
+					new ReflectionProvider.Visitor() {
+						@SuppressWarnings("rawtypes")
+						@Override
+						public void visit(final String fieldName,
+								final Class type, final Class definedIn,
+								final Object fieldValue) {
+							if ((fieldValue != null)
+									&& mapper.shouldSerializeMember(
+											definedIn, fieldName)) {
+								next.add(new Entry(entry.path + '.'
+										+ fieldName, fieldValue));
+							}
+						}
+					});
+		}
+	}
+
+	/**
+	 * Inicializa em lote os valores não carregados alcançáveis a partir da
+	 * raiz
+	 * 
+	 * @param root
+	 */
+	void load(final Object root) {
+		List<Entry> level = new ArrayList<Entry>();
+		level.add(new Entry("", root));
+
+		while (!level.isEmpty()) {
+			final Map<String, List<Object>> batches = new LinkedHashMap<String, List<Object>>();
+			final Map<Object, Boolean> pending = new IdentityHashMap<Object, Boolean>();
+			for (final Entry entry : level) {
+				final Object value = entry.value;
+				if ((value != null) && !visited.containsKey(value)
+						&& !serializer.isPrimitive(value.getClass())
+						&& batchInitializer.isUninitialized(value)
+						&& (pending.put(value, Boolean.TRUE) == null)) {
+					List<Object> batch = batches.get(entry.path);
+					if (batch == null) {
+						batch = new ArrayList<Object>();
+						batches.put(entry.path, batch);
+					}
+					batch.add(value);
+				}
+			}
+			for (final List<Object> batch : batches.values()) {
+				batchInitializer.initialize(batch);
+			}
+
+			final List<Entry> next = new ArrayList<Entry>();
+			for (final Entry entry : level) {
+				expand(entry, next);
+			}
+			level = next;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import br.com.caelum.vraptor.interceptor.TypeNameExtractor;
+import br.com.caelum.vraptor.serialization.xstream.VRaptorClassMapper;
+
+import com.thoughtworks.xstream.mapper.Mapper;
+import com.thoughtworks.xstream.mapper.MapperWrapper;
+
+/**
+ * Mapper que aplica o alias, as exclusões, o filtro de caminhos e o
+ * {@link TypeNameExtractor} da serialização corrente ({@link QSSerializer})
+ * sem alterar a configuração do XStream, permitindo que a mesma instância seja
+ * compartilhada entre serializações.
+ * 
+ * <p>
+ * Os nomes das classes seguem a mesma regra de {@link VRaptorClassMapper}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSClassMapper extends MapperWrapper {
+	private final TypeNameExtractor extractor;
+
+	public QSClassMapper(final Mapper wrapped,
+			final TypeNameExtractor extractor) {
+		super(wrapped);
+		this.extractor = extractor;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.thoughtworks.xstream.mapper.MapperWrapper#serializedClass(java.lang
+	 * .Class)
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public String serializedClass(final Class type) {
+		TypeNameExtractor extractor = this.extractor;
+		final QSSerializer serializer = QSSerializer.current();
+		if (serializer != null) {
+			final String alias = serializer.aliasFor(type);
+			if (alias != null) {
+				return alias;
+			}
+			extractor = serializer.getExtractor();
+		}
+
+		final String superName = super.serializedClass(type);
+		if (type.getName().equals(superName)) {
+			return extractor.nameFor(type);
+		}
+		return superName;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.thoughtworks.xstream.mapper.MapperWrapper#shouldSerializeMember(java
+	 * .lang.Class, java.lang.String)
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public boolean shouldSerializeMember(final Class definedIn,
+			final String fieldName) {
+		final QSSerializer serializer = QSSerializer.current();
+		if ((serializer != null)
+				&& (serializer.isExcluded(definedIn, fieldName) || !serializer
+						.acceptsMember(serializedMember(definedIn, fieldName)))) {
+			return false;
+		}
+		return super.shouldSerializeMember(definedIn, fieldName);
+	}
+}
@@ -0,0 +1,93 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+
+import br.com.caelum.vraptor.serialization.Serializer;
+
+import com.thoughtworks.xstream.io.StreamException;
+
+/**
+ * Termina o stream comprimido após a serialização, gravando os dados
+ * pendentes do compressor e o trailer do formato. O compressor é liberado
+ * também quando a serialização falha.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+class QSCompressedSerializer implements Serializer {
+	private final DeflaterOutputStream compressed;
+	private final Serializer serializer;
+
+	QSCompressedSerializer(final Serializer serializer,
+			final DeflaterOutputStream compressed) {
+		this.serializer = serializer;
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Termina o stream após uma falha, liberando o compressor sem encobrir o
+	 * erro original
+	 */
+	static void end(final DeflaterOutputStream compressed) {
+		try {
+			compressed.finish();
+		} catch (final IOException e) {
+			// o erro da serialização é mais relevante
+		}
+	}
+
+	@Override
+	public Serializer exclude(final String... names) {
+		serializer.exclude(names);
+		return this;
+	}
+
+	@Override
+	public Serializer include(final String... fields) {
+		serializer.include(fields);
+		return this;
+	}
+
+	@Override
+	public Serializer recursive() {
+		serializer.recursive();
+		return this;
+	}
+
+	@Override
+	public void serialize() {
+		try {
+			serializer.serialize();
+		} catch (final RuntimeException e) {
+			end(compressed);
+			throw e;
+		} catch (final Error e) {
+			end(compressed);
+			throw e;
+		}
+		try {
+			compressed.finish();
+			compressed.flush();
+		} catch (final IOException e) {
+			throw new StreamException(e);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+
+import br.com.caelum.vraptor.serialization.Serializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.QSCompression;
+import com.moisespsena.vraptor.qsserialization.serialization.QSETag;
+import com.moisespsena.vraptor.qsserialization.serialization.QSETagListener;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHashingWriter;
+import com.thoughtworks.xstream.io.StreamException;
+
+/**
+ * Serialização condicional: serializa uma única vez em memória calculando o
+ * ETag, informa o {@link QSETagListener} e grava a saída no destino apenas
+ * quando o ETag não corresponde ao <code>If-None-Match</code>.
+ * 
+ * <p>
+ * Por ser uma única passada, raízes {@link java.util.Iterator}, o
+ * {@link com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSSnapshot}
+ * e os contadores do {@link QSFragmentCache} se comportam como na
+ * serialização comum. Em troca, a saída inteira fica em memória até o ETag
+ * ser conhecido.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+abstract class QSConditionalSerializer implements Serializer {
+	private final CharArrayWriter buffer;
+	private final QSCompression compression;
+	private final QSHashingWriter hashing;
+	private final String ifNoneMatch;
+	private final QSETagListener listener;
+	private final Serializer serializer;
+
+	/**
+	 * @param serializer
+	 *            Serializer que grava em <code>hashing</code>
+	 * @param hashing
+	 *            Calcula o hash e repassa os caracteres a <code>buffer</code>
+	 * @param buffer
+	 * @param listener
+	 * @param ifNoneMatch
+	 *            Valor do cabeçalho <code>If-None-Match</code>, ou
+	 *            <code>null</code>
+	 * @param compression
+	 *            Compressão da saída, ou <code>null</code>
+	 */
+	QSConditionalSerializer(final Serializer serializer,
+			final QSHashingWriter hashing, final CharArrayWriter buffer,
+			final QSETagListener listener, final String ifNoneMatch,
+			final QSCompression compression) {
+		this.serializer = serializer;
+		this.hashing = hashing;
+		this.buffer = buffer;
+		this.listener = listener;
+		this.ifNoneMatch = ifNoneMatch;
+		this.compression = compression;
+	}
+
+	@Override
+	public Serializer exclude(final String... names) {
+		serializer.exclude(names);
+		return this;
+	}
+
+	@Override
+	public Serializer include(final String... fields) {
+		serializer.include(fields);
+		return this;
+	}
+
+	@Override
+	public Serializer recursive() {
+		serializer.recursive();
+		return this;
+	}
+
+	@Override
+	public void serialize() {
+		serializer.serialize();
+
+		final String etag = QSETag.format(hashing.getHash(), compression);
+		final boolean notModified = QSETag.matches(ifNoneMatch, etag);
+		listener.etag(etag, notModified);
+		if (!notModified) {
+			try {
+				write(buffer);
+			} catch (final IOException e) {
+				throw new StreamException(e);
+			}
+		}
+	}
+
+	/**
+	 * Grava a saída serializada no destino
+	 * 
+	 * @param buffer
+	 *            Saída completa
+	 * @throws IOException
+	 */
+	protected abstract void write(CharArrayWriter buffer) throws IOException;
+}
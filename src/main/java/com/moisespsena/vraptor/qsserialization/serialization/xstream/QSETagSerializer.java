@@ -0,0 +1,71 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import br.com.caelum.vraptor.serialization.Serializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.QSCompression;
+import com.moisespsena.vraptor.qsserialization.serialization.QSETag;
+import com.moisespsena.vraptor.qsserialization.serialization.QSETagListener;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHashingWriter;
+
+/**
+ * Informa o ETag da saída, calculado durante a gravação, após a serialização
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+class QSETagSerializer implements Serializer {
+	private final QSCompression compression;
+	private final QSHashingWriter hashing;
+	private final QSETagListener listener;
+	private final Serializer serializer;
+
+	QSETagSerializer(final Serializer serializer,
+			final QSHashingWriter hashing, final QSETagListener listener,
+			final QSCompression compression) {
+		this.serializer = serializer;
+		this.hashing = hashing;
+		this.listener = listener;
+		this.compression = compression;
+	}
+
+	@Override
+	public Serializer exclude(final String... names) {
+		serializer.exclude(names);
+		return this;
+	}
+
+	@Override
+	public Serializer include(final String... fields) {
+		serializer.include(fields);
+		return this;
+	}
+
+	@Override
+	public Serializer recursive() {
+		serializer.recursive();
+		return this;
+	}
+
+	@Override
+	public void serialize() {
+		serializer.serialize();
+		listener.etag(QSETag.format(hashing.getHash(), compression), false);
+	}
+}
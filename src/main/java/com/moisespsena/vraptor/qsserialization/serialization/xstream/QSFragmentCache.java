@@ -0,0 +1,182 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.moisespsena.vraptor.qsserialization.serialization.QSImmutable;
+import com.moisespsena.vraptor.qsserialization.serialization.QSVersioned;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFragment;
+
+/**
+ * Cache thread-safe, com descarte LRU, das entradas já formatadas de objetos
+ * {@link QSVersioned} ou {@link QSImmutable}, gravadas com o caminho relativo
+ * ao objeto para serem repetidas abaixo de qualquer prefixo.
+ * 
+ * <p>
+ * A chave é a identidade do objeto, a sua versão e a configuração da
+ * serialização (XStream, formato, alias e exclusões). A configuração é
+ * comparada uma vez por serialização, em {@link #context(Object)}, e nas
+ * buscas apenas pela identidade. Os objetos são mantidos pelo cache até serem
+ * descartados.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSFragmentCache {
+	static final class Key {
+		private final Object context;
+		private final int hash;
+		private final Object object;
+		private final long version;
+
+		Key(final Object object, final long version, final Object context) {
+			this.object = object;
+			this.version = version;
+			this.context = context;
+			hash = (31 * ((31 * System.identityHashCode(object)) + (int) (version ^ (version >>> 32))))
+					+ System.identityHashCode(context);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return (object == other.object) && (version == other.version)
+					&& (context == other.context);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * Instância única de cada configuração, ver {@link #context(Object)}
+	 */
+	private final ConcurrentMap<Object, Object> contexts = new ConcurrentHashMap<Object, Object>();
+	private final AtomicLong evictions = new AtomicLong();
+	private final Map<Key, QSFragment> fragments;
+	private final AtomicLong hits = new AtomicLong();
+	private final int maxEntries;
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxEntries
+	 *            Quantidade máxima de fragmentos mantidos
+	 */
+	public QSFragmentCache(final int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.maxEntries = maxEntries;
+		fragments = new LinkedHashMap<Key, QSFragment>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<Key, QSFragment> eldest) {
+				if (size() > QSFragmentCache.this.maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public void clear() {
+		synchronized (fragments) {
+			fragments.clear();
+		}
+		contexts.clear();
+	}
+
+	/**
+	 * Retorna a instância única equivalente à configuração, comparada nas
+	 * chaves pela identidade
+	 * 
+	 * @param context
+	 *            Configuração, comparada por {@link Object#equals(Object)}
+	 */
+	Object context(final Object context) {
+		final Object existing = contexts.get(context);
+		if (existing != null) {
+			return existing;
+		}
+		if (contexts.size() >= maxEntries) {
+			contexts.clear();
+		}
+		final Object previous = contexts.putIfAbsent(context, context);
+		return previous == null ? context : previous;
+	}
+
+	QSFragment get(final Key key) {
+		final QSFragment fragment;
+		synchronized (fragments) {
+			fragment = fragments.get(key);
+		}
+		(fragment == null ? misses : hits).incrementAndGet();
+		return fragment;
+	}
+
+	/**
+	 * Fragmentos descartados por exceder {@link #getMaxEntries()}
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Objetos gravados a partir de um fragmento do cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Objetos serializados e gravados no cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	void put(final Key key, final QSFragment fragment) {
+		synchronized (fragments) {
+			fragments.put(key, fragment);
+		}
+	}
+
+	public int size() {
+		synchronized (fragments) {
+			return fragments.size();
+		}
+	}
+}
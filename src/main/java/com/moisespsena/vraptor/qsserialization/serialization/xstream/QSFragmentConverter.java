@@ -0,0 +1,101 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import com.moisespsena.vraptor.qsserialization.serialization.QSImmutable;
+import com.moisespsena.vraptor.qsserialization.serialization.QSVersioned;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFragment;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+/**
+ * Grava objetos {@link QSVersioned} ou {@link QSImmutable} com o
+ * {@link ReflectionConverter}, reaproveitando as entradas do
+ * {@link QSFragmentCache} da serialização corrente quando houver.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSFragmentConverter implements Converter {
+	private final ReflectionConverter delegate;
+
+	public QSFragmentConverter(final Mapper mapper,
+			final ReflectionProvider reflectionProvider) {
+		delegate = new ReflectionConverter(mapper, reflectionProvider);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public boolean canConvert(final Class type) {
+		return (type != null)
+				&& (QSVersioned.class.isAssignableFrom(type) || ((Class<?>) type)
+						.isAnnotationPresent(QSImmutable.class));
+	}
+
+	@Override
+	public void marshal(final Object source,
+			final HierarchicalStreamWriter writer,
+			final MarshallingContext context) {
+		final QSSerializer serializer = QSSerializer.current();
+		final QSFragmentCache cache = serializer == null ? null : serializer
+				.fragmentCache();
+		final HierarchicalStreamWriter underlying = writer.underlyingWriter();
+		if ((cache == null) || !(underlying instanceof QSWriter)
+				|| !((QSWriter) underlying).canUseFragment()) {
+			delegate.marshal(source, writer, context);
+			return;
+		}
+
+		final QSWriter qsWriter = (QSWriter) underlying;
+		final long version = source instanceof QSVersioned ? ((QSVersioned) source)
+				.getQSVersion() : 0;
+		final QSFragmentCache.Key key = new QSFragmentCache.Key(source,
+				version, serializer.fragmentContext(qsWriter));
+
+		QSFragment fragment = cache.get(key);
+		if (fragment != null) {
+			qsWriter.writeFragment(fragment);
+			return;
+		}
+
+		qsWriter.startFragment();
+		try {
+			delegate.marshal(source, writer, context);
+			fragment = qsWriter.endFragment();
+		} finally {
+			if (fragment == null) {
+				qsWriter.cancelFragment();
+			}
+		}
+		cache.put(key, fragment);
+	}
+
+	@Override
+	public Object unmarshal(final HierarchicalStreamReader reader,
+			final UnmarshallingContext context) {
+		throw new UnsupportedOperationException(
+				"The QSFragmentConverter can only write fragments");
+	}
+}
@@ -0,0 +1,88 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.collections.AbstractCollectionConverter;
+import com.thoughtworks.xstream.converters.collections.CollectionConverter;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+/**
+ * Grava os elementos de um {@link Iterator} ou de um {@link Iterable} que não
+ * é {@link Collection} à medida em que são obtidos, da mesma forma que o
+ * {@link CollectionConverter} grava uma lista, sem manter os elementos em
+ * memória. Permite serializar resultados paginados ou cursores como raiz ou
+ * como campo.
+ * 
+ * <p>
+ * Campos {@link Collection} continuam com o {@link CollectionConverter}, que
+ * também percorre o {@link Collection#iterator()} sem copiar os elementos.
+ * Coleções carregadas sob demanda (ex: <code>PersistentBag</code> do
+ * Hibernate) porém carregam todos os elementos no primeiro acesso; para
+ * gravá-las por partes o campo deve ser declarado como {@link Iterator} ou
+ * {@link Iterable}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSIteratorConverter extends AbstractCollectionConverter {
+
+	public QSIteratorConverter(final Mapper mapper) {
+		super(mapper);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public boolean canConvert(final Class type) {
+		return Iterator.class.isAssignableFrom(type)
+				|| (Iterable.class.isAssignableFrom(type)
+						&& !Collection.class.isAssignableFrom(type) && !Map.class
+						.isAssignableFrom(type));
+	}
+
+	@Override
+	public void marshal(final Object source,
+			final HierarchicalStreamWriter writer,
+			final MarshallingContext context) {
+		final QSSerializer serializer = QSSerializer.current();
+		final Iterator<?> iterator = source instanceof Iterator ? (Iterator<?>) source
+				: ((Iterable<?>) source).iterator();
+		while (iterator.hasNext()) {
+			final Object item = iterator.next();
+			if (serializer != null) {
+				serializer.element(item);
+			}
+			writeItem(item, context, writer);
+		}
+	}
+
+	@Override
+	public Object unmarshal(final HierarchicalStreamReader reader,
+			final UnmarshallingContext context) {
+		throw new UnsupportedOperationException(
+				"The QSIteratorConverter can only write Iterators");
+	}
+}
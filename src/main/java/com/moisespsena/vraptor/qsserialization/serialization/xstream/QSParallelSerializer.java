@@ -0,0 +1,513 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import br.com.caelum.vraptor.serialization.ProxyInitializer;
+import br.com.caelum.vraptor.serialization.Serializer;
+import br.com.caelum.vraptor.serialization.SerializerBuilder;
+
+import com.moisespsena.vraptor.qsserialization.serialization.QSBatchInitializer;
+import com.moisespsena.vraptor.qsserialization.serialization.QSMetrics;
+import com.moisespsena.vraptor.qsserialization.serialization.QSMetricsListener;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
+import com.thoughtworks.xstream.io.StreamException;
+
+/**
+ * Serializa uma raiz {@link Collection} em partes, cada uma no
+ * {@link ExecutorService} com o seu próprio {@link QSWriter}, e grava as
+ * partes no writer de destino na ordem dos elementos.
+ * 
+ * <p>
+ * Os elementos de uma raiz coleção não recebem índice no caminho (ex:
+ * <code>list.product.name=...</code>), portanto cada parte é serializada como
+ * uma raiz com os mesmos alias, inclusões e exclusões e a concatenação é
+ * idêntica à serialização sequencial.
+ * </p>
+ * 
+ * <p>
+ * No máximo <code>maxInFlight</code> partes são submetidas ao mesmo tempo, e
+ * cada parte é gravada no destino assim que ela e as anteriores terminam,
+ * portanto a memória usada não depende do tamanho da coleção.
+ * </p>
+ * 
+ * <p>
+ * Sessões de persistência não podem ser usadas por várias threads. Os
+ * initializers obtidos de {@link #onCallingThread(ProxyInitializer)} e
+ * {@link #onCallingThread(QSBatchInitializer)} executam a inicialização na
+ * thread que chamou {@link #serialize()}, enquanto ela aguarda as partes.
+ * Coleções carregadas sob demanda que não passam por eles (ex: sem
+ * {@link QSBatchInitializer}) devem estar carregadas antes da serialização.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public abstract class QSParallelSerializer implements SerializerBuilder {
+	/**
+	 * Saída e contadores de uma parte
+	 */
+	private static final class Chunk {
+		private long charsWritten;
+		private int leafCount;
+		private int maxDepth;
+		private int nodeCount;
+		private final CharArrayWriter out = new CharArrayWriter();
+	}
+
+	/**
+	 * Chamada de {@link Serializer} repetida em cada parte
+	 */
+	private static final class Rule {
+		private final String[] names;
+		private final int type;
+
+		private Rule(final int type, final String[] names) {
+			this.type = type;
+			this.names = names;
+		}
+	}
+
+	private static final int EXCLUDE = 0;
+
+	private static final int INCLUDE = 1;
+
+	private static final int RECURSIVE = 2;
+
+	/**
+	 * Acorda a thread de {@link #serialize()} quando uma parte termina
+	 */
+	private static final Runnable WAKE_UP = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	private String alias;
+
+	/**
+	 * Inicializações pedidas pelas partes e avisos de parte concluída,
+	 * executados pela thread de {@link #serialize()}
+	 */
+	private final BlockingQueue<Runnable> callerTasks = new LinkedBlockingQueue<Runnable>();
+
+	/**
+	 * Thread que executa {@link #serialize()}
+	 */
+	private volatile Thread callingThread;
+	private final int chunkSize;
+	private List<Object> elements;
+	private final ExecutorService executor;
+	private final int maxInFlight;
+	private final QSMetricsListener metricsListener;
+	private Class<?> rootType;
+	private final List<Rule> rules = new ArrayList<Rule>();
+	private final long startNanos;
+	private final Writer writer;
+
+	/**
+	 * @param writer
+	 *            Destino
+	 * @param executor
+	 *            Executa as partes
+	 * @param chunkSize
+	 *            Quantidade de elementos de cada parte
+	 * @param metricsListener
+	 *            Recebe as métricas de toda a coleção, ou <code>null</code>
+	 * @param startNanos
+	 *            Início da serialização, obtido de {@link System#nanoTime()}
+	 */
+	public QSParallelSerializer(final Writer writer,
+			final ExecutorService executor, final int chunkSize,
+			final QSMetricsListener metricsListener, final long startNanos) {
+		this(writer, executor, chunkSize, 2 * Runtime.getRuntime()
+				.availableProcessors(), metricsListener, startNanos);
+	}
+
+	/**
+	 * @param writer
+	 *            Destino
+	 * @param executor
+	 *            Executa as partes
+	 * @param chunkSize
+	 *            Quantidade de elementos de cada parte
+	 * @param maxInFlight
+	 *            Quantidade máxima de partes submetidas e ainda não gravadas
+	 * @param metricsListener
+	 *            Recebe as métricas de toda a coleção, ou <code>null</code>
+	 * @param startNanos
+	 *            Início da serialização, obtido de {@link System#nanoTime()}
+	 */
+	public QSParallelSerializer(final Writer writer,
+			final ExecutorService executor, final int chunkSize,
+			final int maxInFlight, final QSMetricsListener metricsListener,
+			final long startNanos) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		}
+		this.writer = writer;
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+		this.maxInFlight = maxInFlight;
+		this.metricsListener = metricsListener;
+		this.startNanos = startNanos;
+	}
+
+	/**
+	 * Aguarda a parte executando as tarefas pedidas pelas partes em execução
+	 */
+	private Chunk await(final Future<Chunk> future)
+			throws InterruptedException, ExecutionException {
+		while (!future.isDone()) {
+			callerTasks.take().run();
+		}
+		return future.get();
+	}
+
+	private void cancel(final List<Future<Chunk>> futures) {
+		for (final Future<Chunk> future : futures) {
+			future.cancel(true);
+		}
+		for (Runnable task = callerTasks.poll(); task != null; task = callerTasks
+				.poll()) {
+			if (task instanceof Future) {
+				((Future<?>) task).cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Executa a tarefa na thread de {@link #serialize()}, aguardando o
+	 * resultado
+	 */
+	private <T> T callOnCallingThread(final Callable<T> task) {
+		final Thread thread = callingThread;
+		try {
+			if ((thread == null) || (thread == Thread.currentThread())) {
+				return task.call();
+			}
+			final FutureTask<T> future = new FutureTask<T>(task);
+			callerTasks.add(future);
+			return future.get();
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new StreamException(cause);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StreamException(e);
+		} catch (final RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new StreamException(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.Serializer#exclude(java.lang.String
+	 * [])
+	 */
+	@Override
+	public Serializer exclude(final String... names) {
+		rules.add(new Rule(EXCLUDE, names));
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.SerializerBuilder#from(java.lang.
+	 * Object)
+	 */
+	@Override
+	public <T> Serializer from(final T object) {
+		return from(object, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.SerializerBuilder#from(java.lang.
+	 * Object, java.lang.String)
+	 */
+	@Override
+	public <T> Serializer from(final T object, final String alias) {
+		if (!(object instanceof Collection)) {
+			throw new IllegalArgumentException(
+					"Parallel serialization requires a Collection root");
+		}
+		elements = new ArrayList<Object>((Collection<?>) object);
+		rootType = object.getClass();
+		this.alias = alias;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.Serializer#include(java.lang.String
+	 * [])
+	 */
+	@Override
+	public Serializer include(final String... fields) {
+		rules.add(new Rule(INCLUDE, fields));
+		return this;
+	}
+
+	/**
+	 * Cria o serializer de uma parte. Os initializers usados pela parte devem
+	 * ser obtidos de {@link #onCallingThread(ProxyInitializer)} e
+	 * {@link #onCallingThread(QSBatchInitializer)}.
+	 * 
+	 * @param writer
+	 *            Writer da parte, criado por {@link #newWriter(Writer)}
+	 */
+	protected abstract SerializerBuilder newSerializer(QSWriter writer);
+
+	/**
+	 * Cria o writer de uma parte
+	 * 
+	 * @param out
+	 *            Buffer da parte
+	 */
+	protected abstract QSWriter newWriter(Writer out);
+
+	/**
+	 * Inicializador em lote que carrega os valores na thread de
+	 * {@link #serialize()}
+	 */
+	protected QSBatchInitializer onCallingThread(
+			final QSBatchInitializer batchInitializer) {
+		return new QSBatchInitializer() {
+			@Override
+			public Object getActualValue(final Object value) {
+				return batchInitializer.getActualValue(value);
+			}
+
+			@Override
+			public void initialize(final List<Object> values) {
+				callOnCallingThread(new Callable<Void>() {
+					@Override
+					public Void call() {
+						batchInitializer.initialize(values);
+						return null;
+					}
+				});
+			}
+
+			@Override
+			public boolean isUninitialized(final Object value) {
+				return batchInitializer.isUninitialized(value);
+			}
+		};
+	}
+
+	/**
+	 * Initializer que inicializa os proxies na thread de {@link #serialize()}
+	 */
+	protected ProxyInitializer onCallingThread(
+			final ProxyInitializer initializer) {
+		return new ProxyInitializer() {
+			@Override
+			public Class<?> getActualClass(final Object object) {
+				return initializer.getActualClass(object);
+			}
+
+			@Override
+			public void initialize(final Object object) {
+				callOnCallingThread(new Callable<Void>() {
+					@Override
+					public Void call() {
+						initializer.initialize(object);
+						return null;
+					}
+				});
+			}
+
+			@Override
+			public boolean isProxy(final Class<?> clazz) {
+				return initializer.isProxy(clazz);
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see br.com.caelum.vraptor.serialization.Serializer#recursive()
+	 */
+	@Override
+	public Serializer recursive() {
+		rules.add(new Rule(RECURSIVE, null));
+		return this;
+	}
+
+	private void report(final List<Chunk> chunks, final boolean failed) {
+		int nodeCount = 0;
+		int leafCount = 0;
+		int maxDepth = 0;
+		long charsWritten = 0;
+		for (final Chunk chunk : chunks) {
+			nodeCount += chunk.nodeCount;
+			leafCount += chunk.leafCount;
+			maxDepth = Math.max(maxDepth, chunk.maxDepth);
+			charsWritten += chunk.charsWritten;
+		}
+		if (chunks.size() > 1) {
+			// o nó raiz é gravado por todas as partes
+			nodeCount -= chunks.size() - 1;
+		}
+		final QSMetrics metrics = new QSMetrics(rootType, System.nanoTime()
+				- startNanos, nodeCount, maxDepth, leafCount, charsWritten,
+				failed);
+		try {
+			metricsListener.serialized(metrics);
+		} catch (final RuntimeException e) {
+			// executado no finally de serialize(): não oculta a falha original
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see br.com.caelum.vraptor.serialization.Serializer#serialize()
+	 */
+	@Override
+	public void serialize() {
+		final LinkedList<Future<Chunk>> futures = new LinkedList<Future<Chunk>>();
+		final List<Chunk> chunks = new ArrayList<Chunk>();
+		boolean failed = true;
+		callingThread = Thread.currentThread();
+		try {
+			final int size = elements.size();
+			int start = 0;
+			do {
+				while ((futures.size() < maxInFlight)
+						&& ((start < size) || (start == 0))) {
+					futures.add(submit(elements.subList(start,
+							Math.min(size, start + chunkSize))));
+					start += chunkSize;
+				}
+
+				final Chunk chunk = await(futures.getFirst());
+				futures.removeFirst();
+				chunks.add(chunk);
+				chunk.out.writeTo(writer);
+			} while (!futures.isEmpty());
+			writer.flush();
+			failed = false;
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new StreamException(cause);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StreamException(e);
+		} catch (final IOException e) {
+			throw new StreamException(e);
+		} finally {
+			callingThread = null;
+			if (failed) {
+				cancel(futures);
+			}
+			if (metricsListener != null) {
+				report(chunks, failed);
+			}
+		}
+	}
+
+	/**
+	 * Submete a parte, avisando a thread de {@link #serialize()} ao terminar
+	 */
+	private Future<Chunk> submit(final List<Object> part) {
+		final FutureTask<Chunk> future = new FutureTask<Chunk>(
+				new Callable<Chunk>() {
+					@Override
+					public Chunk call() {
+						return serialize(part);
+					}
+				}) {
+			@Override
+			protected void done() {
+				callerTasks.add(WAKE_UP);
+			}
+		};
+		executor.execute(future);
+		return future;
+	}
+
+	private Chunk serialize(final List<Object> part) {
+		final Chunk chunk = new Chunk();
+		final QSWriter qsWriter = newWriter(chunk.out);
+		final Serializer serializer = newSerializer(qsWriter).from(part,
+				alias);
+		for (final Rule rule : rules) {
+			switch (rule.type) {
+			case EXCLUDE:
+				serializer.exclude(rule.names);
+				break;
+			case INCLUDE:
+				serializer.include(rule.names);
+				break;
+			default:
+				serializer.recursive();
+				break;
+			}
+		}
+		serializer.serialize();
+
+		chunk.charsWritten = qsWriter.getCharsWritten();
+		chunk.leafCount = qsWriter.getLeafCount();
+		chunk.maxDepth = qsWriter.getMaxDepth();
+		chunk.nodeCount = qsWriter.getNodeCount();
+		return chunk;
+	}
+}
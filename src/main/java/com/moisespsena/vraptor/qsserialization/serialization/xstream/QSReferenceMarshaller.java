@@ -0,0 +1,94 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSClassKind;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.ConverterLookup;
+import com.thoughtworks.xstream.core.TreeMarshaller;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+/**
+ * {@link TreeMarshaller} que trata as referências repetidas conforme o
+ * {@link QSReferenceMode}, identificando os objetos por identidade ao entrar
+ * em cada um deles. Tipos imutáveis (String, números, etc.) não são
+ * verificados.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSReferenceMarshaller extends TreeMarshaller {
+	/**
+	 * Objetos em serialização (ancestrais do nó corrente) ou já serializados,
+	 * com o caminho da primeira ocorrência em
+	 * {@link QSReferenceMode#PATH_REFERENCES}
+	 */
+	private final Map<Object, String> objects = new IdentityHashMap<Object, String>();
+
+	private final QSReferenceMode referenceMode;
+
+	public QSReferenceMarshaller(final HierarchicalStreamWriter writer,
+			final ConverterLookup converterLookup, final Mapper mapper,
+			final QSReferenceMode referenceMode) {
+		super(writer, converterLookup, mapper);
+		this.referenceMode = referenceMode;
+	}
+
+	@Override
+	protected void convert(final Object item, final Converter converter) {
+		final Class<?> type = item.getClass();
+		if (getMapper().isImmutableValueType(type)) {
+			super.convert(item, converter);
+		} else if (referenceMode == QSReferenceMode.PATH_REFERENCES) {
+			if (QSClassKind.of(type) != QSClassKind.SCALAR) {
+				super.convert(item, converter);
+				return;
+			}
+
+			final String path = objects.get(item);
+			if (path != null) {
+				writer.addAttribute(getMapper()
+						.aliasForSystemAttribute("reference"), path);
+				return;
+			}
+			objects.put(item, pathOf(writer.underlyingWriter()));
+			super.convert(item, converter);
+		} else if (referenceMode == QSReferenceMode.SKIP_CYCLES) {
+			if (objects.containsKey(item)) {
+				return;
+			}
+			objects.put(item, null);
+			try {
+				super.convert(item, converter);
+			} finally {
+				objects.remove(item);
+			}
+		} else {
+			super.convert(item, converter);
+		}
+	}
+
+	private String pathOf(final HierarchicalStreamWriter writer) {
+		return writer instanceof QSWriter ? ((QSWriter) writer).getPath() : "";
+	}
+}
@@ -0,0 +1,50 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Tratamento de objetos que aparecem mais de uma vez no grafo serializado
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public enum QSReferenceMode {
+	/**
+	 * Comportamento de {@link XStream#NO_REFERENCES}: objetos compartilhados
+	 * são serializados novamente e um ciclo interrompe a serialização com
+	 * exceção. É o padrão.
+	 */
+	NO_REFERENCES,
+
+	/**
+	 * Objetos compartilhados são serializados novamente e a referência que
+	 * fecha um ciclo (ex: <code>child.parent</code>) é omitida
+	 */
+	SKIP_CYCLES,
+
+	/**
+	 * Toda ocorrência repetida de um objeto grava apenas o atributo
+	 * <code>reference</code>, o mesmo dos modos de referência do XStream, com
+	 * o caminho da primeira ocorrência, ex:
+	 * <code>parent.children[0].parent.@reference=parent</code>. Coleções,
+	 * arrays e mapas repetidos são serializados novamente.
+	 */
+	PATH_REFERENCES
+}
@@ -0,0 +1,733 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import br.com.caelum.vraptor.interceptor.TypeNameExtractor;
+import br.com.caelum.vraptor.serialization.ProxyInitializer;
+import br.com.caelum.vraptor.serialization.Serializer;
+import br.com.caelum.vraptor.serialization.SerializerBuilder;
+import br.com.caelum.vraptor.serialization.xstream.XStreamSerializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.QSBatchInitializer;
+import com.moisespsena.vraptor.qsserialization.serialization.QSImmutable;
+import com.moisespsena.vraptor.qsserialization.serialization.QSMetrics;
+import com.moisespsena.vraptor.qsserialization.serialization.QSMetricsListener;
+import com.moisespsena.vraptor.qsserialization.serialization.QSVersioned;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimitExceededException;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSPathFilter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+/**
+ * Serializer com a mesma semântica de {@link XStreamSerializer}, mas que
+ * mantém o alias, as exclusões e o {@link ProxyInitializer} de cada
+ * serialização fora do {@link XStream}.
+ * 
+ * <p>
+ * Quando o XStream foi configurado com {@link QSClassMapper} e
+ * {@link ProxyConverter} (veja {@link XStreamQSCache}), a mesma instância pode
+ * ser compartilhada entre serializações e threads. Caso contrário a
+ * configuração é aplicada diretamente no XStream, como em
+ * {@link XStreamSerializer}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSSerializer implements SerializerBuilder {
+
+	/**
+	 * Converter que inicializa os proxies.
+	 * 
+	 * <p>
+	 * O XStream guarda o converter escolhido para cada tipo, portanto
+	 * {@link #canConvert(Class)} depende apenas do {@link ProxyInitializer}
+	 * informado na criação (o cache de XStreams é indexado pelo tipo do
+	 * initializer). A inicialização usa o initializer da serialização
+	 * corrente, quando houver.
+	 * </p>
+	 * 
+	 * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+	 * @since 1.1
+	 * 
+	 */
+	public static class ProxyConverter implements Converter {
+		private final ProxyInitializer initializer;
+		private final XStream xstream;
+
+		public ProxyConverter(final XStream xstream,
+				final ProxyInitializer initializer) {
+			this.xstream = xstream;
+			this.initializer = initializer;
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public boolean canConvert(final Class type) {
+			return initializer.isProxy(type);
+		}
+
+		@Override
+		public void marshal(final Object value,
+				final HierarchicalStreamWriter writer,
+				final MarshallingContext context) {
+			final QSSerializer serializer = current();
+			final ProxyInitializer initializer = serializer == null ? this.initializer
+					: serializer.initializer;
+			final Converter converter = xstream.getConverterLookup()
+					.lookupConverterForType(initializer.getActualClass(value));
+			initializer.initialize(value);
+			converter.marshal(value, writer, context);
+		}
+
+		@Override
+		public Object unmarshal(final HierarchicalStreamReader reader,
+				final UnmarshallingContext context) {
+			throw new UnsupportedOperationException(
+					"The ProxyConverter can only write proxies");
+		}
+	}
+
+	/**
+	 * Inclusão ou exclusão de campo
+	 */
+	private static final class FieldRule {
+		private final boolean include;
+		private final String name;
+
+		private FieldRule(final boolean include, final String name) {
+			this.include = include;
+			this.name = name;
+		}
+	}
+
+	private static final ThreadLocal<QSSerializer> CURRENT = new ThreadLocal<QSSerializer>();
+
+	/**
+	 * Retorna o serializer que está sendo executado na thread corrente
+	 */
+	static QSSerializer current() {
+		return CURRENT.get();
+	}
+
+	private final Map<Class<?>, String> aliases = new HashMap<Class<?>, String>();
+	private QSBatchInitializer batchInitializer;
+
+	/**
+	 * Entrada do {@link XStreamQSCache} do {@link #xstream}, ou
+	 * <code>null</code>
+	 */
+	private XStreamQSCache.Entry cacheEntry;
+	private Set<Class<?>> elementTypes;
+	private final Map<Class<?>, Set<String>> excludes = new HashMap<Class<?>, Set<String>>();
+	private final TypeNameExtractor extractor;
+	private QSFragmentCache fragmentCache;
+
+	/**
+	 * Parte da chave do {@link QSFragmentCache} que depende da configuração,
+	 * descartada quando as exclusões mudam
+	 */
+	private Object fragmentContext;
+	private ProxyInitializer initializer;
+
+	/**
+	 * Inclusões e exclusões a aplicar nos tipos dos elementos de uma raiz
+	 * {@link Iterator} ou {@link Iterable}, conhecidos apenas durante a
+	 * serialização
+	 */
+	private List<FieldRule> lazyFields;
+	private QSMetricsListener metricsListener;
+	private boolean recursive;
+	private QSReferenceMode referenceMode = QSReferenceMode.NO_REFERENCES;
+	private Object root;
+	private Class<?> rootClass;
+	private long startNanos;
+	private final HierarchicalStreamWriter writer;
+	private final XStream xstream;
+
+	public QSSerializer(final XStream xstream,
+			final HierarchicalStreamWriter writer,
+			final TypeNameExtractor extractor,
+			final ProxyInitializer initializer) {
+		this.xstream = xstream;
+		this.writer = writer;
+		this.extractor = extractor;
+		this.initializer = initializer;
+	}
+
+	String aliasFor(final Class<?> type) {
+		return aliases.get(type);
+	}
+
+	private void configure() {
+		for (final Map.Entry<Class<?>, String> alias : aliases.entrySet()) {
+			xstream.alias(alias.getValue(), alias.getKey());
+		}
+		for (final Map.Entry<Class<?>, Set<String>> exclude : excludes
+				.entrySet()) {
+			for (final String fieldName : exclude.getValue()) {
+				xstream.omitField(exclude.getKey(), fieldName);
+			}
+		}
+		xstream.registerConverter(new QSFragmentConverter(xstream.getMapper(),
+				xstream.getReflectionProvider()));
+		xstream.registerConverter(new ProxyConverter(xstream, initializer));
+		xstream.registerConverter(new QSIteratorConverter(xstream.getMapper()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.Serializer#exclude(java.lang.String
+	 * [])
+	 */
+	@Override
+	public Serializer exclude(final String... names) {
+		for (final String name : names) {
+			final String fieldName = getNameFor(name);
+			for (final Class<?> parentType : getParentTypesFor(name)) {
+				exclude(parentType, fieldName);
+			}
+			if (lazyFields != null) {
+				lazyFields.add(new FieldRule(false, name));
+			}
+		}
+		return this;
+	}
+
+	private void exclude(final Class<?> type, final String fieldName) {
+		Set<String> fields = excludes.get(type);
+		if (fields == null) {
+			fields = new HashSet<String>();
+			excludes.put(type, fields);
+		}
+		fields.add(fieldName);
+		fragmentContext = null;
+	}
+
+	/**
+	 * Executado pelo {@link QSIteratorConverter} para cada elemento de uma
+	 * raiz {@link Iterator} ou {@link Iterable}: aplica ao tipo, na primeira
+	 * vez que ele aparece, as mesmas exclusões e inclusões que uma raiz
+	 * {@link Collection} teria recebido em {@link #from(Object, String)}
+	 */
+	void element(final Object item) {
+		if ((lazyFields == null) || (item == null)) {
+			return;
+		}
+
+		final Class<?> type = initializer.getActualClass(item);
+		if (isPrimitive(type) || !elementTypes.add(type)) {
+			return;
+		}
+
+		processAnnotations(type);
+		if (!recursive) {
+			excludeNonPrimitiveFields(type);
+		}
+		for (final FieldRule rule : lazyFields) {
+			try {
+				final Class<?> parentType = getParentType(rule.name, type);
+				final String fieldName = getNameFor(rule.name);
+				if (rule.include) {
+					include(parentType, fieldName);
+				} else {
+					exclude(parentType, fieldName);
+				}
+			} catch (final NullPointerException e) {
+				throw new IllegalArgumentException("Field path " + rule.name
+						+ " doesn't exist in " + type.getName());
+			}
+		}
+	}
+
+	/**
+	 * Cache de fragmentos, ou <code>null</code> quando desativado ou quando o
+	 * modo de referências depende dos objetos já gravados
+	 */
+	QSFragmentCache fragmentCache() {
+		return referenceMode == QSReferenceMode.NO_REFERENCES ? fragmentCache
+				: null;
+	}
+
+	/**
+	 * Configuração que determina as entradas gravadas para um objeto, exceto o
+	 * prefixo do caminho. Calculada uma vez enquanto a configuração não muda,
+	 * como a instância única de {@link QSFragmentCache#context(Object)}.
+	 */
+	Object fragmentContext(final QSWriter writer) {
+		Object context = fragmentContext;
+		if (context == null) {
+			final Map<Class<?>, Set<String>> rules = new HashMap<Class<?>, Set<String>>();
+			for (final Map.Entry<Class<?>, Set<String>> exclude : excludes
+					.entrySet()) {
+				rules.put(exclude.getKey(),
+						new HashSet<String>(exclude.getValue()));
+			}
+			context = fragmentCache.context(Arrays.asList(xstream,
+					writer.getFormatWriter(),
+					new HashMap<Class<?>, String>(aliases), rules));
+			fragmentContext = context;
+		}
+		return context;
+	}
+
+	private void excludeNonPrimitiveFields(final Class<?> type) {
+		for (Class<?> c = type; (c != null) && (c != Object.class); c = c
+				.getSuperclass()) {
+			for (final Field field : c.getDeclaredFields()) {
+				if (!isPrimitive(field.getType())) {
+					exclude(type, field.getName());
+				}
+			}
+		}
+	}
+
+	private Field findField(final Class<?> type, final String name) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for (final Field field : c.getDeclaredFields()) {
+				if (field.getName().equals(name)) {
+					return field;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Set<Class<?>> findElementTypes(final List<Object> list) {
+		final Set<Class<?>> types = new HashSet<Class<?>>();
+		for (final Object item : list) {
+			if ((item != null) && !isPrimitive(item.getClass())) {
+				types.add(initializer.getActualClass(item));
+			}
+		}
+		return types;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.SerializerBuilder#from(java.lang.
+	 * Object)
+	 */
+	@Override
+	public <T> Serializer from(final T object) {
+		return from(object, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.SerializerBuilder#from(java.lang.
+	 * Object, java.lang.String)
+	 */
+	@Override
+	public <T> Serializer from(final T object, String alias) {
+		if (object == null) {
+			throw new NullPointerException("You can't serialize null objects");
+		}
+
+		processAnnotations(object.getClass());
+
+		rootClass = initializer.getActualClass(object);
+		if ((alias == null) && initializer.isProxy(object.getClass())) {
+			alias = extractor.nameFor(rootClass);
+		}
+
+		if (object instanceof Collection) {
+			final List<Object> list = new ArrayList<Object>(
+					(Collection<?>) object);
+			elementTypes = findElementTypes(list);
+			for (final Class<?> type : elementTypes) {
+				excludeNonPrimitiveFields(type);
+			}
+			root = list;
+		} else if ((object instanceof Iterator) || (object instanceof Iterable)) {
+			root = object instanceof Iterator ? object : ((Iterable<?>) object)
+					.iterator();
+			elementTypes = new HashSet<Class<?>>();
+			lazyFields = new ArrayList<FieldRule>();
+			if (alias == null) {
+				alias = "list";
+			}
+		} else {
+			excludeNonPrimitiveFields(rootClass);
+			root = object;
+		}
+
+		if (alias != null) {
+			if (root instanceof Collection) {
+				aliases.put(List.class, alias);
+				aliases.put(root.getClass(), alias);
+			} else {
+				aliases.put(root.getClass(), alias);
+			}
+		}
+		return this;
+	}
+
+	private Class<?> getActualType(final Type genericType) {
+		if (genericType instanceof ParameterizedType) {
+			final ParameterizedType type = (ParameterizedType) genericType;
+			if (isCollection(type)) {
+				return (Class<?>) type.getActualTypeArguments()[0];
+			}
+			return (Class<?>) type.getRawType();
+		}
+		return (Class<?>) genericType;
+	}
+
+	private String getNameFor(final String name) {
+		final String[] path = name.split("\\.");
+		return path[path.length - 1];
+	}
+
+	private Class<?> getParentType(final String name, Class<?> type) {
+		final String[] path = name.split("\\.");
+		for (int i = 0; i < (path.length - 1); i++) {
+			type = getActualType(findField(type, path[i]).getGenericType());
+		}
+		return type;
+	}
+
+	private Set<Class<?>> getParentTypesFor(final String name) {
+		if (elementTypes == null) {
+			final Class<?> type = rootClass;
+			return Collections.<Class<?>> singleton(getParentType(name, type));
+		} else {
+			final Set<Class<?>> result = new HashSet<Class<?>>();
+			for (final Class<?> type : elementTypes) {
+				result.add(getParentType(name, type));
+			}
+			return result;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * br.com.caelum.vraptor.serialization.Serializer#include(java.lang.String
+	 * [])
+	 */
+	@Override
+	public Serializer include(final String... fields) {
+		for (final String field : fields) {
+			try {
+				final String fieldName = getNameFor(field);
+				for (final Class<?> parentType : getParentTypesFor(field)) {
+					include(parentType, fieldName);
+				}
+			} catch (final NullPointerException e) {
+				throw new IllegalArgumentException("Field path " + field
+						+ " doesn't exist");
+			}
+			if (lazyFields != null) {
+				lazyFields.add(new FieldRule(true, field));
+			}
+		}
+		return this;
+	}
+
+	private void include(final Class<?> parentType, final String fieldName) {
+		final Type genericType = findField(parentType, fieldName)
+				.getGenericType();
+		final Class<?> fieldType = getActualType(genericType);
+
+		if (!excludes.containsKey(fieldType)) {
+			excludeNonPrimitiveFields(fieldType);
+		}
+
+		final Set<String> fieldNames = excludes.get(parentType);
+		if (fieldNames != null) {
+			fieldNames.remove(fieldName);
+		}
+		fragmentContext = null;
+	}
+
+	TypeNameExtractor getExtractor() {
+		return extractor;
+	}
+
+	private boolean isCollection(final Type type) {
+		if (type instanceof ParameterizedType) {
+			final Type rawType = ((ParameterizedType) type).getRawType();
+			return Iterable.class.isAssignableFrom((Class<?>) rawType)
+					|| Iterator.class.isAssignableFrom((Class<?>) rawType)
+					|| Map.class.isAssignableFrom((Class<?>) rawType);
+		}
+		return Collection.class.isAssignableFrom((Class<?>) type);
+	}
+
+	/**
+	 * Se o campo do nó corrente com o nome gravado é aceito pelo
+	 * {@link QSPathFilter} do writer
+	 */
+	boolean acceptsMember(final String name) {
+		final HierarchicalStreamWriter underlying = writer.underlyingWriter();
+		return !(underlying instanceof QSWriter)
+				|| ((QSWriter) underlying).acceptsChild(name);
+	}
+
+	boolean isExcluded(final Class<?> definedIn, final String fieldName) {
+		final Set<String> fieldNames = excludes.get(definedIn);
+		return (fieldNames != null) && fieldNames.contains(fieldName);
+	}
+
+	boolean isPrimitive(final Class<?> type) {
+		return type.isPrimitive() || type.isEnum()
+				|| Number.class.isAssignableFrom(type)
+				|| type.equals(String.class)
+				|| Date.class.isAssignableFrom(type)
+				|| Calendar.class.isAssignableFrom(type)
+				|| Boolean.class.equals(type) || Character.class.equals(type);
+	}
+
+	/**
+	 * Processa as anotações do tipo sem concorrer com outras serializações que
+	 * usam o mesmo XStream
+	 */
+	private void processAnnotations(final Class<?> type) {
+		if (cacheEntry != null) {
+			cacheEntry.processAnnotations(type);
+		} else {
+			synchronized (xstream) {
+				xstream.processAnnotations(type);
+			}
+		}
+	}
+
+	/**
+	 * Se o writer descarta caminhos com um {@link QSPathFilter}. O percurso
+	 * antecipado do {@link QSBatchLoader} não conhece os caminhos gravados,
+	 * portanto não é feito nesse caso.
+	 */
+	private boolean isPathFiltered() {
+		final HierarchicalStreamWriter underlying = writer.underlyingWriter();
+		return (underlying instanceof QSWriter)
+				&& (((QSWriter) underlying).getPathFilter() != null);
+	}
+
+	/**
+	 * Retorna se o XStream aplica a configuração da serialização corrente, ou
+	 * seja, se pode ser compartilhado.
+	 */
+	private boolean isShared() {
+		return xstream.getMapper().lookupMapperOfType(QSClassMapper.class) != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see br.com.caelum.vraptor.serialization.Serializer#recursive()
+	 */
+	@Override
+	public Serializer recursive() {
+		excludes.clear();
+		fragmentContext = null;
+		if (lazyFields != null) {
+			lazyFields.clear();
+			recursive = true;
+		}
+		return this;
+	}
+
+	private void report(final boolean failed) {
+		final long duration = System.nanoTime() - startNanos;
+		final HierarchicalStreamWriter underlying = writer.underlyingWriter();
+		final QSMetrics metrics;
+		if (underlying instanceof QSWriter) {
+			final QSWriter qsWriter = (QSWriter) underlying;
+			metrics = new QSMetrics(rootClass, duration,
+					qsWriter.getNodeCount(), qsWriter.getMaxDepth(),
+					qsWriter.getLeafCount(), qsWriter.getCharsWritten(), failed);
+		} else {
+			metrics = new QSMetrics(rootClass, duration, 0, 0, 0, 0, failed);
+		}
+		try {
+			metricsListener.serialized(metrics);
+		} catch (final RuntimeException e) {
+			// executado no finally de serialize(): não oculta a falha original
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see br.com.caelum.vraptor.serialization.Serializer#serialize()
+	 */
+	@Override
+	public void serialize() {
+		if (!isShared()) {
+			configure();
+		}
+
+		final Lock lock = cacheEntry == null ? null : cacheEntry.readLock();
+		if (lock != null) {
+			lock.lock();
+		}
+		final QSSerializer previous = CURRENT.get();
+		CURRENT.set(this);
+		boolean failed = true;
+		try {
+			// as raízes Iterable já foram convertidas em Iterator por from()
+			if ((batchInitializer != null) && !(root instanceof Iterator)
+					&& !isPathFiltered()) {
+				new QSBatchLoader(batchInitializer, xstream.getMapper(),
+						xstream.getReflectionProvider(), this).load(root);
+			}
+			if (referenceMode == QSReferenceMode.NO_REFERENCES) {
+				xstream.marshal(root, writer);
+			} else {
+				new QSReferenceMarshaller(writer, xstream.getConverterLookup(),
+						xstream.getMapper(), referenceMode).start(root, null);
+			}
+			final HierarchicalStreamWriter underlying = writer
+					.underlyingWriter();
+			if (underlying instanceof QSWriter) {
+				((QSWriter) underlying).commitSnapshot();
+			}
+			failed = false;
+		} catch (final QSLimitExceededException e) {
+			if (!e.isTruncate()) {
+				throw e;
+			}
+			failed = false;
+		} finally {
+			if (lock != null) {
+				lock.unlock();
+			}
+			writer.flush();
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+			if (metricsListener != null) {
+				report(failed);
+			}
+		}
+	}
+
+	/**
+	 * Inicializa em lote, antes da serialização, os proxies e coleções não
+	 * carregados. As raízes {@link Iterator} e {@link Iterable} são gravadas à
+	 * medida em que são obtidas, portanto não são percorridas antes. Com um
+	 * {@link QSPathFilter} no writer o percurso antecipado também não é feito,
+	 * para que os caminhos descartados nunca sejam carregados.
+	 * 
+	 * @param batchInitializer
+	 *            Inicializador, ou <code>null</code> para usar apenas o
+	 *            {@link ProxyInitializer}
+	 */
+	public void setBatchInitializer(final QSBatchInitializer batchInitializer) {
+		this.batchInitializer = batchInitializer;
+	}
+
+	/**
+	 * Informa a entrada do {@link XStreamQSCache} de onde veio o XStream: as
+	 * anotações passam a ser processadas por ela e a serialização segura
+	 * {@link XStreamQSCache.Entry#readLock()}. Deve ser executado antes de
+	 * {@link #from(Object, String)}.
+	 * 
+	 * @param cacheEntry
+	 *            Entrada, ignorada quando o seu XStream não é o desta
+	 *            serialização
+	 */
+	public void setCacheEntry(final XStreamQSCache.Entry cacheEntry) {
+		this.cacheEntry = (cacheEntry != null)
+				&& (cacheEntry.getXStream() == xstream) ? cacheEntry : null;
+	}
+
+	/**
+	 * Reaproveita as entradas dos objetos {@link QSVersioned} ou
+	 * {@link QSImmutable} gravadas no cache
+	 * 
+	 * @param fragmentCache
+	 *            Cache, ou <code>null</code> para nenhum
+	 */
+	public void setFragmentCache(final QSFragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+		fragmentContext = null;
+	}
+
+	/**
+	 * Ativa as métricas desta serialização. Os contadores de nós, valores e
+	 * caracteres são obtidos do {@link QSWriter}; com outro writer apenas o
+	 * tempo e o tipo raiz são informados.
+	 * 
+	 * @param metricsListener
+	 *            Recebe as métricas ao final de {@link #serialize()}
+	 * @param startNanos
+	 *            Início da serialização, obtido de {@link System#nanoTime()}
+	 */
+	public void setMetricsListener(final QSMetricsListener metricsListener,
+			final long startNanos) {
+		this.metricsListener = metricsListener;
+		this.startNanos = startNanos;
+	}
+
+	/**
+	 * Substitui o {@link ProxyInitializer} informado na criação, ex: por um que
+	 * inicializa os proxies em outra thread. Deve ser executado antes de
+	 * {@link #from(Object, String)}.
+	 * 
+	 * @param initializer
+	 */
+	public void setProxyInitializer(final ProxyInitializer initializer) {
+		this.initializer = initializer;
+	}
+
+	/**
+	 * Define o tratamento de referências repetidas, sem alterar o modo do
+	 * XStream compartilhado
+	 * 
+	 * @param referenceMode
+	 *            Modo, ou <code>null</code> para
+	 *            {@link QSReferenceMode#NO_REFERENCES}
+	 */
+	public void setReferenceMode(final QSReferenceMode referenceMode) {
+		this.referenceMode = referenceMode == null ? QSReferenceMode.NO_REFERENCES
+				: referenceMode;
+	}
+}
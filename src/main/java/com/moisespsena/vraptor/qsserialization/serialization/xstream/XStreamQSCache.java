@@ -0,0 +1,230 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import br.com.caelum.vraptor.serialization.ProxyInitializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHierarchicalStreamDriver;
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Cache thread-safe de pares XStream/Driver já configurados, indexados pelo
+ * tipo do {@link QSFormatWriter}, pelo modo de raiz, pelo tipo do
+ * {@link ProxyInitializer} e pelo tipo da configuração que cria o XStream.
+ * 
+ * <p>
+ * O XStream armazenado não pode ser alterado após a criação: a configuração
+ * de cada serialização (alias, exclusões e proxies) é aplicada por
+ * {@link QSSerializer}. A única exceção são as anotações dos tipos
+ * serializados, processadas uma única vez por tipo em
+ * {@link Entry#processAnnotations(Class)} sem concorrer com as serializações
+ * em andamento, que seguram {@link Entry#readLock()}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class XStreamQSCache {
+
+	/**
+	 * Par XStream/Driver configurado
+	 * 
+	 * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+	 * @since 1.1
+	 * 
+	 */
+	public static class Entry {
+		private final ConcurrentMap<Class<?>, Boolean> annotatedTypes = new ConcurrentHashMap<Class<?>, Boolean>();
+		private final QSHierarchicalStreamDriver driver;
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final XStream xstream;
+
+		public Entry(final QSHierarchicalStreamDriver driver,
+				final XStream xstream) {
+			this.driver = driver;
+			this.xstream = xstream;
+		}
+
+		public QSHierarchicalStreamDriver getDriver() {
+			return driver;
+		}
+
+		public XStream getXStream() {
+			return xstream;
+		}
+
+		/**
+		 * Processa as anotações do tipo, uma única vez, com acesso exclusivo
+		 * ao XStream. Pode ser executado durante uma serialização da thread
+		 * corrente: a leitura é liberada e retomada em seguida.
+		 * 
+		 * @param type
+		 */
+		public void processAnnotations(final Class<?> type) {
+			if (annotatedTypes.containsKey(type)) {
+				return;
+			}
+
+			final int reads = lock.getReadHoldCount();
+			for (int i = 0; i < reads; i++) {
+				lock.readLock().unlock();
+			}
+			lock.writeLock().lock();
+			try {
+				if (!annotatedTypes.containsKey(type)) {
+					xstream.processAnnotations(type);
+					annotatedTypes.put(type, Boolean.TRUE);
+				}
+			} finally {
+				for (int i = 0; i < reads; i++) {
+					lock.readLock().lock();
+				}
+				lock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * Mantido durante cada serialização com o XStream, impedindo que
+		 * {@link #processAnnotations(Class)} altere o mapper ao mesmo tempo
+		 */
+		public Lock readLock() {
+			return lock.readLock();
+		}
+	}
+
+	private static class Key {
+		private final Class<?> formatWriterType;
+		private final Class<?> initializerType;
+		private final Class<?> ownerType;
+		private final boolean withoutRoot;
+
+		public Key(final Class<?> formatWriterType,
+				final Class<?> initializerType, final Class<?> ownerType,
+				final boolean withoutRoot) {
+			this.formatWriterType = formatWriterType;
+			this.initializerType = initializerType;
+			this.ownerType = ownerType;
+			this.withoutRoot = withoutRoot;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return (formatWriterType == other.formatWriterType)
+					&& (initializerType == other.initializerType)
+					&& (ownerType == other.ownerType)
+					&& (withoutRoot == other.withoutRoot);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = formatWriterType.hashCode();
+			if (initializerType != null) {
+				hash = (31 * hash) + initializerType.hashCode();
+			}
+			if (ownerType != null) {
+				hash = (31 * hash) + ownerType.hashCode();
+			}
+			return (31 * hash) + (withoutRoot ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Cria o XStream de uma entrada do cache
+	 * 
+	 * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+	 * @since 1.1
+	 * 
+	 */
+	public interface XStreamFactory {
+		XStream newXStream(QSHierarchicalStreamDriver driver);
+	}
+
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Retorna a entrada do cache, criando-a com a factory caso não exista
+	 * 
+	 * @param formatWriterType
+	 *            Tipo do {@link QSFormatWriter}
+	 * @param withoutRoot
+	 *            Modo de raiz
+	 * @param factory
+	 *            Cria o XStream caso a entrada não exista
+	 */
+	public Entry get(final Class<? extends QSFormatWriter> formatWriterType,
+			final boolean withoutRoot, final XStreamFactory factory) {
+		return get(formatWriterType, null, null, withoutRoot, factory);
+	}
+
+	/**
+	 * Retorna a entrada do cache, criando-a com a factory caso não exista
+	 * 
+	 * @param formatWriterType
+	 *            Tipo do {@link QSFormatWriter}
+	 * @param initializerType
+	 *            Tipo do {@link ProxyInitializer} usado pelos converters do
+	 *            XStream, ou <code>null</code>
+	 * @param ownerType
+	 *            Tipo de quem cria o XStream com a factory, ex: a classe da
+	 *            configuração, que pode sobrescrever a criação; ou
+	 *            <code>null</code>
+	 * @param withoutRoot
+	 *            Modo de raiz
+	 * @param factory
+	 *            Cria o XStream caso a entrada não exista
+	 * @since 1.1
+	 */
+	public Entry get(final Class<? extends QSFormatWriter> formatWriterType,
+			final Class<?> initializerType, final Class<?> ownerType,
+			final boolean withoutRoot, final XStreamFactory factory) {
+		final Key key = new Key(formatWriterType, initializerType, ownerType,
+				withoutRoot);
+		Entry entry = entries.get(key);
+
+		if (entry == null) {
+			final QSHierarchicalStreamDriver driver = new QSHierarchicalStreamDriver(
+					withoutRoot);
+			entry = new Entry(driver, factory.newXStream(driver));
+
+			final Entry previous = entries.putIfAbsent(key, entry);
+			if (previous != null) {
+				entry = previous;
+			}
+		}
+
+		return entry;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
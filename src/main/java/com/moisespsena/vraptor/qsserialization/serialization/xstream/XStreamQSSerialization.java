@@ -16,54 +16,301 @@
  */
 package com.moisespsena.vraptor.qsserialization.serialization.xstream;
 
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.DeflaterOutputStream;
 
 import br.com.caelum.vraptor.interceptor.TypeNameExtractor;
-import br.com.caelum.vraptor.serialization.NoRootSerialization;
 import br.com.caelum.vraptor.serialization.ProxyInitializer;
 import br.com.caelum.vraptor.serialization.Serializer;
 import br.com.caelum.vraptor.serialization.SerializerBuilder;
-import br.com.caelum.vraptor.serialization.xstream.VRaptorClassMapper;
-import br.com.caelum.vraptor.serialization.xstream.XStreamSerializer;
 
+import com.moisespsena.vraptor.qsserialization.serialization.QSBatchInitializer;
+import com.moisespsena.vraptor.qsserialization.serialization.QSCompression;
+import com.moisespsena.vraptor.qsserialization.serialization.QSETagListener;
+import com.moisespsena.vraptor.qsserialization.serialization.QSMetricsListener;
 import com.moisespsena.vraptor.qsserialization.serialization.QSSerialization;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSCache.XStreamFactory;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHashingWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHierarchicalStreamDriver;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHierarchicalStreamDriver.WriterCreatedListener;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSPathFilter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSSnapshot;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ArrayQSFormatWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.PropertiesQSFormatWriter;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
-import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.StreamException;
 import com.thoughtworks.xstream.mapper.MapperWrapper;
 
 /**
  * Implementação Padrao de {@link QSSerialization}
  * 
+ * <p>
+ * As instâncias são imutáveis: {@link #arrayFormat()},
+ * {@link #objectFormat()}, {@link #propertiesFormat()}, {@link #withoutRoot()},
+ * {@link #withBatchInitializer(QSBatchInitializer)},
+ * {@link #withLimits(QSLimits)}, {@link #withMetrics(QSMetricsListener)},
+ * {@link #withPathFilter(QSPathFilter)},
+ * {@link #withReferenceMode(QSReferenceMode)},
+ * {@link #withSnapshot(QSSnapshot)},
+ * {@link #withTee(Writer, QSFormatWriter)},
+ * {@link #parallel(ExecutorService, int)},
+ * {@link #withCompression(QSCompression)}, {@link #withETag(QSETagListener)},
+ * {@link #withETag(QSETagListener, String)},
+ * {@link #withFragmentCache(QSFragmentCache)}, {@link #to(Writer)} e
+ * {@link #to(OutputStream, String)} retornam uma nova configuração, portanto
+ * o resultado deve ser usado, ex:
+ * </p>
+ * 
+ * <pre>
+ * <code>// compartilhada entre threads
+ * QSSerialization properties = new XStreamQSSerialization(extractor,
+ * 		initializer).propertiesFormat();
+ * 
+ * // a cada requisição
+ * properties.to(response.getWriter()).from(product).serialize();</code>
+ * </pre>
+ * 
  * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
  * @since 1.0 23/08/2011
  * 
  */
 public class XStreamQSSerialization implements QSSerialization {
-	private HierarchicalStreamDriver driver;
+	/**
+	 * Saída adicional, ver {@link XStreamQSSerialization#withTee(Writer,
+	 * QSFormatWriter)}
+	 */
+	public static final class Tee {
+		private final QSFormatWriter formatWriter;
+		private final Writer writer;
+
+		private Tee(final Writer writer, final QSFormatWriter formatWriter) {
+			this.writer = writer;
+			this.formatWriter = formatWriter;
+		}
+
+		public QSFormatWriter getFormatWriter() {
+			return formatWriter;
+		}
+
+		public Writer getWriter() {
+			return writer;
+		}
+	}
+
+	/**
+	 * Opções de uma nova configuração, copiadas da original e alteradas antes
+	 * de serem passadas ao construtor de cópia, ver
+	 * {@link XStreamQSSerialization#copy(Options)}
+	 */
+	protected static final class Options {
+		private QSBatchInitializer batchInitializer;
+		private Charset charset;
+		private int chunkSize;
+		private QSCompression compression;
+		private boolean etagConditional;
+		private QSETagListener etagListener;
+		private ExecutorService executor;
+		private QSFragmentCache fragmentCache;
+		private String ifNoneMatch;
+		private QSLimits limits;
+		private QSMetricsListener metricsListener;
+		private OutputStream output;
+		private QSPathFilter pathFilter;
+		private QSReferenceMode referenceMode;
+		private QSFormatWriter qsFormatWriter;
+		private QSSnapshot snapshot;
+		private List<Tee> tees;
+		private boolean withoutRoot;
+		private Writer writer;
+
+		private Options(final Writer writer,
+				final QSFormatWriter qsFormatWriter, final boolean withoutRoot) {
+			this.writer = writer;
+			this.qsFormatWriter = qsFormatWriter;
+			this.withoutRoot = withoutRoot;
+		}
+
+		private Options(final XStreamQSSerialization source) {
+			batchInitializer = source.batchInitializer;
+			charset = source.charset;
+			chunkSize = source.chunkSize;
+			compression = source.compression;
+			etagConditional = source.etagConditional;
+			etagListener = source.etagListener;
+			executor = source.executor;
+			fragmentCache = source.fragmentCache;
+			ifNoneMatch = source.ifNoneMatch;
+			limits = source.limits;
+			metricsListener = source.metricsListener;
+			output = source.output;
+			pathFilter = source.pathFilter;
+			referenceMode = source.referenceMode;
+			qsFormatWriter = source.qsFormatWriter;
+			snapshot = source.snapshot;
+			tees = source.tees;
+			withoutRoot = source.withoutRoot;
+			writer = source.writer;
+		}
+	}
+
+	private static final QSFormatWriter ARRAY_FORMAT_WRITER = new ArrayQSFormatWriter();
+
+	private static final QSFormatWriter DEFAULT_FORMAT_WRITER = new ObjectQSFormatWriter();
+
+	private static final QSFormatWriter PROPERTIES_FORMAT_WRITER = new PropertiesQSFormatWriter();
+
+	private static final XStreamQSCache XSTREAM_CACHE = new XStreamQSCache();
+
+	private final QSBatchInitializer batchInitializer;
+
+	/**
+	 * Codificação de {@link #output}
+	 */
+	private final Charset charset;
+
+	private final int chunkSize;
+
+	private final QSCompression compression;
+
+	/**
+	 * Se o ETag é calculado antes da gravação, comparando-o com
+	 * {@link #ifNoneMatch}
+	 */
+	private final boolean etagConditional;
+
+	private final QSETagListener etagListener;
+
+	private final ExecutorService executor;
+
 	protected final TypeNameExtractor extractor;
 
+	private final QSFragmentCache fragmentCache;
+
+	/**
+	 * Valor do cabeçalho <code>If-None-Match</code> no modo condicional
+	 */
+	private final String ifNoneMatch;
+
 	protected final ProxyInitializer initializer;
 
-	private QSFormatWriter qsFormatWriter;
+	private final QSLimits limits;
+
+	private final QSMetricsListener metricsListener;
+
+	/**
+	 * Destino em bytes, alternativo a {@link #writer}
+	 */
+	private final OutputStream output;
+
+	private final QSPathFilter pathFilter;
+
+	private final QSReferenceMode referenceMode;
+
+	private final QSFormatWriter qsFormatWriter;
+
+	private final QSSnapshot snapshot;
+
+	/**
+	 * Saídas adicionais na ordem em que foram adicionadas, ou
+	 * <code>null</code>
+	 */
+	private final List<Tee> tees;
 
-	private boolean withoutRoot;
+	private final boolean withoutRoot;
 
 	private final Writer writer;
 
+	private final XStreamFactory xstreamFactory = new XStreamFactory() {
+		@Override
+		public XStream newXStream(final QSHierarchicalStreamDriver driver) {
+			return XStreamQSSerialization.this.newXStream(driver);
+		}
+	};
+
+	/**
+	 * Configuração sem {@link Writer}, que pode ser compartilhada entre
+	 * threads. Use {@link #to(Writer)} para serializar.
+	 */
+	public XStreamQSSerialization(final TypeNameExtractor extractor,
+			final ProxyInitializer initializer) {
+		this(null, extractor, initializer);
+	}
+
 	public XStreamQSSerialization(final Writer writer,
 			final TypeNameExtractor extractor,
 			final ProxyInitializer initializer) {
+		this(writer, extractor, initializer, null, false);
+	}
+
+	/**
+	 * @param writer
+	 *            Destino, ou <code>null</code>
+	 * @param extractor
+	 * @param initializer
+	 * @param qsFormatWriter
+	 *            Formato, ou <code>null</code> para {@link ObjectQSFormatWriter}
+	 * @param withoutRoot
+	 */
+	protected XStreamQSSerialization(final Writer writer,
+			final TypeNameExtractor extractor,
+			final ProxyInitializer initializer,
+			final QSFormatWriter qsFormatWriter, final boolean withoutRoot) {
+		this(extractor, initializer, new Options(writer, qsFormatWriter,
+				withoutRoot));
+	}
+
+	private XStreamQSSerialization(final TypeNameExtractor extractor,
+			final ProxyInitializer initializer, final Options options) {
 		this.extractor = extractor;
 		this.initializer = initializer;
-		this.writer = writer;
+		batchInitializer = options.batchInitializer;
+		charset = options.charset;
+		chunkSize = options.chunkSize;
+		compression = options.compression;
+		etagConditional = options.etagConditional;
+		etagListener = options.etagListener;
+		executor = options.executor;
+		fragmentCache = options.fragmentCache;
+		ifNoneMatch = options.ifNoneMatch;
+		limits = options.limits;
+		metricsListener = options.metricsListener;
+		output = options.output;
+		pathFilter = options.pathFilter;
+		referenceMode = options.referenceMode;
+		qsFormatWriter = options.qsFormatWriter;
+		snapshot = options.snapshot;
+		tees = options.tees;
+		withoutRoot = options.withoutRoot;
+		writer = options.writer;
+	}
+
+	/**
+	 * Construtor de cópia, ver {@link #copy(Options)}
+	 * 
+	 * @param source
+	 *            Configuração original, de onde vêm o extractor e o
+	 *            initializer
+	 * @param options
+	 *            Opções da nova configuração
+	 */
+	protected XStreamQSSerialization(final XStreamQSSerialization source,
+			final Options options) {
+		this(source.extractor, source.initializer, options);
 	}
 
 	/*
@@ -87,8 +334,20 @@ public class XStreamQSSerialization implements QSSerialization {
 	 */
 	@Override
 	public XStreamQSSerialization arrayFormat() {
-		qsFormatWriter = new ArrayQSFormatWriter();
-		return this;
+		final Options options = new Options(this);
+		options.qsFormatWriter = ARRAY_FORMAT_WRITER;
+		return copy(options);
+	}
+
+	/**
+	 * Cria uma nova configuração com as opções. Subclasses devem sobrescrever
+	 * com o construtor de cópia para manter o seu tipo nas configurações
+	 * derivadas.
+	 * 
+	 * @param options
+	 */
+	protected XStreamQSSerialization copy(final Options options) {
+		return new XStreamQSSerialization(this, options);
 	}
 
 	/*
@@ -161,66 +420,354 @@ public class XStreamQSSerialization implements QSSerialization {
 	public <T> Serializer from(final T object, final String alias,
 			final WriterCreatedListener writerCreatedListener,
 			QSFormatWriter formatWriter) {
-		if (qsFormatWriter == null) {
-			objectFormat();
+		if ((writer == null) && (output == null)) {
+			throw new IllegalStateException(
+					"No writer, use to(Writer) before from(...)");
+		}
+
+		if ((etagListener != null) && etagConditional) {
+			return conditional(object, alias, writerCreatedListener,
+					formatWriter);
 		}
 
+		final QSMetricsListener metricsListener = this.metricsListener;
+		final long startNanos = metricsListener == null ? 0 : System
+				.nanoTime();
+
 		if (formatWriter == null) {
-			formatWriter = this.qsFormatWriter;
+			formatWriter = getFormatWriter();
 		}
 
-		return fromInternal(object, alias, writerCreatedListener, formatWriter);
+		Writer target = writer;
+		DeflaterOutputStream compressed = null;
+		if (output != null) {
+			if (compression != null) {
+				try {
+					compressed = compression.wrap(output);
+				} catch (final IOException e) {
+					throw new StreamException(e);
+				}
+			}
+			target = new OutputStreamWriter(compressed == null ? output
+					: compressed, charset);
+		}
+
+		QSHashingWriter hashing = null;
+		if (etagListener != null) {
+			hashing = new QSHashingWriter(target);
+			target = hashing;
+		}
+
+		final Serializer serializer;
+		try {
+			serializer = createSerializer(object, alias, target,
+					writerCreatedListener, formatWriter, metricsListener,
+					startNanos);
+		} catch (final RuntimeException e) {
+			if (compressed != null) {
+				QSCompressedSerializer.end(compressed);
+			}
+			throw e;
+		}
+
+		final Serializer result = compressed == null ? serializer
+				: new QSCompressedSerializer(serializer, compressed);
+		return hashing == null ? result : new QSETagSerializer(result,
+				hashing, etagListener, compressed == null ? null : compression);
 	}
 
-	private <T> Serializer fromInternal(final T object, final String alias,
+	/**
+	 * Cria o serializer que grava no destino, em partes ou sequencial
+	 */
+	private <T> Serializer createSerializer(final T object,
+			final String alias, final Writer target,
 			final WriterCreatedListener writerCreatedListener,
-			final QSFormatWriter formatWriter) {
+			final QSFormatWriter formatWriter,
+			final QSMetricsListener metricsListener, final long startNanos) {
+		final XStreamQSCache.Entry entry = getXStreamCache().get(
+				formatWriter.getClass(), initializer.getClass(), getClass(),
+				withoutRoot, xstreamFactory);
+		if (isParallel(object, entry.getXStream())) {
+			return newParallelSerializer(target, entry, formatWriter,
+					writerCreatedListener, startNanos).from(object, alias);
+		}
+		final QSWriter streamWriter = entry.getDriver().createWriter(target,
+				formatWriter, writerCreatedListener);
+		if (limits != null) {
+			streamWriter.setLimits(limits);
+		}
+		if (pathFilter != null) {
+			streamWriter.setPathFilter(pathFilter);
+		}
+		if (tees != null) {
+			for (final Tee tee : tees) {
+				streamWriter.addTee(tee.writer, tee.formatWriter);
+			}
+		}
+		if (snapshot != null) {
+			streamWriter.setSnapshot(snapshot);
+		}
 
-		driver = new QSHierarchicalStreamDriver() {
-			@Override
-			public HierarchicalStreamWriter createWriter(final Writer writer) {
-				QSWriter qsWriter;
-				if (withoutRoot) {
-					qsWriter = new QSWriter(writer, QSWriter.DROP_ROOT_MODE,
-							formatWriter);
-				} else {
-					qsWriter = new QSWriter(writer, formatWriter);
-				}
+		return configure(getSerializer(entry.getXStream(), streamWriter),
+				entry, metricsListener, startNanos).from(object, alias);
+	}
 
-				postWriterCreated(qsWriter, writerCreatedListener);
-				return qsWriter;
+	/**
+	 * Serialização em memória do modo condicional, ver
+	 * {@link #withETag(QSETagListener, String)}
+	 */
+	private <T> Serializer conditional(final T object, final String alias,
+			final WriterCreatedListener writerCreatedListener,
+			final QSFormatWriter formatWriter) {
+		final CharArrayWriter buffer = new CharArrayWriter();
+		final QSHashingWriter hashing = new QSHashingWriter(buffer);
+		final Options options = new Options(this);
+		options.charset = null;
+		options.etagListener = null;
+		options.output = null;
+		options.writer = hashing;
+		final Serializer serializer = copy(options).from(object, alias,
+				writerCreatedListener, formatWriter);
+		return new QSConditionalSerializer(serializer, hashing, buffer,
+				etagListener, ifNoneMatch, output == null ? null : compression) {
+			@Override
+			protected void write(final CharArrayWriter buffer)
+					throws IOException {
+				writeTo(buffer);
 			}
 		};
+	}
+
+	/**
+	 * Grava a saída do modo condicional no destino, comprimida quando
+	 * configurado
+	 */
+	private void writeTo(final CharArrayWriter buffer) throws IOException {
+		if (output == null) {
+			buffer.writeTo(writer);
+			writer.flush();
+			return;
+		}
+
+		final DeflaterOutputStream compressed = compression == null ? null
+				: compression.wrap(output);
+		boolean finished = false;
+		try {
+			final Writer target = new OutputStreamWriter(
+					compressed == null ? output : compressed, charset);
+			buffer.writeTo(target);
+			target.flush();
+			if (compressed != null) {
+				compressed.finish();
+				compressed.flush();
+			}
+			finished = true;
+		} finally {
+			if (!finished && (compressed != null)) {
+				QSCompressedSerializer.end(compressed);
+			}
+		}
+	}
+
+	/**
+	 * Aplica as opções da configuração ao serializer
+	 */
+	private SerializerBuilder configure(final SerializerBuilder serializer,
+			final XStreamQSCache.Entry entry,
+			final QSMetricsListener metricsListener, final long startNanos) {
+		if (serializer instanceof QSSerializer) {
+			((QSSerializer) serializer).setCacheEntry(entry);
+			if (batchInitializer != null) {
+				((QSSerializer) serializer)
+						.setBatchInitializer(batchInitializer);
+			}
+			if (fragmentCache != null) {
+				((QSSerializer) serializer).setFragmentCache(fragmentCache);
+			}
+			if (metricsListener != null) {
+				((QSSerializer) serializer).setMetricsListener(
+						metricsListener, startNanos);
+			}
+			if (referenceMode != null) {
+				((QSSerializer) serializer).setReferenceMode(referenceMode);
+			}
+		}
+		return serializer;
+	}
+
+	/**
+	 * Inicializador em lote, ou <code>null</code>
+	 */
+	public QSBatchInitializer getBatchInitializer() {
+		return batchInitializer;
+	}
+
+	/**
+	 * Compressão da saída em bytes, ou <code>null</code>
+	 */
+	public QSCompression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Listener do ETag, ou <code>null</code> quando desativado
+	 */
+	public QSETagListener getETagListener() {
+		return etagListener;
+	}
+
+	/**
+	 * Cache de fragmentos, ou <code>null</code>
+	 */
+	public QSFragmentCache getFragmentCache() {
+		return fragmentCache;
+	}
+
+	/**
+	 * Formato da configuração, {@link ObjectQSFormatWriter} por padrão
+	 */
+	public QSFormatWriter getFormatWriter() {
+		return qsFormatWriter == null ? DEFAULT_FORMAT_WRITER : qsFormatWriter;
+	}
+
+	/**
+	 * Limites de saída, ou <code>null</code>
+	 */
+	public QSLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Listener das métricas, ou <code>null</code> quando desativadas
+	 */
+	public QSMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * Filtro de caminhos, ou <code>null</code>
+	 */
+	public QSPathFilter getPathFilter() {
+		return pathFilter;
+	}
+
+	/**
+	 * Hashes da exportação anterior, ou <code>null</code> quando todas as
+	 * entradas são gravadas
+	 */
+	public QSSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Saídas adicionais na ordem em que foram adicionadas, sem alterações
+	 */
+	public List<Tee> getTees() {
+		return tees == null ? Collections.<Tee> emptyList() : Collections
+				.unmodifiableList(tees);
+	}
 
-		return getSerializer().from(object, alias);
+	/**
+	 * @param xstream
+	 *            XStream compartilhado, obtido de {@link #getXStreamCache()}
+	 * @param streamWriter
+	 *            Writer da serialização
+	 */
+	protected SerializerBuilder getSerializer(final XStream xstream,
+			final QSWriter streamWriter) {
+		return new QSSerializer(xstream, streamWriter, extractor, initializer);
 	}
 
 	/**
-	 * You can override this method for configuring Driver before serialization
+	 * Cache de XStreams configurados, compartilhado entre as subclasses: as
+	 * entradas são separadas pela classe da configuração, portanto uma
+	 * subclasse que sobrescreve {@link #newXStream(HierarchicalStreamDriver)}
+	 * nunca recebe o XStream de outra.
 	 */
-	protected HierarchicalStreamDriver getHierarchicalStreamDriver() {
-		return driver;
+	protected XStreamQSCache getXStreamCache() {
+		return XSTREAM_CACHE;
 	}
 
-	protected SerializerBuilder getSerializer() {
-		return new XStreamSerializer(getXStream(), writer, extractor,
-				initializer);
+	/**
+	 * Tratamento de referências repetidas, ou <code>null</code> para
+	 * {@link QSReferenceMode#NO_REFERENCES}
+	 */
+	public QSReferenceMode getReferenceMode() {
+		return referenceMode;
 	}
 
 	/**
-	 * You can override this method for configuring XStream before serialization
+	 * Se o objeto é serializado em partes. Os limites de saída, o
+	 * {@link QSSnapshot} e {@link QSReferenceMode#PATH_REFERENCES} dependem de
+	 * toda a saída anterior, portanto desativam o modo paralelo, assim como um
+	 * XStream que não pode ser compartilhado entre threads.
 	 */
-	protected XStream getXStream() {
-		final XStream xStream = new XStream(getHierarchicalStreamDriver()) {
+	private boolean isParallel(final Object object, final XStream xstream) {
+		return (executor != null) && (object instanceof Collection)
+				&& (((Collection<?>) object).size() > chunkSize)
+				&& (limits == null) && (snapshot == null) && (tees == null)
+				&& (referenceMode != QSReferenceMode.PATH_REFERENCES)
+				&& (xstream.getMapper()
+						.lookupMapperOfType(QSClassMapper.class) != null);
+	}
+
+	public boolean isWithoutRoot() {
+		return withoutRoot;
+	}
+
+	private SerializerBuilder newParallelSerializer(final Writer target,
+			final XStreamQSCache.Entry entry, final QSFormatWriter formatWriter,
+			final WriterCreatedListener writerCreatedListener,
+			final long startNanos) {
+		return new QSParallelSerializer(target, executor, chunkSize,
+				metricsListener, startNanos) {
+			@Override
+			protected SerializerBuilder newSerializer(final QSWriter writer) {
+				final SerializerBuilder serializer = configure(
+						getSerializer(entry.getXStream(), writer), entry, null,
+						0);
+				if (serializer instanceof QSSerializer) {
+					((QSSerializer) serializer)
+							.setProxyInitializer(onCallingThread(initializer));
+					if (batchInitializer != null) {
+						((QSSerializer) serializer)
+								.setBatchInitializer(onCallingThread(batchInitializer));
+					}
+				}
+				return serializer;
+			}
+
+			@Override
+			protected QSWriter newWriter(final Writer out) {
+				final QSWriter writer = entry.getDriver().createWriter(out,
+						formatWriter, writerCreatedListener);
+				if (pathFilter != null) {
+					writer.setPathFilter(pathFilter);
+				}
+				return writer;
+			}
+		};
+	}
+
+	/**
+	 * You can override this method for configuring XStream before it is cached
+	 */
+	protected XStream newXStream(final HierarchicalStreamDriver driver) {
+		final XStream xStream = new XStream(driver) {
 			{
 				setMode(NO_REFERENCES);
 			}
 
 			@Override
 			protected MapperWrapper wrapMapper(final MapperWrapper next) {
-				return new VRaptorClassMapper(next, extractor);
+				return new QSClassMapper(next, extractor);
 			}
 		};
+		xStream.registerConverter(new QSFragmentConverter(xStream.getMapper(),
+				xStream.getReflectionProvider()));
+		xStream.registerConverter(new QSSerializer.ProxyConverter(xStream,
+				initializer));
+		xStream.registerConverter(new QSIteratorConverter(xStream.getMapper()));
 
 		return xStream;
 	}
@@ -234,8 +781,28 @@ public class XStreamQSSerialization implements QSSerialization {
 	 */
 	@Override
 	public XStreamQSSerialization objectFormat() {
-		qsFormatWriter = new ObjectQSFormatWriter();
-		return this;
+		final Options options = new Options(this);
+		options.qsFormatWriter = DEFAULT_FORMAT_WRITER;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #parallel(java.util.concurrent.ExecutorService, int)
+	 */
+	@Override
+	public XStreamQSSerialization parallel(final ExecutorService executor,
+			final int chunkSize) {
+		if ((executor != null) && (chunkSize <= 0)) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		final Options options = new Options(this);
+		options.executor = executor;
+		options.chunkSize = chunkSize;
+		return copy(options);
 	}
 
 	/*
@@ -247,8 +814,58 @@ public class XStreamQSSerialization implements QSSerialization {
 	 */
 	@Override
 	public XStreamQSSerialization propertiesFormat() {
-		qsFormatWriter = new PropertiesQSFormatWriter();
-		return this;
+		final Options options = new Options(this);
+		options.qsFormatWriter = PROPERTIES_FORMAT_WRITER;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #to(java.io.OutputStream, java.lang.String)
+	 */
+	@Override
+	public XStreamQSSerialization to(final OutputStream output,
+			final String encoding) {
+		final Options options = new Options(this);
+		options.charset = Charset.forName(encoding);
+		options.output = output;
+		options.writer = null;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #to(java.io.Writer)
+	 */
+	@Override
+	public XStreamQSSerialization to(final Writer writer) {
+		final Options options = new Options(this);
+		options.charset = null;
+		options.output = null;
+		options.writer = writer;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withReferenceMode(com.moisespsena.vraptor.qsserialization.serialization
+	 * .xstream.QSReferenceMode)
+	 */
+	@Override
+	public XStreamQSSerialization withReferenceMode(
+			final QSReferenceMode referenceMode) {
+		final Options options = new Options(this);
+		options.referenceMode = referenceMode;
+		return copy(options);
 	}
 
 	/*
@@ -257,8 +874,172 @@ public class XStreamQSSerialization implements QSSerialization {
 	 * @see com.moisespsena.crater.serialization.QSSerialization#withoutRoot()
 	 */
 	@Override
-	public <T> NoRootSerialization withoutRoot() {
-		withoutRoot = true;
-		return this;
+	public <T> XStreamQSSerialization withoutRoot() {
+		final Options options = new Options(this);
+		options.withoutRoot = true;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withBatchInitializer(com.moisespsena.vraptor.qsserialization.
+	 * serialization.QSBatchInitializer)
+	 */
+	@Override
+	public XStreamQSSerialization withBatchInitializer(
+			final QSBatchInitializer batchInitializer) {
+		final Options options = new Options(this);
+		options.batchInitializer = batchInitializer;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withCompression(com.moisespsena.vraptor.qsserialization.serialization.
+	 * QSCompression)
+	 */
+	@Override
+	public XStreamQSSerialization withCompression(
+			final QSCompression compression) {
+		final Options options = new Options(this);
+		options.compression = compression;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withETag(com.moisespsena.vraptor.qsserialization.serialization.
+	 * QSETagListener)
+	 */
+	@Override
+	public XStreamQSSerialization withETag(final QSETagListener etagListener) {
+		final Options options = new Options(this);
+		options.etagListener = etagListener;
+		options.etagConditional = false;
+		options.ifNoneMatch = null;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withETag(com.moisespsena.vraptor.qsserialization.serialization.
+	 * QSETagListener, java.lang.String)
+	 */
+	@Override
+	public XStreamQSSerialization withETag(final QSETagListener etagListener,
+			final String ifNoneMatch) {
+		final Options options = new Options(this);
+		options.etagListener = etagListener;
+		options.etagConditional = true;
+		options.ifNoneMatch = ifNoneMatch;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withFragmentCache(com.moisespsena.vraptor.qsserialization.serialization
+	 * .xstream.QSFragmentCache)
+	 */
+	@Override
+	public XStreamQSSerialization withFragmentCache(
+			final QSFragmentCache fragmentCache) {
+		final Options options = new Options(this);
+		options.fragmentCache = fragmentCache;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withLimits(com.moisespsena.vraptor.qsserialization.serialization.xstream
+	 * .querystring.QSLimits)
+	 */
+	@Override
+	public XStreamQSSerialization withLimits(final QSLimits limits) {
+		final Options options = new Options(this);
+		options.limits = limits;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withMetrics
+	 * (com.moisespsena.vraptor.qsserialization.serialization.QSMetricsListener)
+	 */
+	@Override
+	public XStreamQSSerialization withMetrics(
+			final QSMetricsListener metricsListener) {
+		final Options options = new Options(this);
+		options.metricsListener = metricsListener;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withPathFilter(com.moisespsena.vraptor.qsserialization.serialization.
+	 * xstream.querystring.QSPathFilter)
+	 */
+	@Override
+	public XStreamQSSerialization withPathFilter(final QSPathFilter pathFilter) {
+		final Options options = new Options(this);
+		options.pathFilter = pathFilter;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withSnapshot(com.moisespsena.vraptor.qsserialization.serialization.
+	 * xstream.querystring.QSSnapshot)
+	 */
+	@Override
+	public XStreamQSSerialization withSnapshot(final QSSnapshot snapshot) {
+		final Options options = new Options(this);
+		options.snapshot = snapshot;
+		return copy(options);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.QSSerialization
+	 * #withTee(java.io.Writer,
+	 * com.moisespsena.vraptor.qsserialization.serialization.xstream
+	 * .querystring.QSFormatWriter)
+	 */
+	@Override
+	public XStreamQSSerialization withTee(final Writer writer,
+			final QSFormatWriter formatWriter) {
+		final Options options = new Options(this);
+		options.tees = tees == null ? new ArrayList<Tee>() : new ArrayList<Tee>(
+				tees);
+		options.tees.add(new Tee(writer, formatWriter));
+		return copy(options);
 	}
 }
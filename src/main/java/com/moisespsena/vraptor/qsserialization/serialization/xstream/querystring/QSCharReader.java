@@ -0,0 +1,122 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.thoughtworks.xstream.io.StreamException;
+
+/**
+ * Leitor de caracteres com buffer próprio e lookahead, usado por
+ * {@link QSReader} e pelos {@link QSFormatReader}s.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSCharReader {
+	private final char[] buffer;
+	private int limit;
+	private int pointer;
+	private final Reader reader;
+	private final StringBuilder text = new StringBuilder();
+
+	public QSCharReader(final Reader reader) {
+		this(reader, 1024);
+	}
+
+	public QSCharReader(final Reader reader, final int bufferSize) {
+		this.reader = reader;
+		buffer = new char[bufferSize];
+	}
+
+	public void close() {
+		try {
+			reader.close();
+		} catch (final IOException e) {
+			throw new StreamException(e);
+		}
+	}
+
+	/**
+	 * Garante <code>count</code> caracteres no buffer, se existirem
+	 */
+	private boolean fill(final int count) {
+		if ((limit - pointer) >= count) {
+			return true;
+		}
+
+		if (pointer > 0) {
+			System.arraycopy(buffer, pointer, buffer, 0, limit - pointer);
+			limit -= pointer;
+			pointer = 0;
+		}
+
+		try {
+			while (limit < count) {
+				final int n = reader.read(buffer, limit, buffer.length - limit);
+				if (n == -1) {
+					return false;
+				}
+				limit += n;
+			}
+		} catch (final IOException e) {
+			throw new StreamException(e);
+		}
+		return true;
+	}
+
+	/**
+	 * Retorna o próximo caractere sem consumi-lo, ou -1 no fim da entrada
+	 */
+	public int peek() {
+		return peek(0);
+	}
+
+	/**
+	 * Retorna o caractere na posição informada a partir do atual, sem
+	 * consumi-lo, ou -1 no fim da entrada
+	 * 
+	 * @param offset
+	 *            Deve ser menor que o tamanho do buffer
+	 */
+	public int peek(final int offset) {
+		if (!fill(offset + 1)) {
+			return -1;
+		}
+		return buffer[pointer + offset];
+	}
+
+	/**
+	 * Consome o próximo caractere, ou retorna -1 no fim da entrada
+	 */
+	public int read() {
+		if ((pointer == limit) && !fill(1)) {
+			return -1;
+		}
+		return buffer[pointer++];
+	}
+
+	/**
+	 * Buffer de texto reaproveitado entre as leituras, retornado vazio
+	 */
+	public StringBuilder text() {
+		text.setLength(0);
+		return text;
+	}
+}
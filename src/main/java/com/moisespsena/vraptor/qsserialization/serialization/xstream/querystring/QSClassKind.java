@@ -0,0 +1,116 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Classificação dos tipos dos nós de {@link QSWriter}, calculada uma única vez
+ * por classe.
+ * 
+ * <p>
+ * O cache é global e mantém referências fortes às classes, assim como os
+ * caches de classes do próprio XStream.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public final class QSClassKind {
+	/**
+	 * Valor simples ou objeto
+	 */
+	public static final int SCALAR = 0;
+
+	/**
+	 * {@link List}, ou {@link Iterator} e {@link Iterable} que são gravados
+	 * como uma lista
+	 */
+	public static final int LIST = 1;
+
+	/**
+	 * Array
+	 */
+	public static final int ARRAY = 2;
+
+	/**
+	 * {@link Map}
+	 */
+	public static final int MAP = 3;
+
+	/**
+	 * {@link Map.Entry}
+	 */
+	public static final int MAP_ENTRY = 4;
+
+	/**
+	 * Outras {@link Collection}s (ex: {@link java.util.Set})
+	 */
+	public static final int COLLECTION = 5;
+
+	private static final ConcurrentMap<Class<?>, Integer> kinds = new ConcurrentHashMap<Class<?>, Integer>();
+
+	private static int classify(final Class<?> clazz) {
+		if (Map.class.isAssignableFrom(clazz)) {
+			return MAP;
+		} else if (Map.Entry.class.isAssignableFrom(clazz)) {
+			return MAP_ENTRY;
+		} else if (List.class.isAssignableFrom(clazz)) {
+			return LIST;
+		} else if (Collection.class.isAssignableFrom(clazz)) {
+			return COLLECTION;
+		} else if (clazz.isArray()) {
+			return ARRAY;
+		} else if (Iterator.class.isAssignableFrom(clazz)
+				|| Iterable.class.isAssignableFrom(clazz)) {
+			return LIST;
+		}
+		return SCALAR;
+	}
+
+	/**
+	 * Se o tipo é uma coleção, array, {@link Map} ou {@link Map.Entry}
+	 */
+	public static boolean isCollection(final int kind) {
+		return kind != SCALAR;
+	}
+
+	/**
+	 * Retorna o tipo da classe. <code>null</code> é {@link #SCALAR}.
+	 */
+	public static int of(final Class<?> clazz) {
+		if (clazz == null) {
+			return SCALAR;
+		}
+
+		Integer kind = kinds.get(clazz);
+		if (kind == null) {
+			kind = classify(clazz);
+			kinds.put(clazz, kind);
+		}
+		return kind;
+	}
+
+	private QSClassKind() {
+	}
+}
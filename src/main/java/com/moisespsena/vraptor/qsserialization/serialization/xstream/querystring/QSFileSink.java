@@ -0,0 +1,212 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link Writer} que grava em arquivo codificando diretamente em UTF-8, sem
+ * {@link java.nio.charset.CharsetEncoder}, e descarrega por um
+ * {@link ByteBuffer} direto em blocos grandes no {@link FileChannel}.
+ * 
+ * <p>
+ * Indicado para exportar grafos grandes (ex: no formato .properties) para
+ * disco. Ao fechar, o arquivo é truncado no fim do que foi gravado.
+ * Caracteres surrogate sem par são gravados como <code>'?'</code>, assim como
+ * no {@link java.io.OutputStreamWriter}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSFileSink extends Writer {
+	/**
+	 * Tamanho padrão do bloco: 1 MiB
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final byte[] bytes;
+	private final FileChannel channel;
+	private final ByteBuffer direct;
+
+	/**
+	 * Surrogate alto aguardando o baixo da próxima escrita, ou 0
+	 */
+	private char highSurrogate;
+	private int pointer;
+	private long written;
+
+	/**
+	 * Cria ou sobrescreve o arquivo
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public QSFileSink(final File file) throws IOException {
+		this(new RandomAccessFile(file, "rw").getChannel(),
+				DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param channel
+	 *            Destino, gravado a partir da posição corrente e fechado por
+	 *            {@link #close()}
+	 * @param bufferSize
+	 *            Tamanho do bloco gravado no canal
+	 */
+	public QSFileSink(final FileChannel channel, final int bufferSize) {
+		if (bufferSize < 4) {
+			throw new IllegalArgumentException("bufferSize < 4");
+		}
+		this.channel = channel;
+		bytes = new byte[bufferSize];
+		direct = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			if (highSurrogate != 0) {
+				highSurrogate = 0;
+				put('?');
+			}
+			drain();
+			channel.truncate(channel.position());
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void drain() throws IOException {
+		if (pointer > 0) {
+			direct.clear();
+			direct.put(bytes, 0, pointer);
+			direct.flip();
+			while (direct.hasRemaining()) {
+				channel.write(direct);
+			}
+			written += pointer;
+			pointer = 0;
+		}
+	}
+
+	private void encode(final char c) throws IOException {
+		if (pointer > (bytes.length - 4)) {
+			drain();
+		}
+
+		if (highSurrogate != 0) {
+			final char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				final int codePoint = Character.toCodePoint(high, c);
+				bytes[pointer++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[pointer++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[pointer++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[pointer++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+			bytes[pointer++] = '?';
+		}
+
+		if (c < 0x80) {
+			bytes[pointer++] = (byte) c;
+		} else if (c < 0x800) {
+			bytes[pointer++] = (byte) (0xC0 | (c >> 6));
+			bytes[pointer++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			bytes[pointer++] = '?';
+		} else {
+			bytes[pointer++] = (byte) (0xE0 | (c >> 12));
+			bytes[pointer++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			bytes[pointer++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	/**
+	 * Grava os bytes do bloco corrente no canal, sem forçar a gravação em
+	 * disco
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+	}
+
+	/**
+	 * Quantidade de bytes gravados, incluindo os que ainda estão no bloco
+	 */
+	public long getBytesWritten() {
+		return written + pointer;
+	}
+
+	private void put(final char c) throws IOException {
+		if (pointer == bytes.length) {
+			drain();
+		}
+		bytes[pointer++] = (byte) c;
+	}
+
+	@Override
+	public void write(final char[] cbuf, final int off, final int len)
+			throws IOException {
+		final byte[] bytes = this.bytes;
+		for (int i = off, end = off + len; i < end; i++) {
+			final char c = cbuf[i];
+			if ((c < 0x80) && (highSurrogate == 0)) {
+				if (pointer == bytes.length) {
+					drain();
+				}
+				bytes[pointer++] = (byte) c;
+			} else {
+				encode(c);
+			}
+		}
+	}
+
+	@Override
+	public void write(final int c) throws IOException {
+		encode((char) c);
+	}
+
+	@Override
+	public void write(final String str, final int off, final int len)
+			throws IOException {
+		final byte[] bytes = this.bytes;
+		for (int i = off, end = off + len; i < end; i++) {
+			final char c = str.charAt(i);
+			if ((c < 0x80) && (highSurrogate == 0)) {
+				if (pointer == bytes.length) {
+					drain();
+				}
+				bytes[pointer++] = (byte) c;
+			} else {
+				encode(c);
+			}
+		}
+	}
+}
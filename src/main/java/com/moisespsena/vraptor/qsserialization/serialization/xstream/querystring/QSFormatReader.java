@@ -0,0 +1,52 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.util.List;
+
+/**
+ * Leitor em Formação, contraparte de {@link QSFormatWriter}
+ * 
+ * <p>
+ * As implementações não devem guardar estado de leitura: uma mesma instância
+ * é usada por vários {@link QSReader}s.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSFormatReader {
+	/**
+	 * Lê o caminho da próxima variável, consumindo o separador entre o
+	 * caminho e o valor
+	 * 
+	 * @param in
+	 * @param segments
+	 *            Recebe os trechos do caminho; limpo antes da leitura
+	 * @return <code>false</code> no fim da entrada
+	 */
+	public boolean readPath(QSCharReader in, List<String> segments);
+
+	/**
+	 * Lê e decodifica o valor da variável, consumindo o separador de
+	 * variáveis
+	 * 
+	 * @param in
+	 */
+	public String readValue(QSCharReader in);
+}
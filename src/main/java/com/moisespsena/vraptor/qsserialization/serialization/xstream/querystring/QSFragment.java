@@ -0,0 +1,79 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+/**
+ * Entradas já formatadas de um nó, gravadas por {@link QSWriter} com o
+ * caminho relativo ao nó, para serem repetidas abaixo de qualquer prefixo.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSFragment {
+	/**
+	 * Fim de cada entrada em {@link #text}
+	 */
+	private final int[] ends;
+	private final int maxDepth;
+	private final int nodeCount;
+	private final char[] text;
+
+	QSFragment(final char[] text, final int[] ends, final int nodeCount,
+			final int maxDepth) {
+		this.text = text;
+		this.ends = ends;
+		this.nodeCount = nodeCount;
+		this.maxDepth = maxDepth;
+	}
+
+	int getEnd(final int entry) {
+		return ends[entry];
+	}
+
+	/**
+	 * Quantidade de valores
+	 */
+	public int getLeafCount() {
+		return ends.length;
+	}
+
+	/**
+	 * Maior profundidade alcançada, relativa ao nó
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Quantidade de nós abaixo do nó, incluindo atributos
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	char[] getText() {
+		return text;
+	}
+
+	/**
+	 * Quantidade de caracteres das entradas, sem os prefixos
+	 */
+	public int length() {
+		return text.length;
+	}
+}
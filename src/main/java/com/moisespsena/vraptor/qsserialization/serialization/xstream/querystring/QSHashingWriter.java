@@ -0,0 +1,96 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * {@link Writer} que calcula o hash FNV-1a de 64 bits dos caracteres à
+ * medida em que são repassados ao destino.
+ * 
+ * <p>
+ * Sem destino os caracteres são apenas descartados, permitindo calcular o
+ * hash de uma saída sem gravá-la.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSHashingWriter extends Writer {
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long hash = FNV_OFFSET;
+	private final Writer writer;
+
+	/**
+	 * @param writer
+	 *            Destino, ou <code>null</code> para descartar os caracteres
+	 */
+	public QSHashingWriter(final Writer writer) {
+		this.writer = writer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Hash dos caracteres recebidos até o momento
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	@Override
+	public void write(final char[] cbuf, final int off, final int len)
+			throws IOException {
+		long h = hash;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = (h ^ cbuf[i]) * FNV_PRIME;
+		}
+		hash = h;
+		if (writer != null) {
+			writer.write(cbuf, off, len);
+		}
+	}
+
+	@Override
+	public void write(final String str, final int off, final int len)
+			throws IOException {
+		long h = hash;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = (h ^ str.charAt(i)) * FNV_PRIME;
+		}
+		hash = h;
+		if (writer != null) {
+			writer.write(str, off, len);
+		}
+	}
+}
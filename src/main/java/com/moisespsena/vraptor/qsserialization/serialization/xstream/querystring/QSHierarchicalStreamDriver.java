@@ -20,16 +20,24 @@
 package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URL;
 
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.AbstractQSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.StreamException;
 
 /**
  * Query String Stream Driver Hirárquico
@@ -44,6 +52,44 @@ public class QSHierarchicalStreamDriver implements HierarchicalStreamDriver {
 		void postWriterCreated(QSWriter writer);
 	}
 
+	private final QSFormatReader formatReader;
+
+	private final boolean withoutRoot;
+
+	public QSHierarchicalStreamDriver() {
+		this(false);
+	}
+
+	/**
+	 * @param withoutRoot
+	 *            Modo de raiz dos writers criados por
+	 *            {@link #createWriter(Writer, QSFormatWriter, WriterCreatedListener)}
+	 */
+	public QSHierarchicalStreamDriver(final boolean withoutRoot) {
+		this(withoutRoot, new ObjectQSFormatWriter());
+	}
+
+	/**
+	 * @param withoutRoot
+	 *            Modo de raiz dos writers criados por
+	 *            {@link #createWriter(Writer, QSFormatWriter, WriterCreatedListener)}
+	 * @param formatReader
+	 *            Formato dos readers criados por {@link #createReader(Reader)}
+	 */
+	public QSHierarchicalStreamDriver(final boolean withoutRoot,
+			final QSFormatReader formatReader) {
+		this.withoutRoot = withoutRoot;
+		this.formatReader = formatReader;
+	}
+
+	/**
+	 * @param formatReader
+	 *            Formato dos readers criados por {@link #createReader(Reader)}
+	 */
+	public QSHierarchicalStreamDriver(final QSFormatReader formatReader) {
+		this(false, formatReader);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -53,8 +99,11 @@ public class QSHierarchicalStreamDriver implements HierarchicalStreamDriver {
 	 */
 	@Override
 	public HierarchicalStreamReader createReader(final File in) {
-		throw new UnsupportedOperationException(
-				"The JsonHierarchicalStreamDriver can only write JSON");
+		try {
+			return createReader(new FileInputStream(in));
+		} catch (final FileNotFoundException e) {
+			throw new StreamException(e);
+		}
 	}
 
 	/*
@@ -66,8 +115,12 @@ public class QSHierarchicalStreamDriver implements HierarchicalStreamDriver {
 	 */
 	@Override
 	public HierarchicalStreamReader createReader(final InputStream in) {
-		throw new UnsupportedOperationException(
-				"The JsonHierarchicalStreamDriver can only write JSON");
+		try {
+			return createReader(new InputStreamReader(in,
+					AbstractQSFormatWriter.DEFAULT_ENCODING));
+		} catch (final UnsupportedEncodingException e) {
+			throw new StreamException(e);
+		}
 	}
 
 	/*
@@ -79,8 +132,20 @@ public class QSHierarchicalStreamDriver implements HierarchicalStreamDriver {
 	 */
 	@Override
 	public HierarchicalStreamReader createReader(final Reader in) {
-		throw new UnsupportedOperationException(
-				"The JsonHierarchicalStreamDriver can only write JSON");
+		return createReader(in, formatReader);
+	}
+
+	/**
+	 * Cria o reader com o formato informado
+	 * 
+	 * @param in
+	 *            The Input
+	 * @param formatReader
+	 *            The Format Reader
+	 */
+	public QSReader createReader(final Reader in,
+			final QSFormatReader formatReader) {
+		return new QSReader(in, formatReader);
 	}
 
 	/*
@@ -92,8 +157,11 @@ public class QSHierarchicalStreamDriver implements HierarchicalStreamDriver {
 	 */
 	@Override
 	public HierarchicalStreamReader createReader(final URL in) {
-		throw new UnsupportedOperationException(
-				"The JsonHierarchicalStreamDriver can only write JSON");
+		try {
+			return createReader(in.openStream());
+		} catch (final IOException e) {
+			throw new StreamException(e);
+		}
 	}
 
 	/*
@@ -150,6 +218,38 @@ public class QSHierarchicalStreamDriver implements HierarchicalStreamDriver {
 		return writer;
 	}
 
+	/**
+	 * Cria o writer com o formato informado e executa um callback
+	 * 
+	 * @param out
+	 *            The OutPut
+	 * @param formatWriter
+	 *            The Format Writer
+	 * @param writerCreatedListener
+	 *            The Callback
+	 */
+	public QSWriter createWriter(final Writer out,
+			final QSFormatWriter formatWriter,
+			final WriterCreatedListener writerCreatedListener) {
+		QSWriter writer;
+		if (withoutRoot) {
+			writer = new QSWriter(out, QSWriter.DROP_ROOT_MODE, formatWriter);
+		} else {
+			writer = new QSWriter(out, formatWriter);
+		}
+
+		postWriterCreated(writer, writerCreatedListener);
+		return writer;
+	}
+
+	public QSFormatReader getFormatReader() {
+		return formatReader;
+	}
+
+	public boolean isWithoutRoot() {
+		return withoutRoot;
+	}
+
 	/**
 	 * Executa a callback
 	 * 
@@ -0,0 +1,57 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.util.List;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter.Path;
+import com.thoughtworks.xstream.core.util.QuickWriter;
+
+/**
+ * {@link QSFormatWriter} que formata o caminho um trecho por vez, permitindo
+ * que o {@link QSWriter} reaproveite o prefixo já formatado para todos os
+ * valores abaixo dele.
+ * 
+ * <p>
+ * Para os formatos que implementam apenas {@link QSFormatWriter}, o
+ * {@link QSWriter} formata o caminho inteiro a cada valor com
+ * {@link QSFormatWriter#writePath(List, QuickWriter)}.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSIncrementalFormatWriter extends QSFormatWriter {
+	/**
+	 * Grava o separador entre o caminho e o valor
+	 * 
+	 * @param writer
+	 */
+	public void writePathEnd(QuickWriter writer);
+
+	/**
+	 * Grava um trecho do caminho, incluindo o separador com o trecho anterior.
+	 * Chamado uma única vez por trecho.
+	 * 
+	 * @param path
+	 * @param position
+	 *            Posição do trecho no caminho (0 = primeiro)
+	 * @param writer
+	 */
+	public void writePathSegment(Path path, int position, QuickWriter writer);
+}
@@ -0,0 +1,60 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits.Limit;
+import com.thoughtworks.xstream.converters.ConversionException;
+
+/**
+ * Lançada pelo {@link QSWriter} ao atingir um dos {@link QSLimits}. A saída
+ * termina na última entrada completa.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSLimitExceededException extends ConversionException {
+	private static final long serialVersionUID = 1L;
+
+	private final Limit limit;
+	private final long max;
+	private final boolean truncate;
+
+	public QSLimitExceededException(final Limit limit, final long max,
+			final boolean truncate) {
+		super("Query String limit exceeded: " + limit + " > " + max);
+		this.limit = limit;
+		this.max = max;
+		this.truncate = truncate;
+	}
+
+	public Limit getLimit() {
+		return limit;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Se a serialização deve terminar normalmente com a saída truncada, ver
+	 * {@link QSLimits#truncate()}
+	 */
+	public boolean isTruncate() {
+		return truncate;
+	}
+}
@@ -0,0 +1,177 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+/**
+ * Limites de saída aplicados pelo {@link QSWriter}. Zero desativa o limite.
+ * 
+ * <p>
+ * As instâncias são imutáveis, cada método retorna uma nova configuração:
+ * </p>
+ * 
+ * <pre>
+ * <code>QSLimits limits = QSLimits.NONE.maxChars(64 * 1024).maxElements(500);</code>
+ * </pre>
+ * 
+ * <p>
+ * Ao atingir um limite o writer interrompe a serialização com
+ * {@link QSLimitExceededException}. No modo {@link #truncate()} a exceção não
+ * chega ao chamador: a saída termina na última entrada completa.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSLimits {
+	/**
+	 * Limite excedido
+	 * 
+	 * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+	 * @since 1.1
+	 * 
+	 */
+	public enum Limit {
+		/**
+		 * Caracteres gravados
+		 */
+		CHARS,
+
+		/**
+		 * Profundidade, sendo 1 a do nó raiz
+		 */
+		DEPTH,
+
+		/**
+		 * Elementos de um array, coleção ou mapa
+		 */
+		ELEMENTS,
+
+		/**
+		 * Entradas (valores) gravadas
+		 */
+		ENTRIES
+	}
+
+	/**
+	 * Sem limites
+	 */
+	public static final QSLimits NONE = new QSLimits(0, 0, 0, 0, false);
+
+	private final long maxChars;
+	private final int maxDepth;
+	private final int maxElements;
+	private final int maxEntries;
+	private final boolean truncate;
+
+	private QSLimits(final long maxChars, final int maxDepth,
+			final int maxElements, final int maxEntries, final boolean truncate) {
+		if ((maxChars < 0) || (maxDepth < 0) || (maxElements < 0)
+				|| (maxEntries < 0)) {
+			throw new IllegalArgumentException("Negative limit");
+		}
+		this.maxChars = maxChars;
+		this.maxDepth = maxDepth;
+		this.maxElements = maxElements;
+		this.maxEntries = maxEntries;
+		this.truncate = truncate;
+	}
+
+	public long getMaxChars() {
+		return maxChars;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public int getMaxElements() {
+		return maxElements;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Se algum limite está ativo
+	 */
+	public boolean isEnabled() {
+		return (maxChars > 0) || (maxDepth > 0) || (maxElements > 0)
+				|| (maxEntries > 0);
+	}
+
+	public boolean isTruncate() {
+		return truncate;
+	}
+
+	/**
+	 * Quantidade máxima de caracteres gravados. Uma entrada que ultrapassa o
+	 * limite não é gravada.
+	 * 
+	 * @param maxChars
+	 */
+	public QSLimits maxChars(final long maxChars) {
+		return new QSLimits(maxChars, maxDepth, maxElements, maxEntries,
+				truncate);
+	}
+
+	/**
+	 * Profundidade máxima, sendo 1 a do nó raiz
+	 * 
+	 * @param maxDepth
+	 */
+	public QSLimits maxDepth(final int maxDepth) {
+		return new QSLimits(maxChars, maxDepth, maxElements, maxEntries,
+				truncate);
+	}
+
+	/**
+	 * Quantidade máxima de elementos de cada array, coleção ou mapa
+	 * 
+	 * @param maxElements
+	 */
+	public QSLimits maxElements(final int maxElements) {
+		return new QSLimits(maxChars, maxDepth, maxElements, maxEntries,
+				truncate);
+	}
+
+	/**
+	 * Quantidade máxima de entradas (valores) gravadas
+	 * 
+	 * @param maxEntries
+	 */
+	public QSLimits maxEntries(final int maxEntries) {
+		return new QSLimits(maxChars, maxDepth, maxElements, maxEntries,
+				truncate);
+	}
+
+	@Override
+	public String toString() {
+		return "QSLimits[maxChars=" + maxChars + ", maxDepth=" + maxDepth
+				+ ", maxElements=" + maxElements + ", maxEntries="
+				+ maxEntries + ", truncate=" + truncate + "]";
+	}
+
+	/**
+	 * Ao atingir um limite a serialização termina normalmente, mantendo as
+	 * entradas já gravadas
+	 */
+	public QSLimits truncate() {
+		return new QSLimits(maxChars, maxDepth, maxElements, maxEntries, true);
+	}
+}
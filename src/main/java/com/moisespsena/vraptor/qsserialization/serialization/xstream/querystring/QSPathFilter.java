@@ -0,0 +1,445 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Filtro de caminhos por padrões, aplicado antes de percorrer cada campo: os
+ * nós rejeitados não são lidos pelo XStream nem gravados.
+ * 
+ * <p>
+ * Os padrões seguem o caminho gravado, com trechos separados por
+ * <code>.</code> e índices entre <code>[]</code>:
+ * </p>
+ * <ul>
+ * <li><code>*</code>: qualquer nome, ex: <code>product.*.name</code></li>
+ * <li><code>[*]</code>: qualquer índice, ex: <code>product.users[*].name</code>
+ * </li>
+ * <li><code>**</code>: qualquer quantidade de trechos, ex:
+ * <code>**.password</code></li>
+ * </ul>
+ * <p>
+ * Um campo {@link java.util.Map} é gravado com um índice no lugar do nome,
+ * ex: <code>product[0][0][1]</code>, mas é filtrado pelo nome do campo,
+ * seguido pelo índice da entrada e por <code>[0]</code> para a chave ou
+ * <code>[1]</code> para o valor, ex: <code>product.data[*][1]</code>.
+ * </p>
+ * <p>
+ * Um caminho excluído é descartado com todos os seus filhos. Com inclusões,
+ * apenas os caminhos incluídos (com os filhos) e os seus ancestrais são
+ * mantidos. A exclusão prevalece sobre a inclusão.
+ * </p>
+ * 
+ * <p>
+ * As instâncias são imutáveis e thread-safe, cada método retorna uma nova
+ * configuração:
+ * </p>
+ * 
+ * <pre>
+ * <code>QSPathFilter filter = QSPathFilter.NONE.include("product.name",
+ * 		"product.users[*].name").exclude("**.password");</code>
+ * </pre>
+ * 
+ * <p>
+ * Os padrões são compilados em uma árvore de trechos, percorrida como um
+ * autômato cujos estados são criados sob demanda e reaproveitados. Apenas as
+ * transições pelos trechos literais dos padrões são guardadas; os demais
+ * nomes e índices levam a um estado compartilhado, portanto a memória não
+ * cresce com os caminhos percorridos.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSPathFilter {
+	/**
+	 * Trecho de padrão
+	 */
+	private static final class Node {
+		private Node any;
+		private Node anyIndex;
+		private Node deep;
+		private boolean exclude;
+		private boolean include;
+		private Map<String, Node> indexes;
+
+		/**
+		 * Se é um trecho <code>**</code>, que permanece ativo em qualquer
+		 * trecho do caminho
+		 */
+		private final boolean isDeep;
+
+		/**
+		 * Se alguma inclusão termina neste trecho ou abaixo dele
+		 */
+		private boolean leadsToInclude;
+		private Map<String, Node> names;
+
+		private Node(final boolean isDeep) {
+			this.isDeep = isDeep;
+		}
+
+		private boolean computeLeadsToInclude() {
+			boolean leads = include;
+			for (final Node child : children()) {
+				leads |= child.computeLeadsToInclude();
+			}
+			leadsToInclude = leads;
+			return leads;
+		}
+
+		private List<Node> children() {
+			final List<Node> children = new ArrayList<Node>();
+			if (names != null) {
+				children.addAll(names.values());
+			}
+			if (indexes != null) {
+				children.addAll(indexes.values());
+			}
+			for (final Node child : new Node[] { any, anyIndex, deep }) {
+				if (child != null) {
+					children.add(child);
+				}
+			}
+			return children;
+		}
+	}
+
+	/**
+	 * Conjunto de trechos ativos após um caminho
+	 */
+	static final class State {
+		private final boolean accepted;
+
+		/**
+		 * Estado após qualquer nome que não corresponda a um trecho literal
+		 */
+		private volatile State any;
+
+		/**
+		 * Estado após qualquer índice que não corresponda a um trecho literal
+		 */
+		private volatile State anyIndex;
+		private final QSPathFilter filter;
+
+		/**
+		 * Estados após os índices literais dos padrões
+		 */
+		private final ConcurrentMap<String, State> indexes;
+
+		/**
+		 * Se o caminho ou um ancestral foi incluído
+		 */
+		private final boolean inside;
+
+		/**
+		 * Estados após os nomes literais dos padrões
+		 */
+		private final ConcurrentMap<String, State> names;
+		private final Node[] nodes;
+
+		/**
+		 * Se o valor do caminho deve ser gravado: aceito e não apenas
+		 * ancestral de uma inclusão
+		 */
+		private final boolean writable;
+
+		private State(final QSPathFilter filter, final Node[] nodes,
+				final boolean parentInside) {
+			this.filter = filter;
+			this.nodes = nodes;
+
+			boolean excluded = false;
+			boolean inside = parentInside;
+			boolean leadsToInclude = false;
+			boolean literalIndexes = false;
+			boolean literalNames = false;
+			for (final Node node : nodes) {
+				excluded |= node.exclude;
+				inside |= node.include;
+				leadsToInclude |= node.leadsToInclude;
+				literalIndexes |= node.indexes != null;
+				literalNames |= node.names != null;
+			}
+			this.inside = inside;
+			accepted = !excluded
+					&& (!filter.hasIncludes || inside || leadsToInclude);
+			writable = accepted && (!filter.hasIncludes || inside);
+			indexes = literalIndexes ? new ConcurrentHashMap<String, State>()
+					: null;
+			names = literalNames ? new ConcurrentHashMap<String, State>()
+					: null;
+		}
+
+		/**
+		 * Se o caminho deve ser gravado
+		 */
+		boolean isAccepted() {
+			return accepted;
+		}
+
+		/**
+		 * Se o valor do caminho deve ser gravado
+		 */
+		boolean isWritable() {
+			return writable;
+		}
+
+		/**
+		 * Estado após o trecho
+		 * 
+		 * @param name
+		 *            Nome ou índice
+		 * @param isIndex
+		 */
+		State next(final String name, final boolean isIndex) {
+			if (!isLiteral(name, isIndex)) {
+				// os trechos que não correspondem a um literal levam ao mesmo
+				// estado, portanto apenas os literais dos padrões são guardados
+				State state = isIndex ? anyIndex : any;
+				if (state == null) {
+					state = step(name, isIndex);
+					if (isIndex) {
+						anyIndex = state;
+					} else {
+						any = state;
+					}
+				}
+				return state;
+			}
+
+			final ConcurrentMap<String, State> transitions = isIndex ? indexes
+					: names;
+			State state = transitions.get(name);
+			if (state == null) {
+				state = step(name, isIndex);
+				final State previous = transitions.putIfAbsent(name, state);
+				if (previous != null) {
+					state = previous;
+				}
+			}
+			return state;
+		}
+
+		/**
+		 * Se o trecho corresponde a um trecho literal de algum padrão ativo
+		 */
+		private boolean isLiteral(final String name, final boolean isIndex) {
+			if ((isIndex ? indexes : names) == null) {
+				return false;
+			}
+			for (final Node node : nodes) {
+				final Map<String, Node> literal = isIndex ? node.indexes
+						: node.names;
+				if ((literal != null) && literal.containsKey(name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private State step(final String name, final boolean isIndex) {
+			final List<Node> next = new ArrayList<Node>();
+			for (final Node node : nodes) {
+				if (node.isDeep) {
+					add(next, node);
+				}
+				final Map<String, Node> literal = isIndex ? node.indexes
+						: node.names;
+				if (literal != null) {
+					add(next, literal.get(name));
+				}
+				add(next, isIndex ? node.anyIndex : node.any);
+			}
+			return new State(filter, next.toArray(new Node[next.size()]),
+					inside);
+		}
+	}
+
+	/**
+	 * Sem filtro
+	 */
+	public static final QSPathFilter NONE = new QSPathFilter(new String[0],
+			new String[0]);
+
+	/**
+	 * Adiciona o trecho e os trechos <code>**</code> que o seguem, que também
+	 * correspondem a zero trechos
+	 */
+	private static void add(final List<Node> nodes, final Node node) {
+		if ((node != null) && !nodes.contains(node)) {
+			nodes.add(node);
+			add(nodes, node.deep);
+		}
+	}
+
+	private static String[] concat(final String[] a, final String[] b) {
+		final String[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+
+	private static Node child(final Map<String, Node> children,
+			final String name) {
+		Node child = children.get(name);
+		if (child == null) {
+			child = new Node(false);
+			children.put(name, child);
+		}
+		return child;
+	}
+
+	private final String[] excludes;
+	private final boolean hasIncludes;
+	private final String[] includes;
+	private final State root;
+
+	private QSPathFilter(final String[] includes, final String[] excludes) {
+		this.includes = includes;
+		this.excludes = excludes;
+		hasIncludes = includes.length > 0;
+
+		final Node rootNode = new Node(false);
+		for (final String pattern : includes) {
+			compile(rootNode, pattern).include = true;
+		}
+		for (final String pattern : excludes) {
+			compile(rootNode, pattern).exclude = true;
+		}
+		rootNode.computeLeadsToInclude();
+
+		final List<Node> nodes = new ArrayList<Node>();
+		add(nodes, rootNode);
+		root = new State(this, nodes.toArray(new Node[nodes.size()]), false);
+	}
+
+	/**
+	 * Se o valor do caminho deve ser gravado, ex:
+	 * <code>product.users[0].name</code>
+	 */
+	public boolean accepts(final String path) {
+		State state = root;
+		for (final String segment : segments(path)) {
+			if (!state.isAccepted()) {
+				return false;
+			}
+			final boolean isIndex = segment.startsWith("[");
+			state = state.next(isIndex ? segment.substring(1) : segment,
+					isIndex);
+		}
+		return state.isWritable();
+	}
+
+	private Node compile(Node node, final String pattern) {
+		for (final String segment : segments(pattern)) {
+			if (segment.equals("**")) {
+				if (node.deep == null) {
+					node.deep = new Node(true);
+				}
+				node = node.deep;
+			} else if (segment.equals("*")) {
+				if (node.any == null) {
+					node.any = new Node(false);
+				}
+				node = node.any;
+			} else if (segment.equals("[*")) {
+				if (node.anyIndex == null) {
+					node.anyIndex = new Node(false);
+				}
+				node = node.anyIndex;
+			} else if (segment.startsWith("[")) {
+				if (node.indexes == null) {
+					node.indexes = new HashMap<String, Node>();
+				}
+				node = child(node.indexes, segment.substring(1));
+			} else {
+				if (node.names == null) {
+					node.names = new HashMap<String, Node>();
+				}
+				node = child(node.names, segment);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Retorna uma nova configuração que descarta os caminhos
+	 * 
+	 * @param patterns
+	 */
+	public QSPathFilter exclude(final String... patterns) {
+		return new QSPathFilter(includes, concat(excludes, patterns));
+	}
+
+	public String[] getExcludes() {
+		return excludes.clone();
+	}
+
+	public String[] getIncludes() {
+		return includes.clone();
+	}
+
+	/**
+	 * Retorna uma nova configuração que grava apenas os caminhos incluídos e
+	 * os seus ancestrais
+	 * 
+	 * @param patterns
+	 */
+	public QSPathFilter include(final String... patterns) {
+		return new QSPathFilter(concat(includes, patterns), excludes);
+	}
+
+	/**
+	 * Se há algum padrão
+	 */
+	public boolean isEnabled() {
+		return (includes.length > 0) || (excludes.length > 0);
+	}
+
+	/**
+	 * Estado do caminho vazio
+	 */
+	State root() {
+		return root;
+	}
+
+	/**
+	 * Trechos do caminho; os índices começam com <code>[</code>
+	 */
+	private List<String> segments(final String path) {
+		final List<String> segments = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0, len = path.length(); i <= len; i++) {
+			final char c = i == len ? '.' : path.charAt(i);
+			if ((c == '.') || (c == '[') || (c == ']')) {
+				if (i > start) {
+					segments.add(path.substring(start, i));
+				}
+				start = c == '[' ? i : i + 1;
+			}
+		}
+		return segments;
+	}
+}
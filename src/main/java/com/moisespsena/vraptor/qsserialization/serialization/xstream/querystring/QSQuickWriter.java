@@ -0,0 +1,261 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.thoughtworks.xstream.core.util.QuickWriter;
+import com.thoughtworks.xstream.io.StreamException;
+
+/**
+ * {@link QuickWriter} que aceita trechos de arrays e que descarrega o buffer
+ * sem executar {@link Writer#flush()} a cada buffer cheio.
+ *
+ * <p>
+ * Sem um {@link Writer} de destino o buffer cresce conforme necessário e pode
+ * ser truncado, servindo como buffer de memória (ex: o prefixo do caminho em
+ * {@link QSWriter}).
+ * </p>
+ *
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ *
+ */
+public class QSQuickWriter extends QuickWriter {
+	/**
+	 * Grava um trecho da String em qualquer {@link QuickWriter}
+	 * 
+	 * @param writer
+	 * @param str
+	 * @param offset
+	 * @param len
+	 */
+	public static void write(final QuickWriter writer, final String str,
+			final int offset, final int len) {
+		if (writer instanceof QSQuickWriter) {
+			((QSQuickWriter) writer).write(str, offset, len);
+		} else {
+			for (int i = offset, end = offset + len; i < end; i++) {
+				writer.write(str.charAt(i));
+			}
+		}
+	}
+
+	private char[] buffer;
+
+	/**
+	 * Início do trecho que não pode ser descarregado, ou -1
+	 */
+	private int mark = -1;
+	private int pointer;
+	private final Writer writer;
+
+	/**
+	 * Caracteres já descarregados no {@link Writer} de destino
+	 */
+	private long written;
+
+	/**
+	 * Buffer de memória
+	 */
+	public QSQuickWriter() {
+		this(null, 64);
+	}
+
+	public QSQuickWriter(final Writer writer) {
+		this(writer, 1024);
+	}
+
+	public QSQuickWriter(final Writer writer, final int bufferSize) {
+		super(writer, 0);
+		this.writer = writer;
+		buffer = new char[bufferSize];
+	}
+
+	@Override
+	public void close() {
+		drain();
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (final IOException e) {
+				throw new StreamException(e);
+			}
+		}
+	}
+
+	private void drain() {
+		final int end = mark < 0 ? pointer : mark;
+		if ((writer != null) && (end > 0)) {
+			try {
+				writer.write(buffer, 0, end);
+			} catch (final IOException e) {
+				throw new StreamException(e);
+			}
+			written += end;
+			pointer -= end;
+			if (pointer > 0) {
+				System.arraycopy(buffer, end, buffer, 0, pointer);
+			}
+			if (mark > 0) {
+				mark = 0;
+			}
+		}
+	}
+
+	private void ensure(final int len) {
+		if ((pointer + len) > buffer.length) {
+			drain();
+			if ((pointer + len) > buffer.length) {
+				final char[] newBuffer = new char[Math.max(buffer.length * 2,
+						pointer + len)];
+				System.arraycopy(buffer, 0, newBuffer, 0, pointer);
+				buffer = newBuffer;
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		drain();
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (final IOException e) {
+				throw new StreamException(e);
+			}
+		}
+	}
+
+	/**
+	 * Quantidade de caracteres gravados, incluindo os que ainda estão no
+	 * buffer
+	 */
+	public long getCharsWritten() {
+		return written + pointer;
+	}
+
+	/**
+	 * Quantidade de caracteres no buffer
+	 */
+	public int length() {
+		return pointer;
+	}
+
+	/**
+	 * Marca a posição corrente: até {@link #reset()} ou {@link #unmark()} os
+	 * caracteres gravados a partir dela permanecem no buffer
+	 */
+	public void mark() {
+		mark = pointer;
+	}
+
+	/**
+	 * Descarta os caracteres gravados desde {@link #mark()}
+	 */
+	public void reset() {
+		pointer = mark;
+		mark = -1;
+	}
+
+	/**
+	 * Trunca o buffer de memória
+	 *
+	 * @param length
+	 *            Novo tamanho
+	 */
+	public void setLength(final int length) {
+		pointer = length;
+	}
+
+	/**
+	 * Cópia do buffer de memória
+	 */
+	public char[] toCharArray() {
+		final char[] chars = new char[pointer];
+		System.arraycopy(buffer, 0, chars, 0, pointer);
+		return chars;
+	}
+
+	/**
+	 * Conteúdo do buffer de memória
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, pointer);
+	}
+
+	/**
+	 * Mantém os caracteres gravados desde {@link #mark()}
+	 */
+	public void unmark() {
+		mark = -1;
+	}
+
+	@Override
+	public void write(final char c) {
+		if (pointer == buffer.length) {
+			ensure(1);
+		}
+		buffer[pointer++] = c;
+	}
+
+	@Override
+	public void write(final char[] c) {
+		write(c, 0, c.length);
+	}
+
+	public void write(final char[] c, final int offset, final int len) {
+		ensure(len);
+		System.arraycopy(c, offset, buffer, pointer, len);
+		pointer += len;
+	}
+
+	@Override
+	public void write(final String str) {
+		final int len = str.length();
+		ensure(len);
+		str.getChars(0, len, buffer, pointer);
+		pointer += len;
+	}
+
+	public void write(final String str, final int offset, final int len) {
+		ensure(len);
+		str.getChars(offset, offset + len, buffer, pointer);
+		pointer += len;
+	}
+
+	/**
+	 * Grava o conteúdo do buffer em outro writer
+	 *
+	 * @param out
+	 */
+	public void writeTo(final QSQuickWriter out) {
+		out.write(buffer, 0, pointer);
+	}
+
+	/**
+	 * Grava o conteúdo do buffer a partir da posição em outro writer
+	 * 
+	 * @param out
+	 * @param offset
+	 */
+	public void writeTo(final QSQuickWriter out, final int offset) {
+		out.write(buffer, offset, pointer - offset);
+	}
+}
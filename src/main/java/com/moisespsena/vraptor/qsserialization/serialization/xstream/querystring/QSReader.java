@@ -0,0 +1,263 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
+import com.thoughtworks.xstream.converters.ErrorWriter;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.StreamException;
+
+/**
+ * Leitor de Query String, contraparte de {@link QSWriter}.
+ * 
+ * <p>
+ * Lê as variáveis em uma única passada, sem montar uma árvore intermediária:
+ * como o {@link QSWriter} grava os nós em profundidade, as variáveis de um
+ * mesmo nó são contíguas e basta comparar o caminho da próxima variável com a
+ * pilha de nós corrente. Cada trecho do caminho é um nó e o primeiro trecho é
+ * a raiz.
+ * </p>
+ * 
+ * <p>
+ * Os trechos de índice (ex: <code>users[0]</code>) são lidos como nós com o
+ * nome do índice, pois o nome do elemento não é gravado. Os nós
+ * <code>@nome</code> gravados por {@link QSWriter#addAttribute(String, String)}
+ * são lidos como atributos, disponíveis enquanto o nó for o corrente.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSReader implements HierarchicalStreamReader {
+	private int attributeCount;
+	private String[] attributeNames = new String[4];
+	private String[] attributeValues = new String[4];
+	private int depth;
+	private final QSFormatReader formatReader;
+	private boolean hasEntry;
+	private final QSCharReader in;
+
+	/**
+	 * Quantidade de trechos iniciais de {@link #segments} iguais a
+	 * {@link #stack}
+	 */
+	private int match;
+
+	/**
+	 * Valor já lido do nó corrente
+	 */
+	private String nodeValue;
+
+	/**
+	 * Caminho da próxima variável
+	 */
+	private final List<String> segments = new ArrayList<String>();
+
+	/**
+	 * Nomes dos nós abertos
+	 */
+	private String[] stack = new String[16];
+
+	/**
+	 * Valor da próxima variável
+	 */
+	private String value;
+
+	public QSReader(final Reader reader) {
+		this(reader, new ObjectQSFormatWriter());
+	}
+
+	public QSReader(final Reader reader, final QSFormatReader formatReader) {
+		in = new QSCharReader(reader);
+		this.formatReader = formatReader;
+
+		next();
+		if (!hasEntry) {
+			throw new StreamException("Empty Query String");
+		}
+		moveDown();
+	}
+
+	private void addAttribute(final String name, final String value) {
+		if (attributeCount == attributeNames.length) {
+			attributeNames = Arrays.copyOf(attributeNames, attributeCount * 2);
+			attributeValues = Arrays
+					.copyOf(attributeValues, attributeCount * 2);
+		}
+		attributeNames[attributeCount] = name;
+		attributeValues[attributeCount] = value;
+		attributeCount++;
+	}
+
+	@Override
+	public void appendErrors(final ErrorWriter errorWriter) {
+		final StringBuilder path = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			path.append('/').append(stack[i]);
+		}
+		errorWriter.add("path", path.toString());
+	}
+
+	@Override
+	public void close() {
+		in.close();
+	}
+
+	@Override
+	public String getAttribute(final int index) {
+		return index < attributeCount ? attributeValues[index] : null;
+	}
+
+	@Override
+	public String getAttribute(final String name) {
+		for (int i = 0; i < attributeCount; i++) {
+			if (attributeNames[i].equals(name)) {
+				return attributeValues[i];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	@Override
+	public String getAttributeName(final int index) {
+		return index < attributeCount ? attributeNames[index] : null;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Iterator getAttributeNames() {
+		return Arrays.asList(attributeNames).subList(0, attributeCount)
+				.iterator();
+	}
+
+	@Override
+	public String getNodeName() {
+		return stack[depth - 1];
+	}
+
+	@Override
+	public String getValue() {
+		if (nodeValue == null) {
+			if (isCurrentLeaf()) {
+				nodeValue = value;
+				next();
+				// a próxima variável com o mesmo caminho é um novo nó
+				if (match == depth) {
+					match--;
+				}
+			} else {
+				nodeValue = "";
+			}
+		}
+		return nodeValue;
+	}
+
+	@Override
+	public boolean hasMoreChildren() {
+		return hasEntry && (match == depth) && (segments.size() > depth);
+	}
+
+	/**
+	 * Se a próxima variável é o valor do nó corrente
+	 */
+	private boolean isCurrentLeaf() {
+		return hasEntry && (match == depth) && (segments.size() == depth);
+	}
+
+	@Override
+	public void moveDown() {
+		if (!hasMoreChildren()) {
+			throw new StreamException("No more children");
+		}
+
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth] = segments.get(depth);
+		depth++;
+		match = depth;
+		nodeValue = null;
+		readAttributes();
+	}
+
+	@Override
+	public void moveUp() {
+		// descarta o valor e os filhos não lidos
+		while (hasEntry && (match == depth)) {
+			next();
+		}
+
+		stack[--depth] = null;
+		if (match > depth) {
+			match = depth;
+		}
+		attributeCount = 0;
+		nodeValue = null;
+	}
+
+	/**
+	 * Lê a próxima variável e a compara com a pilha de nós
+	 */
+	private void next() {
+		hasEntry = formatReader.readPath(in, segments);
+		if (hasEntry) {
+			value = formatReader.readValue(in);
+
+			final int max = Math.min(depth, segments.size());
+			int i = 0;
+			while ((i < max) && stack[i].equals(segments.get(i))) {
+				i++;
+			}
+			match = i;
+		} else {
+			value = null;
+			match = 0;
+		}
+	}
+
+	/**
+	 * Lê os nós <code>@nome</code> iniciais do nó corrente como atributos
+	 */
+	private void readAttributes() {
+		attributeCount = 0;
+		while (hasEntry && (match == depth) && (segments.size() == (depth + 1))) {
+			final String name = segments.get(depth);
+			if ((name.length() == 0) || (name.charAt(0) != '@')) {
+				break;
+			}
+			addAttribute(name.substring(1), value);
+			next();
+		}
+	}
+
+	@Override
+	public HierarchicalStreamReader underlyingReader() {
+		return this;
+	}
+}
@@ -0,0 +1,40 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import com.thoughtworks.xstream.core.util.QuickWriter;
+
+/**
+ * {@link QSIncrementalFormatWriter} cujo formato tem sintaxe para marcar uma
+ * entrada removida, ex: um comentário do formato .properties. Apenas estes
+ * formatos podem ser usados com {@link QSSnapshot}.
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public interface QSRemovalFormatWriter extends QSIncrementalFormatWriter {
+	/**
+	 * Grava a marcação de uma entrada removida desde a exportação anterior
+	 * 
+	 * @param path
+	 *            Caminho já formatado por
+	 *            {@link #writePathSegment(QSWriter.Path, int, QuickWriter)}
+	 * @param writer
+	 */
+	public void writeRemoved(String path, QuickWriter writer);
+}
@@ -0,0 +1,192 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estado de uma exportação periódica: guarda um hash de 64 bits do valor de
+ * cada caminho gravado, para que a próxima serialização grave apenas as
+ * entradas novas, alteradas e removidas.
+ * 
+ * <p>
+ * As entradas removidas são gravadas ao final pelo formato, que deve
+ * implementar {@link QSRemovalFormatWriter}, ex: como comentário no formato
+ * .properties (<code>#user.name=</code>). Os caminhos devem ser únicos:
+ * ocorrências repetidas do mesmo caminho na mesma serialização são sempre
+ * gravadas.
+ * </p>
+ * 
+ * <p>
+ * A instância não é thread-safe e deve ser usada por uma serialização de cada
+ * vez, ex:
+ * </p>
+ * 
+ * <pre>
+ * <code>QSSnapshot snapshot = new QSSnapshot();
+ * QSSerialization diff = properties.withSnapshot(snapshot);
+ * 
+ * // a cada execução
+ * diff.to(writer).from(config).serialize();</code>
+ * </pre>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSSnapshot {
+	/**
+	 * Tabela de endereçamento aberto caminho -&gt; hash, sem objetos por
+	 * entrada
+	 */
+	private static final class Table {
+		private final String[] keys;
+		private int size;
+		private final long[] values;
+
+		private Table(final int expected) {
+			int capacity = 16;
+			while (capacity < (expected * 2)) {
+				capacity <<= 1;
+			}
+			keys = new String[capacity];
+			values = new long[capacity];
+		}
+
+		private int indexOf(final String key) {
+			final int mask = keys.length - 1;
+			int i = mix(key.hashCode()) & mask;
+			for (String k = keys[i]; k != null; k = keys[i]) {
+				if (k.equals(key)) {
+					return i;
+				}
+				i = (i + 1) & mask;
+			}
+			return -(i + 1);
+		}
+	}
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private static long hash(final String value) {
+		long hash = FNV_OFFSET;
+		for (int i = 0, len = value.length(); i < len; i++) {
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static int mix(final int hash) {
+		final int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Caminhos da última serialização concluída
+	 */
+	private Table current = new Table(0);
+
+	/**
+	 * Caminhos da serialização em andamento
+	 */
+	private Table next;
+
+	/**
+	 * Inicia uma serialização, descartando uma anterior não concluída
+	 */
+	void begin() {
+		next = new Table(current.size);
+	}
+
+	/**
+	 * Registra o valor do caminho na serialização em andamento
+	 * 
+	 * @return Se a entrada é nova ou foi alterada e deve ser gravada
+	 */
+	boolean changed(final String key, final String value) {
+		final long hash = hash(value);
+		if (next.size >= (next.keys.length >> 1)) {
+			next = rehash(next);
+		}
+
+		final int i = next.indexOf(key);
+		if (i >= 0) {
+			return true;
+		}
+		next.keys[-(i + 1)] = key;
+		next.values[-(i + 1)] = hash;
+		next.size++;
+
+		final int previous = current.indexOf(key);
+		return (previous < 0) || (current.values[previous] != hash);
+	}
+
+	/**
+	 * Conclui a serialização em andamento, que passa a ser a base da próxima
+	 */
+	void commit() {
+		current = next;
+		next = null;
+	}
+
+	/**
+	 * Se o caminho foi gravado na última serialização concluída
+	 * 
+	 * @param key
+	 *            Caminho formatado, ex: <code>user.name</code>
+	 */
+	public boolean containsKey(final String key) {
+		return current.indexOf(key) >= 0;
+	}
+
+	private Table rehash(final Table table) {
+		final Table newTable = new Table(table.keys.length);
+		for (int i = 0; i < table.keys.length; i++) {
+			final String key = table.keys[i];
+			if (key != null) {
+				final int j = -(newTable.indexOf(key) + 1);
+				newTable.keys[j] = key;
+				newTable.values[j] = table.values[i];
+			}
+		}
+		newTable.size = table.size;
+		return newTable;
+	}
+
+	/**
+	 * Caminhos da última serialização concluída que não foram gravados na
+	 * serialização em andamento
+	 */
+	List<String> removed() {
+		final List<String> removed = new ArrayList<String>();
+		for (final String key : current.keys) {
+			if ((key != null) && (next.indexOf(key) < 0)) {
+				removed.add(key);
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Quantidade de caminhos da última serialização concluída
+	 */
+	public int size() {
+		return current.size;
+	}
+}
@@ -0,0 +1,436 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Tokenizador de Query String sobre um {@link CharSequence} ou um
+ * {@link ByteBuffer} UTF-8, sem cópias.
+ * 
+ * <p>
+ * Percorre a entrada uma única vez e expõe as posições da chave, dos trechos
+ * do caminho e do valor de cada variável. Os textos só são decodificados
+ * quando solicitados ({@link #segment(int)} e {@link #value()}). As posições
+ * são índices de caracteres ou, para {@link ByteBuffer}, de bytes a partir da
+ * posição do buffer.
+ * </p>
+ * 
+ * <p>
+ * Os caminhos seguem a mesma sintaxe lida por {@link QSFormatReader}: trechos
+ * separados por <code>.</code> ou entre <code>[]</code>, com <code>\</code>
+ * escapando o caractere seguinte, o que cobre os formatos Object, Array e
+ * Properties.
+ * </p>
+ * 
+ * <pre>
+ * <code>QSTokenizer tokenizer = new QSTokenizer("user.name=Moi&amp;user.tags[0]=a");
+ * while (tokenizer.next()) {
+ * 	if (tokenizer.segmentEquals(1, "name")) {
+ * 		String name = tokenizer.value();
+ * 	}
+ * }</code>
+ * </pre>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSTokenizer {
+	/**
+	 * Sintaxe das variáveis
+	 * 
+	 * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+	 * @since 1.1
+	 * 
+	 */
+	public enum Syntax {
+		/**
+		 * Formatos Object e Array: variáveis separadas por <code>&amp;</code>
+		 * e valores codificados com <code>%XX</code>
+		 */
+		QUERY_STRING('&', true),
+
+		/**
+		 * Formato Properties: variáveis separadas por quebra de linha e
+		 * valores com continuação de linha
+		 */
+		PROPERTIES('\n', false);
+
+		private final boolean percentEncoded;
+		private final char varSeparator;
+
+		private Syntax(final char varSeparator, final boolean percentEncoded) {
+			this.varSeparator = varSeparator;
+			this.percentEncoded = percentEncoded;
+		}
+	}
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final char KV_SEPARATOR = '=';
+
+	private static int hex(final int c) {
+		final int digit = Character.digit(c, 16);
+		if (digit == -1) {
+			throw new IllegalArgumentException(
+					"Illegal hex characters in escape (%) pattern");
+		}
+		return digit;
+	}
+
+	private final ByteBuffer bytes;
+	private final CharSequence chars;
+	private int keyEnd;
+	private int keyStart;
+	private final int length;
+	private int position;
+
+	/**
+	 * Buffer de decodificação, criado na primeira decodificação com escapes
+	 */
+	private byte[] scratch;
+	private boolean[] segmentBrackets = new boolean[8];
+	private int segmentCount;
+	private int[] segmentEnds = new int[8];
+	private int[] segmentStarts = new int[8];
+	private final Syntax syntax;
+	private int valueEnd;
+	private int valueStart;
+
+	/**
+	 * Lê a entrada no formato {@link Syntax#QUERY_STRING}
+	 * 
+	 * @param bytes
+	 *            Entrada UTF-8, de sua posição até o limite
+	 */
+	public QSTokenizer(final ByteBuffer bytes) {
+		this(bytes, Syntax.QUERY_STRING);
+	}
+
+	/**
+	 * @param bytes
+	 *            Entrada UTF-8, de sua posição até o limite
+	 * @param syntax
+	 */
+	public QSTokenizer(final ByteBuffer bytes, final Syntax syntax) {
+		this.bytes = bytes.slice();
+		chars = null;
+		length = this.bytes.limit();
+		this.syntax = syntax;
+	}
+
+	/**
+	 * Lê a entrada no formato {@link Syntax#QUERY_STRING}
+	 */
+	public QSTokenizer(final CharSequence chars) {
+		this(chars, Syntax.QUERY_STRING);
+	}
+
+	public QSTokenizer(final CharSequence chars, final Syntax syntax) {
+		this.chars = chars;
+		bytes = null;
+		length = chars.length();
+		this.syntax = syntax;
+	}
+
+	private void addSegment(final int start, final int end,
+			final boolean bracket) {
+		if (segmentCount == segmentStarts.length) {
+			final int size = segmentCount * 2;
+			final int[] newStarts = new int[size];
+			final int[] newEnds = new int[size];
+			final boolean[] newBrackets = new boolean[size];
+			System.arraycopy(segmentStarts, 0, newStarts, 0, segmentCount);
+			System.arraycopy(segmentEnds, 0, newEnds, 0, segmentCount);
+			System.arraycopy(segmentBrackets, 0, newBrackets, 0, segmentCount);
+			segmentStarts = newStarts;
+			segmentEnds = newEnds;
+			segmentBrackets = newBrackets;
+		}
+		segmentStarts[segmentCount] = start;
+		segmentEnds[segmentCount] = end;
+		segmentBrackets[segmentCount] = bracket;
+		segmentCount++;
+	}
+
+	/**
+	 * Caractere (ou byte) na posição, ou -1 fora da entrada
+	 */
+	private int at(final int index) {
+		if (index >= length) {
+			return -1;
+		}
+		return chars != null ? chars.charAt(index) : bytes.get(index) & 0xFF;
+	}
+
+	private void checkSegment(final int index) {
+		if ((index < 0) || (index >= segmentCount)) {
+			throw new IndexOutOfBoundsException("Segment " + index
+					+ " of " + segmentCount);
+		}
+	}
+
+	/**
+	 * Decodifica o trecho da entrada
+	 * 
+	 * @param path
+	 *            Se é um trecho do caminho, onde <code>\</code> escapa o
+	 *            caractere seguinte
+	 */
+	private String decode(final int start, final int end, final boolean path) {
+		if (chars != null) {
+			int i = start;
+			while ((i < end) && !isEscape(i, path)) {
+				i++;
+			}
+			if (i == end) {
+				return chars.subSequence(start, end).toString();
+			}
+		}
+
+		if ((scratch == null) || (scratch.length < (end - start))) {
+			scratch = new byte[Math.max(64, end - start)];
+		}
+
+		final StringBuilder out = chars != null ? new StringBuilder(end
+				- start) : null;
+		int count = 0;
+		int i = start;
+		while (i < end) {
+			int c = at(i);
+			if (path && (c == '\\') && ((i + 1) < end)) {
+				c = at(++i);
+				i++;
+			} else if (!path && !syntax.percentEncoded && (c == '\\')
+					&& (at(i + 1) == '\n') && (at(i + 2) == '\t')) {
+				c = '\n';
+				i += 3;
+			} else if (syntax.percentEncoded && (c == '+')) {
+				c = ' ';
+				i++;
+			} else if (syntax.percentEncoded && (c == '%')) {
+				if ((i + 2) >= end) {
+					throw new IllegalArgumentException(
+							"Incomplete trailing escape (%) pattern");
+				}
+				scratch[count++] = (byte) ((hex(at(i + 1)) << 4) | hex(at(i + 2)));
+				i += 3;
+				continue;
+			} else {
+				i++;
+			}
+
+			if (out == null) {
+				scratch[count++] = (byte) c;
+			} else {
+				if (count > 0) {
+					out.append(new String(scratch, 0, count, UTF_8));
+					count = 0;
+				}
+				out.append((char) c);
+			}
+		}
+
+		if (out == null) {
+			return new String(scratch, 0, count, UTF_8);
+		}
+		if (count > 0) {
+			out.append(new String(scratch, 0, count, UTF_8));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Índice numérico do trecho, ou -1 se o trecho não é um número
+	 */
+	public int index(final int segment) {
+		checkSegment(segment);
+		final int start = segmentStarts[segment];
+		final int end = segmentEnds[segment];
+		if ((start == end) || ((end - start) > 9)) {
+			return -1;
+		}
+
+		int index = 0;
+		for (int i = start; i < end; i++) {
+			final int c = at(i);
+			if ((c < '0') || (c > '9')) {
+				return -1;
+			}
+			index = (index * 10) + (c - '0');
+		}
+		return index;
+	}
+
+	/**
+	 * Se o trecho do caminho foi escrito entre <code>[]</code>
+	 */
+	public boolean isBracket(final int segment) {
+		checkSegment(segment);
+		return segmentBrackets[segment];
+	}
+
+	private boolean isEscape(final int index, final boolean path) {
+		final int c = at(index);
+		return (path && (c == '\\'))
+				|| (syntax.percentEncoded ? (c == '%') || (c == '+')
+						: !path && (c == '\\'));
+	}
+
+	public int keyEnd() {
+		return keyEnd;
+	}
+
+	public int keyStart() {
+		return keyStart;
+	}
+
+	/**
+	 * Avança para a próxima variável
+	 * 
+	 * @return <code>false</code> no fim da entrada
+	 */
+	public boolean next() {
+		final char varSeparator = syntax.varSeparator;
+		while (at(position) == varSeparator) {
+			position++;
+		}
+		if (position >= length) {
+			return false;
+		}
+
+		segmentCount = 0;
+		keyStart = position;
+		int start = position;
+		int c;
+		while (((c = at(position)) != -1) && (c != KV_SEPARATOR)
+				&& (c != varSeparator)) {
+			if (c == '\\') {
+				position += 2;
+				continue;
+			}
+
+			if ((c == '.') || (c == '[')) {
+				if (position > start) {
+					addSegment(start, position, false);
+				}
+				start = position + 1;
+			} else if (c == ']') {
+				addSegment(start, position, true);
+				start = position + 1;
+			}
+			position++;
+		}
+		if (position > length) {
+			position = length;
+		}
+		keyEnd = position;
+		if (keyEnd > start) {
+			addSegment(start, keyEnd, false);
+		}
+
+		if (c == KV_SEPARATOR) {
+			position++;
+		}
+		valueStart = position;
+		if (c != varSeparator) {
+			while (((c = at(position)) != -1) && (c != varSeparator)) {
+				if (!syntax.percentEncoded && (c == '\\')
+						&& (at(position + 1) == '\n')
+						&& (at(position + 2) == '\t')) {
+					position += 3;
+				} else {
+					position++;
+				}
+			}
+		}
+		valueEnd = position;
+		return true;
+	}
+
+	/**
+	 * Volta ao início da entrada
+	 */
+	public void reset() {
+		position = 0;
+		segmentCount = 0;
+		keyStart = keyEnd = valueStart = valueEnd = 0;
+	}
+
+	/**
+	 * Trecho do caminho decodificado
+	 */
+	public String segment(final int segment) {
+		checkSegment(segment);
+		return decode(segmentStarts[segment], segmentEnds[segment], true);
+	}
+
+	public int segmentCount() {
+		return segmentCount;
+	}
+
+	public int segmentEnd(final int segment) {
+		checkSegment(segment);
+		return segmentEnds[segment];
+	}
+
+	/**
+	 * Compara o trecho do caminho sem decodificá-lo, quando possível
+	 */
+	public boolean segmentEquals(final int segment, final CharSequence value) {
+		checkSegment(segment);
+		final int start = segmentStarts[segment];
+		final int end = segmentEnds[segment];
+		for (int i = start; i < end; i++) {
+			if (isEscape(i, true) || (at(i) >= 0x80)) {
+				return segment(segment).contentEquals(value);
+			}
+		}
+
+		if ((end - start) != value.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (at(i) != value.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int segmentStart(final int segment) {
+		checkSegment(segment);
+		return segmentStarts[segment];
+	}
+
+	/**
+	 * Valor decodificado
+	 */
+	public String value() {
+		return decode(valueStart, valueEnd, false);
+	}
+
+	public int valueEnd() {
+		return valueEnd;
+	}
+
+	public int valueStart() {
+		return valueStart;
+	}
+}
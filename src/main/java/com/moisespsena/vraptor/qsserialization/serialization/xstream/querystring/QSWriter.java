@@ -29,17 +29,16 @@ package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystrin
  */
 
 import java.io.Writer;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits.Limit;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
 import com.thoughtworks.xstream.converters.ConversionException;
-import com.thoughtworks.xstream.core.util.FastStack;
 import com.thoughtworks.xstream.core.util.QuickWriter;
 import com.thoughtworks.xstream.io.ExtendedHierarchicalStreamWriter;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
@@ -62,15 +61,26 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 	 * 
 	 */
 	public class Node {
-		public final Class<?> clazz;
+		public Class<?> clazz;
 		public boolean fieldAlready;
 		public boolean isCollection;
-		public final String name;
+
+		/**
+		 * Tipo da classe, ver {@link QSClassKind}
+		 */
+		public int kind;
+		public String name;
 
 		public Node(final String name, final Class<?> clazz) {
+			set(name, clazz, QSClassKind.of(clazz));
+		}
+
+		private void set(final String name, final Class<?> clazz,
+				final int kind) {
 			this.name = name;
 			this.clazz = clazz;
-			isCollection = isCollection(clazz);
+			this.kind = kind;
+			isCollection = QSClassKind.isCollection(kind);
 		}
 	}
 
@@ -82,7 +92,7 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 	 * 
 	 */
 	public class Path {
-		private final boolean index;
+		private boolean index;
 		private String path;
 
 		public Path(final String path) {
@@ -103,6 +113,11 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 			return index;
 		}
 
+		private void set(final String path, final boolean index) {
+			this.path = path;
+			this.index = index;
+		}
+
 		public void setPath(final String path) {
 			this.path = path;
 		}
@@ -113,9 +128,76 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 		}
 	}
 
+	/**
+	 * Gravação de um {@link QSFragment} em andamento
+	 */
+	private static final class FragmentRecording {
+		private final int depth;
+		private int[] ends = new int[16];
+		private int entries;
+
+		/**
+		 * Tamanho do prefixo do nó em {@link QSWriter#pathPrefix}
+		 */
+		private final int from;
+
+		/**
+		 * {@link QSWriter#maxDepth} antes da gravação
+		 */
+		private final int maxDepth;
+
+		/**
+		 * {@link QSWriter#nodeCount} antes da gravação
+		 */
+		private final int nodeCount;
+		private final QSQuickWriter text = new QSQuickWriter();
+
+		private FragmentRecording(final int depth, final int from,
+				final int maxDepth, final int nodeCount) {
+			this.depth = depth;
+			this.from = from;
+			this.maxDepth = maxDepth;
+			this.nodeCount = nodeCount;
+		}
+
+		private void end() {
+			if (entries == ends.length) {
+				ends = Arrays.copyOf(ends, entries * 2);
+			}
+			ends[entries++] = text.length();
+		}
+	}
+
+	/**
+	 * Listener registrado e a faixa de profundidades em que atua
+	 */
+	private static final class PathListenerEntry {
+		private final boolean filtered;
+		private final PathListener listener;
+		private final int maxDepth;
+		private final boolean memoize;
+		private final int minDepth;
+
+		private PathListenerEntry(final PathListener listener,
+				final int minDepth, final int maxDepth, final boolean filtered,
+				final boolean memoize) {
+			this.listener = listener;
+			this.minDepth = minDepth;
+			this.maxDepth = maxDepth;
+			this.filtered = filtered;
+			this.memoize = memoize;
+		}
+
+		private boolean accepts(final int depth) {
+			return (depth >= minDepth) && (depth <= maxDepth)
+					&& (!filtered || listener.accepts(depth));
+		}
+	}
+
 	public interface PathListener {
 		/**
-		 * Retorna Se este Listener vai ser executado
+		 * Retorna Se este Listener vai ser executado. O resultado é
+		 * reaproveitado para todos os nós da mesma profundidade.
 		 * 
 		 * @param depth
 		 *            Profundidade da variavel.
@@ -141,6 +223,44 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 				Class<?> clazz);
 	}
 
+	/**
+	 * Nome já resolvido por um {@link PathListener} para um par (nome, classe)
+	 */
+	private static final class Rename {
+		private final Class<?> clazz;
+		private final String name;
+		private final Rename next;
+
+		private Rename(final Class<?> clazz, final String name,
+				final Rename next) {
+			this.clazz = clazz;
+			this.name = name;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Saída adicional em outro formato, ver
+	 * {@link QSWriter#addTee(Writer, QSFormatWriter)}
+	 */
+	private static final class Tee {
+		private final QSFormatWriter formatWriter;
+		private final boolean incremental;
+
+		/**
+		 * Fim de cada trecho de {@link QSWriter#paths} em {@link #pathPrefix}
+		 */
+		private int[] pathEnds = new int[16];
+		private final QSQuickWriter pathPrefix = new QSQuickWriter();
+		private final QSQuickWriter writer;
+
+		private Tee(final Writer writer, final QSFormatWriter formatWriter) {
+			this.writer = new QSQuickWriter(writer);
+			this.formatWriter = formatWriter;
+			incremental = formatWriter instanceof QSIncrementalFormatWriter;
+		}
+	}
+
 	/**
 	 * DROP_ROOT_MODE drops the Query String root path.
 	 * <p>
@@ -191,20 +311,160 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 	 * @since 1.0
 	 */
 	public static final int STRICT_MODE = 2;
-	private final Map<Integer, Integer> collIndexMap = new HashMap<Integer, Integer>();
-	private final Map<Integer, Boolean> collIsList = new HashMap<Integer, Boolean>();
-	private final Map<Integer, Boolean> collIsMap = new HashMap<Integer, Boolean>();
+
+	private static final String[] INDEX_PATHS = new String[1024];
+
+	/**
+	 * Marca as profundidades sem {@link PathListener}
+	 */
+	private static final PathListenerEntry NO_LISTENER = new PathListenerEntry(
+			null, 0, -1, false, false);
+
+	/**
+	 * Texto do indice, reaproveitando as strings dos indices menores que
+	 * {@link #INDEX_PATHS}
+	 */
+	private static String indexPath(final int index) {
+		if (index < INDEX_PATHS.length) {
+			String path = INDEX_PATHS[index];
+			if (path == null) {
+				path = Integer.toString(index);
+				INDEX_PATHS[index] = path;
+			}
+			return path;
+		}
+		return Integer.toString(index);
+	}
+
+	/**
+	 * Ultimo indice gravado em cada profundidade, ou -1
+	 */
+	private int[] collIndex = newCollIndex(16);
+
+	/**
+	 * Se os filhos de cada profundidade sao gravados como indices
+	 */
+	private boolean[] collIsMap = new boolean[16];
+
+	/**
+	 * Elementos já iniciados em cada profundidade, ou -1 quando o pai não é
+	 * um array, coleção ou mapa. Mantido apenas com
+	 * {@link QSLimits#getMaxElements()}.
+	 */
+	private int[] collSize = grow(null, 16);
 	private int depth;
 
-	private final FastStack elementStack = new FastStack(16);
+	/**
+	 * Fragmento em gravação, ou <code>null</code>
+	 */
+	private FragmentRecording fragment;
+
+	/**
+	 * Se {@link #qsFormatWriter} formata o caminho um trecho por vez
+	 */
+	private final boolean incremental;
+
+	/**
+	 * Quantidade de valores gravados
+	 */
+	private int leafCount;
+
+	/**
+	 * Limites de saída, ou <code>null</code>
+	 */
+	private QSLimits limits;
+
+	/**
+	 * Maior profundidade alcançada
+	 */
+	private int maxDepth;
+
 	private final int mode;
-	private final Set<PathListener> pathListeners = new HashSet<QSWriter.PathListener>();
 
-	private final List<Path> paths = new ArrayList<Path>();
+	/**
+	 * Ultimo no iniciado
+	 */
+	private Node node;
+
+	/**
+	 * Quantidade de nós iniciados, incluindo atributos
+	 */
+	private int nodeCount;
+
+	/**
+	 * Visão de {@link #paths} para os formatos que não implementam
+	 * {@link QSIncrementalFormatWriter}
+	 */
+	private final List<Path> pathList = new AbstractList<Path>() {
+		@Override
+		public Path get(final int index) {
+			return paths[index];
+		}
+
+		@Override
+		public int size() {
+			return pathCount;
+		}
+	};
+
+	/**
+	 * Listener de cada profundidade, resolvido no primeiro uso
+	 */
+	private PathListenerEntry[] pathListenerByDepth = new PathListenerEntry[0];
+
+	private final List<PathListenerEntry> pathListeners = new ArrayList<PathListenerEntry>();
+
+	/**
+	 * Fim de cada trecho de {@link #paths} em {@link #pathPrefix}
+	 */
+	private int[] pathEnds = new int[16];
+
+	/**
+	 * Caminho corrente já formatado, atualizado a cada trecho adicionado ou
+	 * removido de {@link #paths}. Para os formatos que não implementam
+	 * {@link QSIncrementalFormatWriter} inclui o separador entre o caminho e o
+	 * valor.
+	 */
+	private final QSQuickWriter pathPrefix = new QSQuickWriter();
+
+	private int pathCount;
+
+	/**
+	 * Filtro de caminhos, ou <code>null</code>
+	 */
+	private QSPathFilter pathFilter;
+
+	/**
+	 * Estado do filtro após cada trecho de {@link #paths}
+	 */
+	private QSPathFilter.State[] pathFilterStates;
+
+	private Path[] paths = new Path[16];
 
 	private final QSFormatWriter qsFormatWriter;
 
-	private final QuickWriter writer;
+	/**
+	 * Nomes já resolvidos em cada profundidade pelos listeners memoizados
+	 */
+	private Map<String, Rename>[] renames;
+
+	/**
+	 * Profundidade do nó rejeitado pelo {@link #pathFilter} cujos filhos estão
+	 * sendo descartados, ou -1
+	 */
+	private int skipFrom = -1;
+
+	/**
+	 * Hashes da exportação anterior, ou <code>null</code>
+	 */
+	private QSSnapshot snapshot;
+
+	/**
+	 * Saídas adicionais, que recebem as mesmas entradas
+	 */
+	private Tee[] tees = new Tee[0];
+
+	private final QSQuickWriter writer;
 
 	public QSWriter(final Writer writer) {
 		this(writer, DROP_ROOT_MODE);
@@ -238,7 +498,8 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 			final QSFormatWriter qsFormatWriter) {
 		this.mode = mode;
 		this.qsFormatWriter = qsFormatWriter;
-		this.writer = new QuickWriter(writer);
+		this.writer = new QSQuickWriter(writer);
+		incremental = qsFormatWriter instanceof QSIncrementalFormatWriter;
 	}
 
 	/**
@@ -251,7 +512,7 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 
 	@Override
 	public void addAttribute(final String key, final String value) {
-		final Node currNode = (Node) elementStack.peek();
+		final Node currNode = node;
 		if ((currNode == null) || !currNode.isCollection) {
 			startNode('@' + key, String.class);
 			writeText(value, String.class);
@@ -259,79 +520,564 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 		}
 	}
 
-	private void addIndexPath() {
-		int v = -1;
-		if (collIndexMap.containsKey(depth)) {
-			v = collIndexMap.get(depth);
+	/**
+	 * Se o filho do nó corrente com o nome informado é aceito pelo
+	 * {@link QSPathFilter}, permitindo descartar um campo antes de lê-lo
+	 * 
+	 * @param name
+	 * @since 1.1
+	 */
+	public boolean acceptsChild(final String name) {
+		if ((pathFilter == null) || (depth == 0)) {
+			// sem nó corrente, ex: antes da serialização
+			return true;
 		}
-		v++;
-		collIndexMap.put(depth, v);
+		if (skipFrom >= 0) {
+			return false;
+		}
+		final QSPathFilter.State parent = pathCount == 0 ? pathFilter.root()
+				: pathFilterStates[pathCount - 1];
+		return parent.next(name, false).isAccepted();
+	}
+
+	private void addIndexPath() {
+		addIndexPath(null);
+	}
+
+	/**
+	 * @param filterName
+	 *            Nome usado pelo {@link QSPathFilter} no lugar do índice, ou
+	 *            <code>null</code>
+	 */
+	private void addIndexPath(final String filterName) {
+		final int v = ++collIndex[depth];
 
-		if (paths.size() <= depth) {
-			paths.add(new Path("" + v, true));
+		if (pathCount <= depth) {
+			pushPath(indexPath(v), true, filterName);
 		}
 	}
 
 	private void addPath(final String name) {
-		if (paths.size() <= depth) {
-			paths.add(new Path(name));
+		if (pathCount <= depth) {
+			pushPath(name, false, null);
 		}
 	}
 
+	/**
+	 * Adiciona uma saída que recebe as mesmas entradas no formato informado,
+	 * a partir do mesmo percurso do grafo: os nós, os listeners, o filtro e os
+	 * limites são resolvidos uma única vez e apenas o caminho e o valor são
+	 * formatados por saída. Deve ser executado antes do primeiro nó.
+	 * 
+	 * @param writer
+	 *            Destino da saída, descarregado em {@link #flush()} e fechado
+	 *            em {@link #close()}
+	 * @param formatWriter
+	 *            Formato da saída
+	 * @throws IllegalArgumentException
+	 *             Se há um snapshot e o formato não implementa
+	 *             {@link QSRemovalFormatWriter}
+	 * @since 1.1
+	 */
+	public void addTee(final Writer writer, final QSFormatWriter formatWriter) {
+		if (snapshot != null) {
+			checkRemoval(formatWriter);
+		}
+		tees = Arrays.copyOf(tees, tees.length + 1);
+		tees[tees.length - 1] = new Tee(writer, formatWriter);
+	}
+
+	/**
+	 * Adiciona um listener consultado por {@link PathListener#accepts(int)},
+	 * uma única vez por profundidade. Os listeners são consultados na ordem
+	 * em que foram adicionados.
+	 * 
+	 * @param listener
+	 */
 	public QSWriter addPathListener(final PathListener listener) {
-		pathListeners.add(listener);
+		for (final PathListenerEntry entry : pathListeners) {
+			if (entry.filtered && (entry.listener == listener)) {
+				return this;
+			}
+		}
+		return addPathListener(new PathListenerEntry(listener, 0,
+				Integer.MAX_VALUE, true, false));
+	}
+
+	/**
+	 * Adiciona um listener para as profundidades informadas, sem consultar
+	 * {@link PathListener#accepts(int)}
+	 * 
+	 * @param listener
+	 * @param minDepth
+	 *            Menor profundidade, inclusive
+	 * @param maxDepth
+	 *            Maior profundidade, inclusive
+	 */
+	public QSWriter addPathListener(final PathListener listener,
+			final int minDepth, final int maxDepth) {
+		return addPathListener(listener, minDepth, maxDepth, false);
+	}
+
+	/**
+	 * Adiciona um listener para as profundidades informadas, sem consultar
+	 * {@link PathListener#accepts(int)}
+	 * 
+	 * @param listener
+	 * @param minDepth
+	 *            Menor profundidade, inclusive
+	 * @param maxDepth
+	 *            Maior profundidade, inclusive
+	 * @param memoize
+	 *            Se o resultado de
+	 *            {@link PathListener#pathFromDepth(String, int, Class)} depende
+	 *            apenas dos argumentos e pode ser reaproveitado para o mesmo
+	 *            nome, profundidade e classe
+	 */
+	public QSWriter addPathListener(final PathListener listener,
+			final int minDepth, final int maxDepth, final boolean memoize) {
+		return addPathListener(new PathListenerEntry(listener, minDepth,
+				maxDepth, false, memoize));
+	}
+
+	private QSWriter addPathListener(final PathListenerEntry entry) {
+		pathListeners.add(entry);
+		Arrays.fill(pathListenerByDepth, null);
+		renames = null;
 		return this;
 	}
 
+	/**
+	 * Descarta o fragmento em gravação, mantendo o que já foi gravado na saída
+	 * 
+	 * @since 1.1
+	 */
+	public void cancelFragment() {
+		if (fragment != null) {
+			maxDepth = Math.max(maxDepth, fragment.maxDepth);
+			fragment = null;
+		}
+	}
+
+	/**
+	 * Se os nós abaixo do nó corrente podem ser gravados como
+	 * {@link QSFragment} e repetidos com {@link #writeFragment(QSFragment)}.
+	 * Limites, snapshot e listeners de caminho dependem da posição de cada
+	 * entrada na saída, portanto impedem o uso de fragmentos.
+	 * 
+	 * @since 1.1
+	 */
+	public boolean canUseFragment() {
+		return incremental && (pathCount > 0) && (fragment == null)
+				&& (limits == null)
+				&& (snapshot == null) && (pathFilter == null)
+				&& (tees.length == 0) && pathListeners.isEmpty();
+	}
+
+	/**
+	 * Verifica se o formato grava as entradas removidas do snapshot
+	 */
+	private static void checkRemoval(final QSFormatWriter formatWriter) {
+		if (!(formatWriter instanceof QSRemovalFormatWriter)) {
+			throw new IllegalArgumentException(
+					"The format can't write removed entries: "
+							+ formatWriter.getClass().getName());
+		}
+	}
+
+	/**
+	 * Verifica os limites de profundidade e de elementos antes de iniciar o nó
+	 */
+	private void checkStart(final int kind) {
+		final int maxDepth = limits.getMaxDepth();
+		if ((maxDepth > 0) && (depth >= maxDepth)) {
+			throw limitExceeded(Limit.DEPTH, maxDepth);
+		}
+
+		final int maxElements = limits.getMaxElements();
+		if (maxElements > 0) {
+			if ((collSize[depth] >= 0) && (++collSize[depth] > maxElements)) {
+				throw limitExceeded(Limit.ELEMENTS, maxElements);
+			}
+			collSize[depth + 1] = QSClassKind.isCollection(kind)
+					&& (kind != QSClassKind.MAP_ENTRY) ? 0 : -1;
+		}
+	}
+
 	@Override
 	public void close() {
 		writer.close();
+		for (final Tee tee : tees) {
+			tee.writer.close();
+		}
+	}
+
+	/**
+	 * Grava as entradas removidas desde a exportação anterior, também nas
+	 * saídas adicionais, e conclui o {@link QSSnapshot}. As saídas adicionais
+	 * recebem o caminho como gravado no formato principal. Deve ser executado
+	 * apenas ao final de uma serialização completa.
+	 * 
+	 * @since 1.1
+	 */
+	public void commitSnapshot() {
+		if (snapshot == null) {
+			return;
+		}
+		for (final String key : snapshot.removed()) {
+			((QSRemovalFormatWriter) qsFormatWriter).writeRemoved(key, writer);
+			for (final Tee tee : tees) {
+				((QSRemovalFormatWriter) tee.formatWriter).writeRemoved(key,
+						tee.writer);
+			}
+		}
+		snapshot.commit();
+	}
+
+	/**
+	 * Conclui a gravação iniciada por {@link #startFragment()}. Deve ser
+	 * executado antes de {@link #endNode()} do nó.
+	 * 
+	 * @since 1.1
+	 */
+	public QSFragment endFragment() {
+		final FragmentRecording recording = fragment;
+		fragment = null;
+		final QSFragment result = new QSFragment(recording.text.toCharArray(),
+				Arrays.copyOf(recording.ends, recording.entries), nodeCount
+						- recording.nodeCount, maxDepth - recording.depth);
+		maxDepth = Math.max(maxDepth, recording.maxDepth);
+		return result;
 	}
 
 	@Override
 	public void endNode() {
-		collIndexMap.remove(depth);
-		collIsMap.remove(depth);
-		collIsList.remove(depth);
+		if (depth == skipFrom) {
+			skipFrom = -1;
+		}
+		collIndex[depth] = -1;
 		depth--;
-		if (paths.size() > depth) {
-			paths.remove(depth);
+		collIsMap[depth] = false;
+		if (pathCount > depth) {
+			pathCount = depth;
+			truncatePath(qsFormatWriter, incremental, pathPrefix, pathEnds);
+			for (final Tee tee : tees) {
+				truncatePath(tee.formatWriter, tee.incremental, tee.pathPrefix,
+						tee.pathEnds);
+			}
 		}
-
 	}
 
 	@Override
 	public void flush() {
 		writer.flush();
+		for (final Tee tee : tees) {
+			tee.writer.flush();
+		}
+	}
+
+	/**
+	 * Formato das entradas
+	 * 
+	 * @since 1.1
+	 */
+	public QSFormatWriter getFormatWriter() {
+		return qsFormatWriter;
+	}
+
+	/**
+	 * Quantidade de caracteres gravados no {@link Writer}, incluindo os que
+	 * ainda estão no buffer
+	 * 
+	 * @since 1.1
+	 */
+	public long getCharsWritten() {
+		return writer.getCharsWritten();
+	}
+
+	/**
+	 * Quantidade de valores gravados
+	 * 
+	 * @since 1.1
+	 */
+	public int getLeafCount() {
+		return leafCount;
+	}
+
+	/**
+	 * Limites de saída, ou <code>null</code>
+	 * 
+	 * @since 1.1
+	 */
+	public QSLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Maior profundidade alcançada, sendo 1 a do nó raiz
+	 * 
+	 * @since 1.1
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Caminho do nó corrente já formatado, ex: <code>product.users[0]</code>
+	 * (com o separador do valor para os formatos que não implementam
+	 * {@link QSIncrementalFormatWriter})
+	 * 
+	 * @since 1.1
+	 */
+	public String getPath() {
+		return pathPrefix.toString();
+	}
+
+	/**
+	 * Filtro de caminhos, ou <code>null</code> quando todos são gravados
+	 * 
+	 * @since 1.1
+	 */
+	public QSPathFilter getPathFilter() {
+		return pathFilter;
+	}
+
+	/**
+	 * Quantidade de nós iniciados, incluindo atributos
+	 * 
+	 * @since 1.1
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Hashes da exportação anterior, ou <code>null</code>
+	 * 
+	 * @since 1.1
+	 */
+	public QSSnapshot getSnapshot() {
+		return snapshot;
 	}
 
-	private boolean isCollection(final Class<?> clazz) {
-		return (clazz != null)
-				&& (Collection.class.isAssignableFrom(clazz) || clazz.isArray()
-						|| Map.class.isAssignableFrom(clazz) || Map.Entry.class
-							.isAssignableFrom(clazz));
+	private static int[] grow(final int[] values, final int size) {
+		final int[] newValues = new int[size];
+		Arrays.fill(newValues, -1);
+		if (values != null) {
+			System.arraycopy(values, 0, newValues, 0, values.length);
+		}
+		return newValues;
+	}
+
+	private QSLimitExceededException limitExceeded(final Limit limit,
+			final long max) {
+		return new QSLimitExceededException(limit, max, limits.isTruncate());
+	}
+
+	private boolean[] newCollIsMap(final int size) {
+		final boolean[] newCollIsMap = new boolean[size];
+		System.arraycopy(collIsMap, 0, newCollIsMap, 0, collIsMap.length);
+		return newCollIsMap;
+	}
+
+	private int[] newCollIndex(final int size) {
+		return grow(collIndex, size);
 	}
 
 	private String pathFor(final String currentName, final Class<?> clazz) {
-		String newName = null;
-		for (final PathListener pathListener : pathListeners) {
-			if (pathListener.accepts(depth)) {
-				newName = pathListener.pathFromDepth(currentName, depth, clazz);
+		if (pathListeners.isEmpty()) {
+			return currentName;
+		}
+
+		final PathListenerEntry entry = pathListenerFor(depth);
+		if (entry == NO_LISTENER) {
+			return currentName;
+		}
 
-				break;
+		if (!entry.memoize) {
+			final String newName = entry.listener.pathFromDepth(currentName,
+					depth, clazz);
+			return newName == null ? currentName : newName;
+		}
+
+		Map<String, Rename> depthRenames = renames[depth];
+		if (depthRenames == null) {
+			depthRenames = new HashMap<String, Rename>();
+			renames[depth] = depthRenames;
+		}
+
+		final Rename first = depthRenames.get(currentName);
+		for (Rename rename = first; rename != null; rename = rename.next) {
+			if (rename.clazz == clazz) {
+				return rename.name;
 			}
 		}
 
+		String newName = entry.listener.pathFromDepth(currentName, depth,
+				clazz);
 		if (newName == null) {
-			return currentName;
+			newName = currentName;
+		}
+		depthRenames.put(currentName, new Rename(clazz, newName, first));
+		return newName;
+	}
+
+	/**
+	 * Resolve o listener da profundidade, uma única vez
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private PathListenerEntry pathListenerFor(final int depth) {
+		if (depth >= pathListenerByDepth.length) {
+			pathListenerByDepth = Arrays.copyOf(pathListenerByDepth,
+					Math.max(16, depth * 2));
+		}
+		if ((renames == null) || (depth >= renames.length)) {
+			final Map<String, Rename>[] newRenames = new Map[pathListenerByDepth.length];
+			if (renames != null) {
+				System.arraycopy(renames, 0, newRenames, 0, renames.length);
+			}
+			renames = newRenames;
+		}
+
+		PathListenerEntry entry = pathListenerByDepth[depth];
+		if (entry == null) {
+			entry = NO_LISTENER;
+			for (final PathListenerEntry candidate : pathListeners) {
+				if (candidate.accepts(depth)) {
+					entry = candidate;
+					break;
+				}
+			}
+			pathListenerByDepth[depth] = entry;
+		}
+		return entry;
+	}
+
+	/**
+	 * Acrescenta o trecho ao prefixo formatado. Os formatos que não implementam
+	 * {@link QSIncrementalFormatWriter} formatam o caminho inteiro novamente.
+	 */
+	private void appendPath(final QSFormatWriter formatWriter,
+			final boolean incremental, final QSQuickWriter prefix,
+			final int[] ends, final Path path, final int position) {
+		if (incremental) {
+			((QSIncrementalFormatWriter) formatWriter).writePathSegment(path,
+					position, prefix);
+		} else {
+			prefix.setLength(0);
+			formatWriter.writePath(pathList, prefix);
+		}
+		ends[position] = prefix.length();
+	}
+
+	private void pushPath(final String name, final boolean index,
+			final String filterName) {
+		final int position = pathCount;
+		if (position == paths.length) {
+			final Path[] newPaths = new Path[position * 2];
+			System.arraycopy(paths, 0, newPaths, 0, position);
+			paths = newPaths;
+
+			final int[] newPathEnds = new int[position * 2];
+			System.arraycopy(pathEnds, 0, newPathEnds, 0, position);
+			pathEnds = newPathEnds;
+
+			if (pathFilterStates != null) {
+				pathFilterStates = Arrays.copyOf(pathFilterStates,
+						position * 2);
+			}
+			for (final Tee tee : tees) {
+				tee.pathEnds = Arrays.copyOf(tee.pathEnds, position * 2);
+			}
+		}
+
+		Path path = paths[position];
+		if (path == null) {
+			path = new Path(name, index);
+			paths[position] = path;
 		} else {
-			return newName;
+			path.set(name, index);
+		}
+		pathCount++;
+
+		appendPath(qsFormatWriter, incremental, pathPrefix, pathEnds, path,
+				position);
+		for (final Tee tee : tees) {
+			appendPath(tee.formatWriter, tee.incremental, tee.pathPrefix,
+					tee.pathEnds, path, position);
+		}
+
+		if (pathFilter != null) {
+			final QSPathFilter.State parent = position == 0 ? pathFilter
+					.root() : pathFilterStates[position - 1];
+			final QSPathFilter.State state = filterName == null ? parent.next(
+					name, index) : parent.next(filterName, false);
+			pathFilterStates[position] = state;
+			if (!state.isAccepted()) {
+				skipFrom = depth + 1;
+			}
+		}
+	}
+
+	/**
+	 * Define os limites de saída. Deve ser executado antes do primeiro nó.
+	 * 
+	 * @param limits
+	 *            Limites, ou <code>null</code> para nenhum
+	 * @since 1.1
+	 */
+	public void setLimits(final QSLimits limits) {
+		this.limits = (limits == null) || !limits.isEnabled() ? null : limits;
+	}
+
+	/**
+	 * Define o filtro de caminhos. Os nós rejeitados e os seus filhos não são
+	 * gravados; com o {@link QSClassMapper} os campos rejeitados também não
+	 * são lidos, ver {@link #acceptsChild(String)}. Deve ser executado antes
+	 * do primeiro nó.
+	 * 
+	 * @param pathFilter
+	 *            Filtro, ou <code>null</code> para nenhum
+	 * @since 1.1
+	 */
+	public void setPathFilter(final QSPathFilter pathFilter) {
+		if ((pathFilter == null) || !pathFilter.isEnabled()) {
+			this.pathFilter = null;
+			pathFilterStates = null;
+		} else {
+			this.pathFilter = pathFilter;
+			pathFilterStates = new QSPathFilter.State[paths.length];
+		}
+	}
+
+	/**
+	 * Grava apenas as entradas novas ou alteradas desde a exportação anterior
+	 * registrada no snapshot. Deve ser executado antes do primeiro nó.
+	 * 
+	 * @param snapshot
+	 *            Snapshot, ou <code>null</code> para gravar todas as entradas
+	 * @throws IllegalArgumentException
+	 *             Se o formato ou o de uma saída adicional não implementa
+	 *             {@link QSRemovalFormatWriter}
+	 * @see #commitSnapshot()
+	 * @since 1.1
+	 */
+	public void setSnapshot(final QSSnapshot snapshot) {
+		if (snapshot != null) {
+			checkRemoval(qsFormatWriter);
+			for (final Tee tee : tees) {
+				checkRemoval(tee.formatWriter);
+			}
+		}
+		this.snapshot = snapshot;
+		if (snapshot != null) {
+			snapshot.begin();
 		}
 	}
 
 	@Override
 	public void setValue(final String text) {
-		final Node currNode = (Node) elementStack.peek();
+		final Node currNode = node;
 		if ((currNode != null) && currNode.fieldAlready) {
 			startNode("$", String.class);
 			writeText(text, String.class);
@@ -347,6 +1093,18 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 		}
 	}
 
+	/**
+	 * Passa a gravar também como {@link QSFragment} as entradas abaixo do nó
+	 * corrente, ver {@link #canUseFragment()}
+	 * 
+	 * @since 1.1
+	 */
+	public void startFragment() {
+		fragment = new FragmentRecording(depth, pathPrefix.length(), maxDepth,
+				nodeCount);
+		maxDepth = depth;
+	}
+
 	/**
 	 * @deprecated since 1.2, use startNode(String name, Class clazz) instead.
 	 */
@@ -359,21 +1117,43 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void startNode(final String name, final Class clazz) {
-		final Node currNode = (Node) elementStack.peek();
+		final Node currNode = node;
+		final int kind = QSClassKind.of(clazz);
+
+		if ((depth + 1) >= collIndex.length) {
+			collSize = grow(collSize, collIndex.length * 2);
+			collIndex = newCollIndex(collIndex.length * 2);
+			collIsMap = newCollIsMap(collIsMap.length * 2);
+		}
+
+		if (skipFrom >= 0) {
+			depth++;
+			return;
+		}
+
+		if (limits != null) {
+			checkStart(kind);
+		}
 
 		if (currNode != null) {
-			if (isCollection(clazz)) {
-				if (Map.class.isAssignableFrom(clazz)) {
+			if (QSClassKind.isCollection(kind)) {
+				switch (kind) {
+				case QSClassKind.MAP:
+					// um campo Map é gravado como índice, mas filtrado pelo
+					// nome, como em acceptsChild(String)
+					addIndexPath((depth > 0) && collIsMap[depth - 1] ? null
+							: name);
+					break;
+				case QSClassKind.MAP_ENTRY:
 					addIndexPath();
-				} else if (Map.Entry.class.isAssignableFrom(clazz)) {
-					addIndexPath();
-					collIsMap.put(depth, true);
-				} else if (List.class.isAssignableFrom(clazz)) {
-					collIsMap.put(depth, true);
+					collIsMap[depth] = true;
+					break;
+				case QSClassKind.LIST:
+					collIsMap[depth] = true;
 					addPath(pathFor(name, clazz));
+					break;
 				}
-			} else if ((collIsMap.containsKey(depth - 1) && collIsMap
-					.get(depth - 1))) {
+			} else if ((depth > 0) && collIsMap[depth - 1]) {
 				addIndexPath();
 			} else {
 				addPath(pathFor(name, clazz));
@@ -381,8 +1161,31 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 		} else if ((currNode == null) && ((mode & DROP_ROOT_MODE) == 1)) {
 			addPath(pathFor(name, clazz));
 		}
-		elementStack.push(new Node(name, clazz));
-		depth++;
+		if (currNode == null) {
+			node = new Node(name, clazz);
+		} else {
+			currNode.set(name, clazz, kind);
+		}
+		nodeCount++;
+		if (++depth > maxDepth) {
+			maxDepth = depth;
+		}
+	}
+
+	/**
+	 * Remove do prefixo formatado os trechos acima de {@link #pathCount}
+	 */
+	private void truncatePath(final QSFormatWriter formatWriter,
+			final boolean incremental, final QSQuickWriter prefix,
+			final int[] ends) {
+		if (pathCount == 0) {
+			prefix.setLength(0);
+		} else if (incremental) {
+			prefix.setLength(ends[pathCount - 1]);
+		} else {
+			prefix.setLength(0);
+			formatWriter.writePath(pathList, prefix);
+		}
 	}
 
 	@Override
@@ -390,23 +1193,121 @@ public class QSWriter implements ExtendedHierarchicalStreamWriter {
 		return this;
 	}
 
+	/**
+	 * Grava as entradas do fragmento abaixo do nó corrente, no lugar dos seus
+	 * nós, ver {@link #canUseFragment()}
+	 * 
+	 * @param fragment
+	 * @since 1.1
+	 */
+	public void writeFragment(final QSFragment fragment) {
+		final char[] text = fragment.getText();
+		int start = 0;
+		for (int i = 0, s = fragment.getLeafCount(); i < s; i++) {
+			final int end = fragment.getEnd(i);
+			pathPrefix.writeTo(writer);
+			writer.write(text, start, end - start);
+			start = end;
+		}
+		leafCount += fragment.getLeafCount();
+		nodeCount += fragment.getNodeCount();
+		maxDepth = Math.max(maxDepth, depth + fragment.getMaxDepth());
+	}
+
 	protected void writeAttributeValue(final QuickWriter writer,
 			final String text) {
 		writeText(text, null);
 	}
 
 	private void writePath() {
-		qsFormatWriter.writePath(paths, writer);
+		if (pathCount > 0) {
+			pathPrefix.writeTo(writer);
+			writePathEnd(qsFormatWriter, incremental, writer);
+		}
 	}
 
-	protected void writeText(final QuickWriter writer, final String text) {
-		final Node foo = (Node) elementStack.peek();
+	/**
+	 * Grava o separador entre o caminho e o valor, já incluído no prefixo dos
+	 * formatos que não implementam {@link QSIncrementalFormatWriter}
+	 */
+	private static void writePathEnd(final QSFormatWriter formatWriter,
+			final boolean incremental, final QuickWriter writer) {
+		if (incremental) {
+			((QSIncrementalFormatWriter) formatWriter).writePathEnd(writer);
+		}
+	}
 
-		writeText(text, foo.clazz);
+	protected void writeText(final QuickWriter writer, final String text) {
+		writeText(text, node.clazz);
 	}
 
 	private void writeText(final String text, final Class<?> clazz) {
+		if ((skipFrom >= 0)
+				|| ((pathFilter != null) && (pathCount > 0) && !pathFilterStates[pathCount - 1]
+						.isWritable())) {
+			return;
+		}
+		if ((snapshot != null)
+				&& !snapshot.changed(pathPrefix.toString(), text)) {
+			return;
+		}
+		if (limits != null) {
+			writeLimitedText(text);
+			return;
+		}
+		leafCount++;
 		writePath();
 		qsFormatWriter.writeValue(text, writer);
+		writeTees(text);
+		if (fragment != null) {
+			pathPrefix.writeTo(fragment.text, fragment.from);
+			writePathEnd(qsFormatWriter, incremental, fragment.text);
+			qsFormatWriter.writeValue(text, fragment.text);
+			fragment.end();
+		}
+	}
+
+	/**
+	 * Grava a entrada apenas se couber nos limites, mantendo-a no buffer até
+	 * que o total de caracteres seja conhecido
+	 */
+	private void writeLimitedText(final String text) {
+		final int maxEntries = limits.getMaxEntries();
+		if ((maxEntries > 0) && (leafCount >= maxEntries)) {
+			throw limitExceeded(Limit.ENTRIES, maxEntries);
+		}
+
+		final long maxChars = limits.getMaxChars();
+		if (maxChars <= 0) {
+			leafCount++;
+			writePath();
+			qsFormatWriter.writeValue(text, writer);
+			writeTees(text);
+			return;
+		}
+
+		writer.mark();
+		writePath();
+		qsFormatWriter.writeValue(text, writer);
+		if (writer.getCharsWritten() > maxChars) {
+			writer.reset();
+			throw limitExceeded(Limit.CHARS, maxChars);
+		}
+		writer.unmark();
+		leafCount++;
+		writeTees(text);
+	}
+
+	/**
+	 * Grava a entrada nas saídas adicionais
+	 */
+	private void writeTees(final String text) {
+		for (final Tee tee : tees) {
+			if (pathCount > 0) {
+				tee.pathPrefix.writeTo(tee.writer);
+				writePathEnd(tee.formatWriter, tee.incremental, tee.writer);
+			}
+			tee.formatWriter.writeValue(text, tee.writer);
+		}
 	}
 }
@@ -24,7 +24,10 @@ import java.util.List;
 
 import org.apache.commons.lang.SerializationException;
 
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSCharReader;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatReader;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSIncrementalFormatWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter.Path;
 import com.thoughtworks.xstream.core.util.QuickWriter;
 
@@ -32,11 +35,19 @@ import com.thoughtworks.xstream.core.util.QuickWriter;
  * Abstração para a incorporação de implementação possivelmente comum nas
  * implementações de {@link com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatWriter}
  * 
+ * <p>
+ * Também lê o formato gravado, como {@link QSFormatReader}. Os caminhos são
+ * lidos da mesma forma em todos os formatos: trechos separados por
+ * <code>.</code> ou entre <code>[]</code>, com <code>\</code> escapando o
+ * caractere seguinte.
+ * </p>
+ * 
  * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
  * @since 1.0 23/08/2011
  * 
  */
-public abstract class AbstractQSFormatWriter implements QSFormatWriter {
+public abstract class AbstractQSFormatWriter implements
+		QSIncrementalFormatWriter, QSFormatReader {
 	/**
 	 * Codificação de carecters DEFAULT para
 	 * {@link URLEncoder#encode(String, String)}
@@ -67,6 +78,22 @@ public abstract class AbstractQSFormatWriter implements QSFormatWriter {
 	 */
 	private final String encoding;
 
+	/**
+	 * Codificador dos valores, ou <code>null</code> sem {@link #encoding}
+	 */
+	private final PercentEncoder encoder;
+
+	/**
+	 * Decodificador dos valores, ou <code>null</code> sem {@link #encoding}
+	 */
+	private final PercentDecoder decoder;
+
+	/**
+	 * Se uma subclasse sobrescreve {@link #formatedValue(String)} abaixo da
+	 * última sobrescrita de {@link #writeFormatedValue(String, QuickWriter)}
+	 */
+	private final boolean formatedValueOverridden;
+
 	private final char[] keyValueSeparator;
 
 	private final char[] varSeparator;
@@ -121,10 +148,53 @@ public abstract class AbstractQSFormatWriter implements QSFormatWriter {
 	public AbstractQSFormatWriter(final String encoding,
 			final char[] varSeparator, final char[] keyValueSeparator) {
 		this.encoding = encoding;
+		encoder = encoding == null ? null : new PercentEncoder(encoding);
+		decoder = encoding == null ? null : new PercentDecoder(encoding);
 		this.varSeparator = varSeparator;
 		this.keyValueSeparator = keyValueSeparator;
+		formatedValueOverridden = overridesFormatedValue(getClass());
 	}
 
+	/**
+	 * Verifica se a classe sobrescreve {@link #formatedValue(String)} sem
+	 * sobrescrever também {@link #writeFormatedValue(String, QuickWriter)}
+	 * na mesma classe ou em uma subclasse
+	 */
+	private static boolean overridesFormatedValue(final Class<?> type) {
+		for (Class<?> c = type; c != AbstractQSFormatWriter.class; c = c
+				.getSuperclass()) {
+			if (declares(c, "writeFormatedValue", String.class,
+					QuickWriter.class)) {
+				return false;
+			}
+			if (declares(c, "formatedValue", String.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean declares(final Class<?> type, final String name,
+			final Class<?>... parameterTypes) {
+		try {
+			type.getDeclaredMethod(name, parameterTypes);
+			return true;
+		} catch (final NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Retorna o valor formatado.
+	 * 
+	 * <p>
+	 * Se uma subclasse sobrescreve este método,
+	 * {@link #writeValue(String, QuickWriter)} grava o valor retornado por
+	 * ele. Caso contrário o valor é gravado com
+	 * {@link #writeFormatedValue(String, QuickWriter)}, que evita a String
+	 * intermediária e é preferível para as novas subclasses.
+	 * </p>
+	 */
 	protected String formatedValue(final String value) throws Exception {
 		if (value.length() > 0) {
 			return URLEncoder.encode(value, encoding);
@@ -133,6 +203,112 @@ public abstract class AbstractQSFormatWriter implements QSFormatWriter {
 		}
 	}
 
+	/**
+	 * Retorna o valor lido, decodificado com {@link PercentDecoder}
+	 * 
+	 * @param value
+	 *            Valor como gravado
+	 */
+	protected String parsedValue(final CharSequence value) {
+		return decoder == null ? value.toString() : decoder.decode(value);
+	}
+
+	/**
+	 * Consome o restante do separador de variáveis, cujo primeiro caractere
+	 * já foi lido
+	 */
+	protected void readVarSeparatorEnd(final QSCharReader in) {
+		for (int i = 1; (i < varSeparator.length)
+				&& (in.peek() == varSeparator[i]); i++) {
+			in.read();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring
+	 * .QSFormatReader#readPath(com.moisespsena.vraptor.qsserialization.
+	 * serialization.xstream.querystring.QSCharReader, java.util.List)
+	 */
+	@Override
+	public boolean readPath(final QSCharReader in, final List<String> segments) {
+		segments.clear();
+
+		int c = in.read();
+		while (c == varSeparator[0]) {
+			readVarSeparatorEnd(in);
+			c = in.read();
+		}
+		if (c == -1) {
+			return false;
+		}
+
+		final StringBuilder text = in.text();
+		for (; (c != -1) && (c != keyValueSeparator[0]); c = in.read()) {
+			if (c == '\\') {
+				c = in.read();
+				if (c == -1) {
+					break;
+				}
+				text.append((char) c);
+			} else if ((c == '.') || (c == '[')) {
+				if (text.length() > 0) {
+					segments.add(text.toString());
+					text.setLength(0);
+				}
+			} else if (c == ']') {
+				segments.add(text.toString());
+				text.setLength(0);
+			} else {
+				text.append((char) c);
+			}
+		}
+
+		if (text.length() > 0) {
+			segments.add(text.toString());
+		}
+		for (int i = 1; (i < keyValueSeparator.length)
+				&& (in.peek() == keyValueSeparator[i]); i++) {
+			in.read();
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring
+	 * .QSFormatReader#readValue(com.moisespsena.vraptor.qsserialization.
+	 * serialization.xstream.querystring.QSCharReader)
+	 */
+	@Override
+	public String readValue(final QSCharReader in) {
+		final StringBuilder text = in.text();
+		for (int c = in.read(); c != -1; c = in.read()) {
+			if (c == varSeparator[0]) {
+				readVarSeparatorEnd(in);
+				break;
+			}
+			text.append((char) c);
+		}
+		return parsedValue(text);
+	}
+
+	/**
+	 * Grava o valor formatado, codificado com {@link PercentEncoder} sem
+	 * criar Strings intermediárias.
+	 * 
+	 * @param value
+	 * @param writer
+	 */
+	protected void writeFormatedValue(final String value,
+			final QuickWriter writer) throws Exception {
+		encoder.encode(value, writer);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -148,13 +324,22 @@ public abstract class AbstractQSFormatWriter implements QSFormatWriter {
 			return;
 		}
 
-		writePathInternal(paths.get(0), writer, s > 1, true);
-		for (int i = 1; i < s; i++) {
-			final Path path = paths.get(i);
-			final boolean hasMore = (i - 1) < s;
-			writePathIntersection(path, writer);
-			writePathInternal(path, writer, hasMore, false);
+		for (int i = 0; i < s; i++) {
+			writePathSegment(paths.get(i), i, writer);
 		}
+		writePathEnd(writer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring
+	 * .QSIncrementalFormatWriter#writePathEnd(com.thoughtworks.xstream.core
+	 * .util.QuickWriter)
+	 */
+	@Override
+	public void writePathEnd(final QuickWriter writer) {
 		writer.write(keyValueSeparator);
 	}
 
@@ -190,6 +375,25 @@ public abstract class AbstractQSFormatWriter implements QSFormatWriter {
 			final QuickWriter writer) {
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring
+	 * .QSIncrementalFormatWriter#writePathSegment(com.moisespsena.vraptor
+	 * .qsserialization.serialization.xstream.querystring.QSWriter.Path, int,
+	 * com.thoughtworks.xstream.core.util.QuickWriter)
+	 */
+	@Override
+	public void writePathSegment(final Path path, final int position,
+			final QuickWriter writer) {
+		final boolean isFirst = position == 0;
+		if (!isFirst) {
+			writePathIntersection(path, writer);
+		}
+		writePathInternal(path, writer, true, isFirst);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -201,8 +405,11 @@ public abstract class AbstractQSFormatWriter implements QSFormatWriter {
 	@Override
 	public void writeValue(final String value, final QuickWriter writer) {
 		try {
-			final String formatedValue = formatedValue(value);
-			writer.write(formatedValue);
+			if (formatedValueOverridden) {
+				writer.write(formatedValue(value));
+			} else {
+				writeFormatedValue(value, writer);
+			}
 			writer.write(varSeparator);
 		} catch (final Exception e) {
 			throw new SerializationException(e);
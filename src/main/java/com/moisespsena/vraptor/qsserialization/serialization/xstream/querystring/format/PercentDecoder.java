@@ -0,0 +1,122 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format;
+
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+
+/**
+ * Decodificador no formato <code>application/x-www-form-urlencoded</code>,
+ * contraparte de {@link PercentEncoder}.
+ * 
+ * <p>
+ * Produz o mesmo resultado de {@link URLDecoder#decode(String, String)};
+ * valores sem <code>%</code> e <code>+</code> são retornados sem cópia.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class PercentDecoder {
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+	private static int hex(final CharSequence value, final int index) {
+		final int digit = index < value.length() ? Character.digit(
+				value.charAt(index), 16) : -1;
+		if (digit == -1) {
+			throw new IllegalArgumentException(
+					"Illegal hex characters in escape (%) pattern at " + index);
+		}
+		return digit;
+	}
+
+	private final Charset charset;
+
+	/**
+	 * @param encoding
+	 *            Codificação de carecters
+	 */
+	public PercentDecoder(final String encoding) {
+		charset = Charset.forName(encoding);
+	}
+
+	/**
+	 * Retorna o valor decodificado
+	 * 
+	 * @param value
+	 */
+	public String decode(final CharSequence value) {
+		final int len = value.length();
+		int i = 0;
+		char c;
+		while ((i < len) && ((c = value.charAt(i)) != '%') && (c != '+')) {
+			i++;
+		}
+
+		if (i == len) {
+			return value.toString();
+		}
+
+		final StringBuilder out = new StringBuilder(len);
+		out.append(value, 0, i);
+
+		while (i < len) {
+			c = value.charAt(i);
+			if (c == '+') {
+				out.append(' ');
+				i++;
+			} else if (c == '%') {
+				i = decode(value, i, out);
+			} else {
+				out.append(c);
+				i++;
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Decodifica a sequência de <code>%XX</code> iniciada em
+	 * <code>start</code>
+	 * 
+	 * @return Posição seguinte à sequência
+	 */
+	private int decode(final CharSequence value, int start,
+			final StringBuilder out) {
+		final int len = value.length();
+		byte[] bytes = buffers.get();
+		if ((bytes == null) || (bytes.length < ((len - start) / 3))) {
+			bytes = new byte[Math.max(64, (len - start) / 3)];
+			buffers.set(bytes);
+		}
+
+		int count = 0;
+		while ((start < len) && (value.charAt(start) == '%')) {
+			bytes[count++] = (byte) ((hex(value, start + 1) << 4) | hex(value,
+					start + 2));
+			start += 3;
+		}
+
+		out.append(new String(bytes, 0, count, charset));
+		return start;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+}
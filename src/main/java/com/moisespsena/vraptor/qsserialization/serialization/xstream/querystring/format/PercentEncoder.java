@@ -0,0 +1,196 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format;
+
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSQuickWriter;
+import com.thoughtworks.xstream.core.util.QuickWriter;
+
+/**
+ * Codificador no formato <code>application/x-www-form-urlencoded</code> que
+ * grava diretamente no {@link QuickWriter}.
+ * 
+ * <p>
+ * Produz o mesmo resultado de {@link URLEncoder#encode(String, String)}. Os
+ * caracteres seguros são identificados por tabela e valores compostos apenas
+ * por eles são copiados sem alteração; os demais trechos são convertidos com
+ * um {@link CharsetEncoder} reaproveitado por thread.
+ * </p>
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class PercentEncoder {
+	/**
+	 * Estado de codificação de uma thread
+	 */
+	private static class Encoding {
+		private char[] chars = new char[64];
+		private final Charset charset;
+		private final CharsetEncoder encoder;
+		private CharBuffer in = CharBuffer.wrap(chars);
+		private ByteBuffer out = ByteBuffer.allocate(256);
+
+		public Encoding(final Charset charset) {
+			this.charset = charset;
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		public ByteBuffer encode(final String value, final int start,
+				final int end) {
+			final int len = end - start;
+			if (len > chars.length) {
+				chars = new char[Math.max(len, chars.length * 2)];
+				in = CharBuffer.wrap(chars);
+			}
+			value.getChars(start, end, chars, 0);
+
+			final int maxBytes = (int) Math.ceil(len
+					* encoder.maxBytesPerChar()) + 4;
+			if (maxBytes > out.capacity()) {
+				out = ByteBuffer.allocate(Math.max(maxBytes,
+						out.capacity() * 2));
+			}
+
+			for (;;) {
+				in.clear();
+				in.limit(len);
+				out.clear();
+				encoder.reset();
+
+				CoderResult result = encoder.encode(in, out, true);
+				if (!result.isOverflow()) {
+					result = encoder.flush(out);
+				}
+				if (!result.isOverflow()) {
+					break;
+				}
+				out = ByteBuffer.allocate(out.capacity() * 2);
+			}
+
+			out.flip();
+			return out;
+		}
+	}
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final boolean[] SAFE = new boolean[128];
+
+	private static final ThreadLocal<Encoding> encodings = new ThreadLocal<Encoding>();
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			SAFE[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			SAFE[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			SAFE[c] = true;
+		}
+		SAFE['.'] = true;
+		SAFE['-'] = true;
+		SAFE['*'] = true;
+		SAFE['_'] = true;
+	}
+
+	private static boolean isSafe(final char c) {
+		return (c < 128) && SAFE[c];
+	}
+
+	private final Charset charset;
+
+	/**
+	 * @param encoding
+	 *            Codificação de carecters
+	 */
+	public PercentEncoder(final String encoding) {
+		charset = Charset.forName(encoding);
+	}
+
+	/**
+	 * Grava o valor codificado
+	 * 
+	 * @param value
+	 * @param writer
+	 */
+	public void encode(final String value, final QuickWriter writer) {
+		final int len = value.length();
+		int i = 0;
+		while ((i < len) && isSafe(value.charAt(i))) {
+			i++;
+		}
+
+		if (i == len) {
+			writer.write(value);
+			return;
+		}
+
+		QSQuickWriter.write(writer, value, 0, i);
+
+		while (i < len) {
+			final char c = value.charAt(i);
+			if (isSafe(c)) {
+				writer.write(c);
+				i++;
+			} else if (c == ' ') {
+				writer.write('+');
+				i++;
+			} else {
+				int end = i + 1;
+				while ((end < len) && !isSafe(value.charAt(end))
+						&& (value.charAt(end) != ' ')) {
+					end++;
+				}
+				encode(value, i, end, writer);
+				i = end;
+			}
+		}
+	}
+
+	private void encode(final String value, final int start, final int end,
+			final QuickWriter writer) {
+		Encoding encoding = encodings.get();
+		if ((encoding == null) || !encoding.charset.equals(charset)) {
+			encoding = new Encoding(charset);
+			encodings.set(encoding);
+		}
+
+		final ByteBuffer bytes = encoding.encode(value, start, end);
+		while (bytes.hasRemaining()) {
+			final int b = bytes.get();
+			writer.write('%');
+			writer.write(HEX[(b >> 4) & 0xF]);
+			writer.write(HEX[b & 0xF]);
+		}
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+}
@@ -16,6 +16,9 @@
  */
 package com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format;
 
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSCharReader;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSQuickWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSRemovalFormatWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter.Path;
 import com.thoughtworks.xstream.core.util.QuickWriter;
 
@@ -51,25 +54,130 @@ import com.thoughtworks.xstream.core.util.QuickWriter;
  * @since 1.0 23/08/2011
  * 
  */
-public class PropertiesQSFormatWriter extends ObjectQSFormatWriter {
+public class PropertiesQSFormatWriter extends ObjectQSFormatWriter implements
+		QSRemovalFormatWriter {
 
 	public PropertiesQSFormatWriter() {
 		super(null, VAR_NEW_LINE_SEPARATOR);
 	}
 
+	/**
+	 * Caracteres que não precisam de escape no caminho, ou seja, os
+	 * caracteres de <code>\\w</code>
+	 */
+	private static final boolean[] WORD = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			WORD[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			WORD[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			WORD[c] = true;
+		}
+		WORD['_'] = true;
+	}
+
+	private static boolean isWord(final char c) {
+		return (c < 128) && WORD[c];
+	}
+
 	@Override
-	protected String formatedValue(String value) throws Exception {
-		value = value.replace('\r', '0');
-		value = value.replaceAll("\n", "\\\\\n\t");
+	protected String formatedValue(final String value) throws Exception {
+		final QSQuickWriter writer = new QSQuickWriter();
+		writeFormatedValue(value, writer);
+		return writer.toString();
+	}
 
-		return value;
+	/**
+	 * Lê o valor desfazendo as continuações de linha. A troca de
+	 * <code>\r</code> por <code>0</code> não é revertida.
+	 */
+	@Override
+	public String readValue(final QSCharReader in) {
+		final StringBuilder text = in.text();
+		for (int c = in.read(); (c != -1) && (c != '\n'); c = in.read()) {
+			if ((c == '\\') && (in.peek() == '\n') && (in.peek(1) == '\t')) {
+				in.read();
+				in.read();
+				c = '\n';
+			}
+			text.append((char) c);
+		}
+		return text.toString();
 	}
 
+	/**
+	 * Troca <code>\r</code> por <code>0</code> e continua as quebras de linha
+	 * com <code>\</code> seguido de tabulação, em uma única passada.
+	 */
+	@Override
+	protected void writeFormatedValue(final String value,
+			final QuickWriter writer) throws Exception {
+		final int len = value.length();
+		int start = 0;
+		for (int i = 0; i < len; i++) {
+			final char c = value.charAt(i);
+			if (c == '\r') {
+				QSQuickWriter.write(writer, value, start, i - start);
+				writer.write('0');
+				start = i + 1;
+			} else if (c == '\n') {
+				QSQuickWriter.write(writer, value, start, i - start);
+				writer.write('\\');
+				writer.write('\n');
+				writer.write('\t');
+				start = i + 1;
+			}
+		}
+
+		if (start == 0) {
+			writer.write(value);
+		} else {
+			QSQuickWriter.write(writer, value, start, len - start);
+		}
+	}
+
+	/**
+	 * Escapa com <code>\</code> os caracteres fora de <code>\w</code>, em uma
+	 * única passada. Pares de surrogates recebem um unico escape.
+	 */
 	@Override
 	protected void writePathEntry(final Path path, final QuickWriter writer,
 			final boolean hasMore, final boolean isFirst) {
-		String pathValue = path.getPath();
-		pathValue = pathValue.replaceAll("(\\W)", "\\\\$1");
-		writer.write(pathValue);
+		final String pathValue = path.getPath();
+		final int len = pathValue.length();
+		int start = 0;
+		for (int i = 0; i < len; i++) {
+			final char c = pathValue.charAt(i);
+			if (!isWord(c)) {
+				QSQuickWriter.write(writer, pathValue, start, i - start);
+				writer.write('\\');
+				start = i;
+				if (Character.isHighSurrogate(c) && ((i + 1) < len)
+						&& Character.isLowSurrogate(pathValue.charAt(i + 1))) {
+					i++;
+				}
+			}
+		}
+
+		if (start == 0) {
+			writer.write(pathValue);
+		} else {
+			QSQuickWriter.write(writer, pathValue, start, len - start);
+		}
+	}
+
+	/**
+	 * Grava a entrada removida como comentário, ex: <code>#user.name=</code>
+	 */
+	@Override
+	public void writeRemoved(final String path, final QuickWriter writer) {
+		writer.write('#');
+		writer.write(path);
+		writePathEnd(writer);
+		writeValue("", writer);
 	}
 }
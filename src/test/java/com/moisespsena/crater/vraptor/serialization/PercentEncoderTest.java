@@ -0,0 +1,78 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * 
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import java.io.StringWriter;
+import java.net.URLEncoder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSQuickWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.PercentEncoder;
+import com.thoughtworks.xstream.core.util.QuickWriter;
+
+/**
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class PercentEncoderTest {
+	private static final String[] VALUES = { "", "Goiaba", "name asc",
+			"a+b=c&d", "  ", "mamão com açúcar", "100% ~ok*._-",
+			"€ 5,00", "emoji 😀!", "lone \ud83d surrogate",
+			"\udc00", "linha\r\nnova\t" };
+
+	private void assertSameAsURLEncoder(final String encoding)
+			throws Exception {
+		final PercentEncoder encoder = new PercentEncoder(encoding);
+		for (final String value : VALUES) {
+			final StringWriter out = new StringWriter();
+			final QuickWriter writer = new QSQuickWriter(out);
+			encoder.encode(value, writer);
+			writer.flush();
+
+			final StringWriter plainOut = new StringWriter();
+			final QuickWriter plainWriter = new QuickWriter(plainOut);
+			encoder.encode(value, plainWriter);
+			plainWriter.flush();
+
+			final String expected = URLEncoder.encode(value, encoding);
+			Assert.assertEquals(value, expected, out.toString());
+			Assert.assertEquals(value, expected, plainOut.toString());
+		}
+	}
+
+	@Test
+	public void testIso88591() throws Exception {
+		assertSameAsURLEncoder("ISO-8859-1");
+	}
+
+	@Test
+	public void testUtf16() throws Exception {
+		assertSameAsURLEncoder("UTF-16");
+	}
+
+	@Test
+	public void testUtf8() throws Exception {
+		assertSameAsURLEncoder("UTF-8");
+	}
+}
@@ -0,0 +1,79 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * 
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.PropertiesQSFormatWriter;
+import com.thoughtworks.xstream.core.util.QuickWriter;
+
+/**
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class PropertiesQSFormatWriterTest {
+	private static final String[] VALUES = { "name", "name spaced",
+			"a.b=c:d#e!f", "linha 1\nlinha 2\r\n", "\n\n\r", "mamão",
+			"emoji 😀 fim", "lone \ud83d surrogate", "back\\slash",
+			"tab\tend" };
+
+	private static String write(final String name, final String value) {
+		final StringWriter out = new StringWriter();
+		final QSWriter writer = new QSWriter(out,
+				new PropertiesQSFormatWriter());
+		writer.startNode(name, String.class);
+		writer.setValue(value);
+		writer.endNode();
+		writer.flush();
+		return out.toString();
+	}
+
+	/**
+	 * The single pass escapers must match the former regex based ones
+	 */
+	@Test
+	public void testEscapeMatchesRegex() {
+		for (final String name : VALUES) {
+			for (final String value : VALUES) {
+				final String expected = name.replaceAll("(\\W)", "\\\\$1")
+						+ "="
+						+ value.replace('\r', '0').replaceAll("\n",
+								"\\\\\n\t") + "\n";
+				Assert.assertEquals(expected, write(name, value));
+			}
+		}
+	}
+
+	@Test
+	public void testPlainQuickWriter() throws Exception {
+		final StringWriter out = new StringWriter();
+		final QuickWriter writer = new QuickWriter(out);
+		final PropertiesQSFormatWriter formatWriter = new PropertiesQSFormatWriter();
+		formatWriter.writeValue("a\nb\rc", writer);
+		writer.flush();
+		Assert.assertEquals("a\\\n\tb0c\n", out.toString());
+	}
+}
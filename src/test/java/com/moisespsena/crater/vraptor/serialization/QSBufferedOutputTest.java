@@ -0,0 +1,115 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import br.com.caelum.vraptor.interceptor.DefaultTypeNameExtractor;
+import br.com.caelum.vraptor.serialization.NullProxyInitializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.async.QSBufferPool;
+import com.moisespsena.vraptor.qsserialization.serialization.async.QSBufferedOutput;
+import com.moisespsena.vraptor.qsserialization.serialization.async.QSNonBlockingOutput;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSSerialization;
+
+/**
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSBufferedOutputTest {
+	/**
+	 * Accepts a single write per readiness, like a socket whose send buffer
+	 * fills up after every write.
+	 */
+	private static class SlowOutput implements QSNonBlockingOutput {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private boolean ready = true;
+		private int writes;
+
+		@Override
+		public boolean isReady() {
+			return ready;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			Assert.assertTrue(ready);
+			bytes.write(b, off, len);
+			ready = false;
+			writes++;
+		}
+	}
+
+	public static class Item {
+		private final String name;
+
+		public Item(final String name) {
+			this.name = name;
+		}
+	}
+
+	@Test
+	public void testDrainWhenReady() throws Exception {
+		final List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < 500; i++) {
+			items.add(new Item("ação " + i));
+		}
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.propertiesFormat();
+
+		final Writer expected = new StringWriter();
+		serialization.to(expected).from(items).serialize();
+
+		final QSBufferPool pool = new QSBufferPool(1024, 64);
+		final QSBufferedOutput buffered = new QSBufferedOutput(pool);
+		serialization.to(buffered.writer("UTF-8")).from(items).serialize();
+		Assert.assertEquals(expected.toString().getBytes("UTF-8").length,
+				buffered.size());
+
+		final SlowOutput output = new SlowOutput();
+		int calls = 1;
+		while (!buffered.drainTo(output)) {
+			// the container calls onWritePossible() when the client reads
+			output.ready = true;
+			calls++;
+		}
+
+		Assert.assertEquals(expected.toString(),
+				new String(output.bytes.toByteArray(), "UTF-8"));
+		Assert.assertEquals(0, buffered.size());
+		Assert.assertTrue(calls > 1);
+		Assert.assertEquals(output.writes, pool.getFree());
+
+		// buffers are reused by the next response
+		final QSBufferedOutput next = new QSBufferedOutput(pool);
+		next.write(new byte[1500], 0, 1500);
+		Assert.assertEquals(output.writes - 2, pool.getFree());
+		next.release();
+		Assert.assertEquals(output.writes, pool.getFree());
+	}
+}
@@ -0,0 +1,117 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import br.com.caelum.vraptor.interceptor.DefaultTypeNameExtractor;
+import br.com.caelum.vraptor.serialization.NullProxyInitializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSSerialization;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFileSink;
+
+/**
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSFileSinkTest {
+	public static class Item {
+		private final String name;
+
+		public Item(final String name) {
+			this.name = name;
+		}
+	}
+
+	private static byte[] read(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final byte[] bytes = new byte[(int) file.length()];
+			int off = 0;
+			while (off < bytes.length) {
+				off += in.read(bytes, off, bytes.length - off);
+			}
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		final List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < 500; i++) {
+			items.add(new Item("ação é€😀 " + i));
+		}
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.propertiesFormat();
+
+		final StringWriter expected = new StringWriter();
+		serialization.to(expected).from(items).serialize();
+
+		final File file = File.createTempFile("qsfilesink", ".properties");
+		try {
+			// stale content must be truncated
+			final FileOutputStream stale = new FileOutputStream(file);
+			stale.write(new byte[200000]);
+			stale.close();
+
+			// small blocks exercise the drain of multibyte sequences
+			final QSFileSink sink = new QSFileSink(new RandomAccessFile(file,
+					"rw").getChannel(), 61);
+			serialization.to(sink).from(items).serialize();
+			final byte[] bytes = expected.toString().getBytes("UTF-8");
+			Assert.assertEquals(bytes.length, sink.getBytesWritten());
+			sink.close();
+
+			Assert.assertArrayEquals(bytes, read(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSurrogates() throws Exception {
+		final File file = File.createTempFile("qsfilesink", ".txt");
+		try {
+			final QSFileSink sink = new QSFileSink(file);
+			// pair split across writes, lone low and trailing high surrogate
+			sink.write("a\ud83d");
+			sink.write(new char[] { '\ude00', 'b', '\ude00', 'c', '\ud83d' });
+			sink.close();
+
+			Assert.assertArrayEquals("a😀b?c?".getBytes("UTF-8"),
+					read(file));
+		} finally {
+			file.delete();
+		}
+	}
+}
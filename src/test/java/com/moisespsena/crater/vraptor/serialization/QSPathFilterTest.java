@@ -0,0 +1,76 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * 
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSPathFilter;
+
+/**
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSPathFilterTest {
+	@Test
+	public void testIncludeAndExclude() {
+		final QSPathFilter filter = QSPathFilter.NONE.include(
+				"list.search.query", "list.search.filter.tags[*]").exclude(
+				"**.tags[1]");
+		Assert.assertTrue(filter.isEnabled());
+		Assert.assertTrue(filter.accepts("list.search.query"));
+		Assert.assertTrue(filter.accepts("list.search.filter.tags[0]"));
+		Assert.assertFalse(filter.accepts("list.search.filter.tags[1]"));
+		Assert.assertFalse(filter.accepts("list.search.filter.name"));
+		Assert.assertFalse(filter.accepts("list.search.filter"));
+		Assert.assertFalse(QSPathFilter.NONE.isEnabled());
+		Assert.assertTrue(QSPathFilter.NONE.accepts("search.query"));
+	}
+
+	@Test
+	public void testLiteralAndWildcardSegments() {
+		final QSPathFilter mixed = QSPathFilter.NONE.exclude("a.*.x", "a.b.y",
+				"a.c[2]");
+		Assert.assertFalse(mixed.accepts("a.z.x"));
+		Assert.assertTrue(mixed.accepts("a.z.y"));
+		Assert.assertFalse(mixed.accepts("a.b.y"));
+		Assert.assertFalse(mixed.accepts("a.b.x"));
+		Assert.assertTrue(mixed.accepts("a.w.y"));
+		Assert.assertTrue(mixed.accepts("a.c[1]"));
+		Assert.assertFalse(mixed.accepts("a.c[2]"));
+		Assert.assertTrue(mixed.accepts("a.c[3]"));
+	}
+
+	@Test
+	public void testWildcards() {
+		Assert.assertTrue(QSPathFilter.NONE.exclude("*.name").accepts(
+				"search.query"));
+		Assert.assertFalse(QSPathFilter.NONE.exclude("*.name").accepts(
+				"search.name"));
+		Assert.assertTrue(QSPathFilter.NONE.exclude("*.name").accepts(
+				"search.filter.name"));
+		Assert.assertFalse(QSPathFilter.NONE.exclude("**.name").accepts(
+				"search.filter.name"));
+		Assert.assertFalse(QSPathFilter.NONE.exclude("**.name").accepts(
+				"name"));
+	}
+}
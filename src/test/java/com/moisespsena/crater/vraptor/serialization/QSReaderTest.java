@@ -0,0 +1,170 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * 
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import br.com.caelum.vraptor.interceptor.DefaultTypeNameExtractor;
+import br.com.caelum.vraptor.serialization.NullProxyInitializer;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSSerialization;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatReader;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHierarchicalStreamDriver;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSReader;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ArrayQSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.PropertiesQSFormatWriter;
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSReaderTest {
+	public static class Product {
+		private String name;
+		private Product old;
+
+		public Product() {
+		}
+
+		public Product(final String name) {
+			this.name = name;
+		}
+	}
+
+	private static Product roundTrip(final Product product,
+			final QSFormatReader formatReader) {
+		final Writer writer = new StringWriter();
+		XStreamQSSerialization serialization = new XStreamQSSerialization(
+				writer, new DefaultTypeNameExtractor(),
+				new NullProxyInitializer());
+		if (formatReader instanceof ArrayQSFormatWriter) {
+			serialization = serialization.arrayFormat();
+		} else if (formatReader instanceof PropertiesQSFormatWriter) {
+			serialization = serialization.propertiesFormat();
+		}
+		serialization.from(product).recursive().serialize();
+
+		final XStream xstream = new XStream(new QSHierarchicalStreamDriver(
+				formatReader));
+		xstream.alias("product", Product.class);
+		return (Product) xstream.fromXML(writer.toString());
+	}
+
+	private static void assertRoundTrip(final QSFormatReader formatReader,
+			final String name, final String oldName) {
+		final Product product = new Product(name);
+		product.old = new Product(oldName);
+
+		final Product read = roundTrip(product, formatReader);
+		Assert.assertEquals(name, read.name);
+		Assert.assertEquals(oldName, read.old.name);
+		Assert.assertNull(read.old.old);
+	}
+
+	@Test
+	public void testArrayFormat() {
+		assertRoundTrip(new ArrayQSFormatWriter(), "Goiaba & cia",
+				"uva=[1]");
+	}
+
+	@Test
+	public void testObjectFormat() {
+		assertRoundTrip(new ObjectQSFormatWriter(), "Goiaba da Amazônia",
+				"100% + uva&");
+	}
+
+	@Test
+	public void testPropertiesFormat() {
+		assertRoundTrip(new PropertiesQSFormatWriter(),
+				"Goiaba\nda Amazônia", "uva\\ = a&b");
+	}
+
+	@Test
+	public void testReadsIndexesAndAttributes() {
+		final QSReader reader = new QSReader(new StringReader(
+				"product.@class=item&product.users[0].name=a&"
+						+ "product.users[1].name=b&product.users[1].name=c&"
+						+ "product.tags[0]=x&&product.empty="));
+
+		Assert.assertEquals("product", reader.getNodeName());
+		Assert.assertEquals("item", reader.getAttribute("class"));
+		Assert.assertEquals(1, reader.getAttributeCount());
+
+		reader.moveDown();
+		Assert.assertEquals("users", reader.getNodeName());
+		Assert.assertNull(reader.getAttribute("class"));
+		for (final String index : new String[] { "0", "1" }) {
+			reader.moveDown();
+			Assert.assertEquals(index, reader.getNodeName());
+			reader.moveDown();
+			Assert.assertEquals("name", reader.getNodeName());
+			reader.getValue();
+			reader.moveUp();
+			Assert.assertEquals("1".equals(index), reader.hasMoreChildren());
+			if (reader.hasMoreChildren()) {
+				reader.moveDown();
+				Assert.assertEquals("c", reader.getValue());
+				reader.moveUp();
+			}
+			reader.moveUp();
+		}
+		Assert.assertFalse(reader.hasMoreChildren());
+		reader.moveUp();
+
+		reader.moveDown();
+		Assert.assertEquals("tags", reader.getNodeName());
+		reader.moveDown();
+		Assert.assertEquals("0", reader.getNodeName());
+		Assert.assertEquals("x", reader.getValue());
+		Assert.assertFalse(reader.hasMoreChildren());
+		reader.moveUp();
+		reader.moveUp();
+
+		reader.moveDown();
+		Assert.assertEquals("empty", reader.getNodeName());
+		Assert.assertEquals("", reader.getValue());
+		reader.moveUp();
+
+		Assert.assertFalse(reader.hasMoreChildren());
+	}
+
+	@Test
+	public void testSkipsUnreadChildren() {
+		final QSReader reader = new QSReader(new StringReader(
+				"p.a.x=1&p.a.y=2&p.b=3&"));
+		reader.moveDown();
+		Assert.assertEquals("a", reader.getNodeName());
+		reader.moveUp();
+		reader.moveDown();
+		Assert.assertEquals("b", reader.getNodeName());
+		Assert.assertEquals("3", reader.getValue());
+		reader.moveUp();
+		Assert.assertFalse(reader.hasMoreChildren());
+	}
+}
@@ -0,0 +1,125 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * 
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSTokenizer;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSTokenizer.Syntax;
+
+/**
+ * 
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ * 
+ */
+public class QSTokenizerTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static QSTokenizer[] tokenizers(final String input,
+			final Syntax syntax) {
+		final ByteBuffer bytes = ByteBuffer.allocate(input.length() * 4 + 2);
+		bytes.put((byte) 'x');
+		bytes.put(input.getBytes(UTF_8));
+		bytes.flip();
+		bytes.get();
+
+		return new QSTokenizer[] { new QSTokenizer(input, syntax),
+				new QSTokenizer(bytes, syntax) };
+	}
+
+	@Test
+	public void testArrayFormat() {
+		for (final QSTokenizer tokenizer : tokenizers(
+				"user[name]=Mam%C3%A3o+doce&user[tags][1]=a%26b&&", Syntax.QUERY_STRING)) {
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals(2, tokenizer.segmentCount());
+			Assert.assertEquals("user", tokenizer.segment(0));
+			Assert.assertFalse(tokenizer.isBracket(0));
+			Assert.assertTrue(tokenizer.isBracket(1));
+			Assert.assertTrue(tokenizer.segmentEquals(1, "name"));
+			Assert.assertEquals("Mamão doce", tokenizer.value());
+
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals(3, tokenizer.segmentCount());
+			Assert.assertEquals(1, tokenizer.index(2));
+			Assert.assertEquals(-1, tokenizer.index(1));
+			Assert.assertEquals("a&b", tokenizer.value());
+
+			Assert.assertFalse(tokenizer.next());
+		}
+	}
+
+	@Test
+	public void testObjectFormat() {
+		for (final QSTokenizer tokenizer : tokenizers(
+				"product.users[0].name=Goiaba&product.flag&product.empty=",
+				Syntax.QUERY_STRING)) {
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals(4, tokenizer.segmentCount());
+			Assert.assertTrue(tokenizer.segmentEquals(0, "product"));
+			Assert.assertFalse(tokenizer.segmentEquals(0, "products"));
+			Assert.assertEquals(0, tokenizer.index(2));
+			Assert.assertEquals("name", tokenizer.segment(3));
+			Assert.assertEquals(0, tokenizer.keyStart());
+			Assert.assertEquals(21, tokenizer.keyEnd());
+			Assert.assertEquals(22, tokenizer.valueStart());
+			Assert.assertEquals(28, tokenizer.valueEnd());
+
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals("flag", tokenizer.segment(1));
+			Assert.assertEquals("", tokenizer.value());
+
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals("empty", tokenizer.segment(1));
+			Assert.assertEquals("", tokenizer.value());
+
+			Assert.assertFalse(tokenizer.next());
+
+			tokenizer.reset();
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals("Goiaba", tokenizer.value());
+		}
+	}
+
+	@Test
+	public void testPropertiesFormat() {
+		for (final QSTokenizer tokenizer : tokenizers(
+				"name\\ spaced.n\\ã=Goiaba\\\n\tda Amazônia\nname\\ spaced.users[2]=a\\b\n",
+				Syntax.PROPERTIES)) {
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals(2, tokenizer.segmentCount());
+			Assert.assertEquals("name spaced", tokenizer.segment(0));
+			Assert.assertTrue(tokenizer.segmentEquals(0, "name spaced"));
+			Assert.assertEquals("nã", tokenizer.segment(1));
+			Assert.assertEquals("Goiaba\nda Amazônia", tokenizer.value());
+
+			Assert.assertTrue(tokenizer.next());
+			Assert.assertEquals(2, tokenizer.index(2));
+			Assert.assertEquals("a\\b", tokenizer.value());
+
+			Assert.assertFalse(tokenizer.next());
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/***
+ * Copyright (c) 2011 Moises P. Sena - www.moisespsena.com
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ *
+ */
+package com.moisespsena.crater.vraptor.serialization;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSClassKind;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimitExceededException;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits.Limit;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter.Path;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter.PathListener;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ArrayQSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.PropertiesQSFormatWriter;
+import com.thoughtworks.xstream.core.util.QuickWriter;
+
+/**
+ *
+ * @author Moises P. Sena &lt;moisespsena@gmail.com&gt;
+ * @since 1.1
+ *
+ */
+public class QSWriterTest {
+	private static final Writer NULL_WRITER = new Writer() {
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) {
+		}
+	};
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean()).getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+	}
+
+	/**
+	 * Writes <code>product.users[0..99].name</code> lists, i.e. 201 nodes per
+	 * call.
+	 */
+	private static void writeUsers(final QSWriter writer) {
+		writer.startNode("users", ArrayList.class);
+		for (int i = 0; i < 100; i++) {
+			writer.startNode("user", Object.class);
+			writer.startNode("name", String.class);
+			writer.setValue("user");
+			writer.endNode();
+			writer.endNode();
+		}
+		writer.endNode();
+	}
+
+	@Test
+	public void testClassKind() {
+		Assert.assertEquals(QSClassKind.SCALAR, QSClassKind.of(null));
+		Assert.assertEquals(QSClassKind.SCALAR, QSClassKind.of(String.class));
+		Assert.assertEquals(QSClassKind.LIST, QSClassKind.of(ArrayList.class));
+		Assert.assertEquals(QSClassKind.ARRAY, QSClassKind.of(int[].class));
+		Assert.assertEquals(QSClassKind.MAP, QSClassKind.of(HashMap.class));
+		Assert.assertEquals(QSClassKind.MAP_ENTRY,
+				QSClassKind.of(AbstractMap.SimpleEntry.class));
+		Assert.assertEquals(QSClassKind.COLLECTION,
+				QSClassKind.of(HashSet.class));
+		Assert.assertFalse(QSClassKind.isCollection(QSClassKind.SCALAR));
+		Assert.assertTrue(QSClassKind.isCollection(QSClassKind.COLLECTION));
+	}
+
+	private static class CountingPathListener implements PathListener {
+		private int accepts;
+		private int renames;
+
+		@Override
+		public boolean accepts(final int depth) {
+			accepts++;
+			return depth == 2;
+		}
+
+		@Override
+		public String pathFromDepth(final String currentName, final int depth,
+				final Class<?> clazz) {
+			renames++;
+			return "name".equals(currentName) ? "n" + depth : null;
+		}
+	}
+
+	private static String write(final QSWriter writer, final StringWriter out) {
+		writer.startNode("product", Object.class);
+		writeUsers(writer);
+		writer.startNode("name", String.class);
+		writer.setValue("p");
+		writer.endNode();
+		writer.endNode();
+		writer.flush();
+		return out.toString();
+	}
+
+	@Test
+	public void testPathListenerAcceptsOncePerDepth() {
+		final StringWriter out = new StringWriter();
+		final QSWriter writer = new QSWriter(out, new ObjectQSFormatWriter());
+		final CountingPathListener listener = new CountingPathListener();
+		writer.addPathListener(listener);
+		writer.addPathListener(listener);
+
+		final String result = write(writer, out);
+		Assert.assertTrue(result.startsWith("product.users[0].name=user&"));
+		Assert.assertTrue(result.endsWith("product.name=p&"));
+		Assert.assertEquals(3, listener.accepts);
+		Assert.assertEquals(0, listener.renames);
+	}
+
+	@Test
+	public void testPathListenerDepthRangeAndMemoize() {
+		final StringWriter out = new StringWriter();
+		final QSWriter writer = new QSWriter(out, new ObjectQSFormatWriter());
+		final CountingPathListener first = new CountingPathListener();
+		final CountingPathListener second = new CountingPathListener();
+		writer.addPathListener(first, 1, 1, true);
+		writer.addPathListener(second, 1, 3, true);
+
+		final String result = write(writer, out);
+		Assert.assertTrue(result.startsWith("product.users[0].n3=user&"));
+		Assert.assertTrue(result.endsWith("product.n1=p&"));
+		Assert.assertEquals(0, first.accepts);
+		Assert.assertEquals(2, first.renames);
+		Assert.assertEquals(1, second.renames);
+	}
+
+	private static QSLimitExceededException writeLimited(
+			final QSLimits limits, final StringWriter out) {
+		final QSWriter writer = new QSWriter(out, new ObjectQSFormatWriter());
+		writer.setLimits(limits);
+		try {
+			write(writer, out);
+		} catch (final QSLimitExceededException e) {
+			writer.flush();
+			Assert.assertTrue(out.toString().isEmpty()
+					|| out.toString().endsWith("&"));
+			Assert.assertEquals(out.toString().length(),
+					writer.getCharsWritten());
+			return e;
+		}
+		Assert.fail("limit not exceeded");
+		return null;
+	}
+
+	@Test
+	public void testLimits() {
+		StringWriter out = new StringWriter();
+		QSLimitExceededException e = writeLimited(
+				QSLimits.NONE.maxElements(10), out);
+		Assert.assertEquals(Limit.ELEMENTS, e.getLimit());
+		Assert.assertTrue(out.toString().endsWith("users[9].name=user&"));
+
+		out = new StringWriter();
+		e = writeLimited(QSLimits.NONE.maxEntries(5), out);
+		Assert.assertEquals(Limit.ENTRIES, e.getLimit());
+		Assert.assertTrue(out.toString().endsWith("users[4].name=user&"));
+
+		out = new StringWriter();
+		e = writeLimited(QSLimits.NONE.maxDepth(3), out);
+		Assert.assertEquals(Limit.DEPTH, e.getLimit());
+		Assert.assertEquals("", out.toString());
+
+		// larger than the 1024 chars buffer of the writer
+		out = new StringWriter();
+		e = writeLimited(QSLimits.NONE.maxChars(2000).truncate(), out);
+		Assert.assertEquals(Limit.CHARS, e.getLimit());
+		Assert.assertTrue(e.isTruncate());
+		Assert.assertTrue(out.toString().length() > 1950);
+		Assert.assertTrue(out.toString().length() <= 2000);
+
+		out = new StringWriter();
+		final QSWriter writer = new QSWriter(out, new ObjectQSFormatWriter());
+		writer.setLimits(QSLimits.NONE.maxElements(100).maxDepth(4));
+		Assert.assertTrue(write(writer, out).endsWith("product.name=p&"));
+	}
+
+	/**
+	 * Formato que implementa apenas {@link QSFormatWriter}, como os formatos
+	 * externos escritos antes do caminho incremental
+	 */
+	private static class LegacyFormatWriter implements QSFormatWriter {
+		private final QSFormatWriter delegate;
+
+		private LegacyFormatWriter(final QSFormatWriter delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void writePath(final List<Path> paths, final QuickWriter writer) {
+			delegate.writePath(paths, writer);
+		}
+
+		@Override
+		public void writeValue(final String value, final QuickWriter writer) {
+			delegate.writeValue(value, writer);
+		}
+	}
+
+	private static String writeNested(final QSFormatWriter formatWriter) {
+		final StringWriter out = new StringWriter();
+		final QSWriter writer = new QSWriter(out, formatWriter);
+		writer.startNode("product", Object.class);
+		writer.startNode("users", ArrayList.class);
+		for (int i = 0; i < 2; i++) {
+			writer.startNode("user", Object.class);
+			writer.startNode("name", String.class);
+			writer.setValue("user" + i);
+			writer.endNode();
+			writer.startNode("roles", ArrayList.class);
+			writer.startNode("role", String.class);
+			writer.setValue("admin");
+			writer.endNode();
+			writer.endNode();
+			writer.endNode();
+		}
+		writer.endNode();
+		writer.startNode("name", String.class);
+		writer.setValue("p");
+		writer.endNode();
+		writer.endNode();
+		writer.flush();
+		return out.toString();
+	}
+
+	@Test
+	public void testIncrementalPath() {
+		Assert.assertEquals("product.users[0].name=user0&"
+				+ "product.users[0].roles[0]=admin&"
+				+ "product.users[1].name=user1&"
+				+ "product.users[1].roles[0]=admin&product.name=p&",
+				writeNested(new ObjectQSFormatWriter()));
+		Assert.assertEquals("product[users][0][name]=user0&"
+				+ "product[users][0][roles][0]=admin&"
+				+ "product[users][1][name]=user1&"
+				+ "product[users][1][roles][0]=admin&product[name]=p&",
+				writeNested(new ArrayQSFormatWriter()));
+
+		for (final QSFormatWriter formatWriter : new QSFormatWriter[] {
+				new ObjectQSFormatWriter(), new ArrayQSFormatWriter(),
+				new PropertiesQSFormatWriter() }) {
+			Assert.assertEquals(writeNested(formatWriter),
+					writeNested(new LegacyFormatWriter(formatWriter)));
+		}
+	}
+
+	@Test
+	public void testFormatedValueOverride() {
+		final StringWriter out = new StringWriter();
+		final QSWriter writer = new QSWriter(out, new ObjectQSFormatWriter() {
+			@Override
+			protected String formatedValue(final String value) {
+				return value.toUpperCase();
+			}
+		});
+		writer.startNode("product", Object.class);
+		writer.startNode("name", String.class);
+		writer.setValue("a b");
+		writer.endNode();
+		writer.endNode();
+		writer.flush();
+		Assert.assertEquals("product.name=A B&", out.toString());
+	}
+
+	/**
+	 * Steady state startNode/setValue/endNode must not allocate per node.
+	 */
+	@Test
+	public void testNodeAllocation() {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+		final QSWriter writer = new QSWriter(NULL_WRITER,
+				new ObjectQSFormatWriter() {
+					@Override
+					protected String formatedValue(final String value) {
+						return value;
+					}
+				});
+		writer.startNode("product", Object.class);
+
+		for (int i = 0; i < 2000; i++) {
+			writeUsers(writer);
+		}
+
+		final int calls = 1000;
+		final long before = allocatedBytes();
+		for (int i = 0; i < calls; i++) {
+			writeUsers(writer);
+		}
+		final long allocated = allocatedBytes() - before;
+
+		writer.endNode();
+
+		final double perNode = (double) allocated / (calls * 201);
+		Assert.assertTrue("allocated " + perNode + " bytes per node",
+				perNode < 1);
+	}
+}
@@ -19,12 +19,28 @@
  */
 package com.moisespsena.crater.vraptor.serialization;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.junit.Assert;
@@ -33,11 +49,32 @@ import org.junit.Test;
 
 import br.com.caelum.vraptor.interceptor.DefaultTypeNameExtractor;
 import br.com.caelum.vraptor.serialization.NullProxyInitializer;
+import br.com.caelum.vraptor.serialization.ProxyInitializer;
 
+import com.moisespsena.vraptor.qsserialization.serialization.QSBatchInitializer;
+import com.moisespsena.vraptor.qsserialization.serialization.QSCompression;
+import com.moisespsena.vraptor.qsserialization.serialization.QSETag;
+import com.moisespsena.vraptor.qsserialization.serialization.QSETagListener;
+import com.moisespsena.vraptor.qsserialization.serialization.QSMetrics;
+import com.moisespsena.vraptor.qsserialization.serialization.QSMetricsListener;
+import com.moisespsena.vraptor.qsserialization.serialization.QSVersioned;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.QSFragmentCache;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.QSReferenceMode;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSSerialization;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHashingWriter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimitExceededException;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSLimits.Limit;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSPathFilter;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSSnapshot;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSHierarchicalStreamDriver.WriterCreatedListener;
 import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.QSWriter.PathListener;
+import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring.format.ObjectQSFormatWriter;
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.basic.AbstractSingleValueConverter;
+import com.thoughtworks.xstream.core.TreeMarshaller.CircularReferenceException;
+import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 
 /**
  * 
@@ -46,6 +83,137 @@ import com.moisespsena.vraptor.qsserialization.serialization.xstream.querystring
  * 
  */
 public class XStreamQSSerializationTest {
+	public static class Category {
+		private final List<Category> children = new ArrayList<Category>();
+		private final String name;
+		private Category parent;
+
+		public Category(final String name) {
+			this.name = name;
+		}
+
+		public Category add(final Category child) {
+			child.parent = this;
+			children.add(child);
+			return child;
+		}
+	}
+
+	/**
+	 * Entity whose name is loaded on demand, as a lazy association
+	 */
+	public static class Customer {
+		private final long id;
+		private transient boolean loaded;
+		private String name;
+
+		public Customer(final long id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * In-memory stand-in of a batch loading ORM
+	 */
+	private static class Customers implements QSBatchInitializer {
+		private final List<List<Object>> batches = new ArrayList<List<Object>>();
+
+		@Override
+		public void initialize(final List<Object> values) {
+			batches.add(values);
+			for (final Object value : values) {
+				final Customer customer = (Customer) value;
+				customer.name = "c" + customer.id;
+				customer.loaded = true;
+			}
+		}
+
+		@Override
+		public Object getActualValue(final Object value) {
+			return value instanceof OrderProxy ? ((OrderProxy) value).target
+					: value;
+		}
+
+		@Override
+		public boolean isUninitialized(final Object value) {
+			return (value instanceof Customer) && !((Customer) value).loaded;
+		}
+	}
+
+	public static class Order {
+		private final Customer buyer;
+		private final String code;
+		private final Customer seller;
+
+		public Order(final String code, final Customer buyer,
+				final Customer seller) {
+			this.code = code;
+			this.buyer = buyer;
+			this.seller = seller;
+		}
+	}
+
+	/**
+	 * Proxy whose own fields are empty, as in an ORM: the values live in the
+	 * target
+	 */
+	public static class OrderProxy extends Order {
+		private final transient Order target;
+
+		public OrderProxy(final Order target) {
+			super(null, null, null);
+			this.target = target;
+		}
+	}
+
+	/**
+	 * Proxy initializer of {@link OrderProxy}, always loaded
+	 */
+	private static class OrderProxies implements ProxyInitializer {
+		@Override
+		public Class<?> getActualClass(final Object object) {
+			return object instanceof OrderProxy ? Order.class : object
+					.getClass();
+		}
+
+		@Override
+		public void initialize(final Object object) {
+		}
+
+		@Override
+		public boolean isProxy(final Class<?> type) {
+			return OrderProxy.class.equals(type);
+		}
+	}
+
+	public static class Filter implements QSVersioned {
+		private final List<String> tags = new ArrayList<String>();
+		private String name;
+		private transient long version;
+
+		public Filter(final String name, final String... tags) {
+			this.name = name;
+			for (final String tag : tags) {
+				this.tags.add(tag);
+			}
+		}
+
+		@Override
+		public long getQSVersion() {
+			return version;
+		}
+	}
+
+	public static class Search {
+		private final Filter filter;
+		private final String query;
+
+		public Search(final String query, final Filter filter) {
+			this.query = query;
+			this.filter = filter;
+		}
+	}
+
 	public class Product {
 		private Map<Long, Integer> data;
 		private String name;
@@ -105,6 +273,981 @@ public class XStreamQSSerializationTest {
 	public void setUp() throws Exception {
 	}
 
+	/**
+	 * The cached XStream must not keep the excludes of a previous
+	 * serialization.
+	 */
+	@Test
+	public void testCachedXStreamDoesNotKeepExcludes() {
+		final Product product = new Product("Goiaba");
+		product.setOld(new Product("uva"));
+
+		Writer writer = new StringWriter();
+		new XStreamQSSerialization(writer, new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).from(product).serialize();
+
+		Assert.assertEquals("product.name=Goiaba&", writer.toString());
+
+		writer = new StringWriter();
+		new XStreamQSSerialization(writer, new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).from(product).recursive()
+				.serialize();
+
+		Assert.assertEquals("product.name=Goiaba&product.old.name=uva&",
+				writer.toString());
+	}
+
+	public static class CategoryProxy extends Category {
+		public CategoryProxy(final String name) {
+			super(name);
+		}
+	}
+
+	/**
+	 * Proxy initializer of {@link CategoryProxy}
+	 */
+	private static class CategoryProxies implements ProxyInitializer {
+		private int initialized;
+		private final Set<Thread> threads = Collections
+				.synchronizedSet(new HashSet<Thread>());
+
+		@Override
+		public Class<?> getActualClass(final Object object) {
+			return isProxy(object.getClass()) ? object.getClass()
+					.getSuperclass() : object.getClass();
+		}
+
+		@Override
+		public void initialize(final Object object) {
+			initialized++;
+			threads.add(Thread.currentThread());
+		}
+
+		@Override
+		public boolean isProxy(final Class<?> type) {
+			return CategoryProxy.class.equals(type);
+		}
+	}
+
+	/**
+	 * The converter chosen for a type by the cached XStream must not depend on
+	 * the proxy initializer of the first serialization.
+	 */
+	@Test
+	public void testCachedXStreamPerProxyInitializer() {
+		final Category category = new CategoryProxy("a");
+
+		Writer writer = new StringWriter();
+		new XStreamQSSerialization(writer, new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).from(category).serialize();
+		Assert.assertEquals("categoryProxy.name=a&", writer.toString());
+
+		final CategoryProxies proxies = new CategoryProxies();
+		writer = new StringWriter();
+		new XStreamQSSerialization(writer, new DefaultTypeNameExtractor(),
+				proxies).from(category).serialize();
+		Assert.assertEquals("category.name=a&", writer.toString());
+		Assert.assertEquals(1, proxies.initialized);
+	}
+
+	/**
+	 * Configuration whose XStream writes the strings in upper case
+	 */
+	public static class UpperCaseSerialization extends XStreamQSSerialization {
+		public UpperCaseSerialization(final Writer writer) {
+			super(writer, new DefaultTypeNameExtractor(),
+					new NullProxyInitializer());
+		}
+
+		@Override
+		protected XStream newXStream(final HierarchicalStreamDriver driver) {
+			final XStream xstream = super.newXStream(driver);
+			xstream.registerConverter(new AbstractSingleValueConverter() {
+				@SuppressWarnings("rawtypes")
+				@Override
+				public boolean canConvert(final Class type) {
+					return String.class.equals(type);
+				}
+
+				@Override
+				public Object fromString(final String str) {
+					return str;
+				}
+
+				@Override
+				public String toString(final Object obj) {
+					return ((String) obj).toUpperCase();
+				}
+			});
+			return xstream;
+		}
+	}
+
+	@Test
+	public void testCachedXStreamPerSubclass() {
+		final Product product = new Product("Goiaba");
+
+		Writer writer = new StringWriter();
+		new XStreamQSSerialization(writer, new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).from(product).serialize();
+		Assert.assertEquals("product.name=Goiaba&", writer.toString());
+
+		writer = new StringWriter();
+		new UpperCaseSerialization(writer).from(product).serialize();
+		Assert.assertEquals("product.name=GOIABA&", writer.toString());
+
+		writer = new StringWriter();
+		new XStreamQSSerialization(writer, new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).from(product).serialize();
+		Assert.assertEquals("product.name=Goiaba&", writer.toString());
+	}
+
+	/**
+	 * One configuration shared by several threads, each one with its own
+	 * writer.
+	 */
+	@Test
+	public void testSharedConfiguration() throws Exception {
+		final XStreamQSSerialization objects = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer());
+		final XStreamQSSerialization properties = objects.propertiesFormat();
+
+		Assert.assertNotSame(objects, properties);
+		Assert.assertTrue(objects.getFormatWriter() instanceof ObjectQSFormatWriter);
+		Assert.assertFalse(objects.withoutRoot() == objects);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 200; i++) {
+				final int n = i;
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						final Product product = new Product("p" + n);
+						product.setOld(new Product("o" + n));
+						final Writer writer = new StringWriter();
+						final XStreamQSSerialization serialization = (n % 2) == 0 ? objects
+								: properties;
+						serialization.to(writer).from(product).recursive()
+								.serialize();
+						return writer.toString();
+					}
+				}));
+			}
+
+			for (int i = 0; i < results.size(); i++) {
+				final String expected = (i % 2) == 0 ? "product.name=p" + i
+						+ "&product.old.name=o" + i + "&" : "product.name=p"
+						+ i + "\nproduct.old.name=o" + i + "\n";
+				Assert.assertEquals(expected, results.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWithoutWriter() {
+		new XStreamQSSerialization(new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).from(new Product("Goiaba"));
+	}
+
+	public static class Shelf {
+		private final List<String> labels;
+		private final String name;
+		private final Shelf next;
+
+		public Shelf(final String name, final Shelf next,
+				final String... labels) {
+			this.name = name;
+			this.next = next;
+			this.labels = new ArrayList<String>(Arrays.asList(labels));
+		}
+	}
+
+	/**
+	 * The end of a list field must not turn the fields of the next nested
+	 * object into index paths.
+	 */
+	@Test
+	public void testListFieldFollowedByObject() {
+		final Shelf shelf = new Shelf("top", new Shelf("bottom", null, "b"),
+				"a");
+
+		final Writer writer = new StringWriter();
+		new XStreamQSSerialization(writer, new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).from(shelf).recursive()
+				.serialize();
+		Assert.assertEquals("shelf.labels[0]=a&shelf.name=top&"
+				+ "shelf.next.labels[0]=b&shelf.next.name=bottom&",
+				writer.toString());
+	}
+
+	@Test
+	public void testLimits() {
+		final List<Product> users = new ArrayList<Product>();
+		for (int i = 0; i < 50; i++) {
+			users.add(new Product("u" + i));
+		}
+		final Product product = new Product("Goiaba");
+		product.setUsers(users);
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer());
+
+		Writer writer = new StringWriter();
+		try {
+			serialization.withLimits(QSLimits.NONE.maxElements(10))
+					.to(writer).from(product).include("users").serialize();
+			Assert.fail();
+		} catch (final QSLimitExceededException e) {
+			Assert.assertEquals(Limit.ELEMENTS, e.getLimit());
+		}
+
+		writer = new StringWriter();
+		serialization.withLimits(QSLimits.NONE.maxEntries(3).truncate())
+				.to(writer).from(product).include("users").serialize();
+		Assert.assertEquals(
+				"product.name=Goiaba&product.users[0].name=u0&product.users[1].name=u1&",
+				writer.toString());
+	}
+
+	@Test
+	public void testReferenceMode() {
+		final Category root = new Category("root");
+		root.add(new Category("a"));
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer());
+
+		Writer writer = new StringWriter();
+		try {
+			serialization.to(writer).from(root).recursive().serialize();
+			Assert.fail();
+		} catch (final CircularReferenceException e) {
+		}
+
+		writer = new StringWriter();
+		serialization.withReferenceMode(QSReferenceMode.SKIP_CYCLES)
+				.to(writer).from(root).recursive().serialize();
+		Assert.assertEquals(
+				"category.children[0].name=a&category.name=root&",
+				writer.toString());
+
+		writer = new StringWriter();
+		serialization.withReferenceMode(QSReferenceMode.PATH_REFERENCES)
+				.to(writer).from(root).recursive().serialize();
+		Assert.assertEquals(
+				"category.children[0].name=a&category.children[0].parent.@reference=category&category.name=root&",
+				writer.toString());
+	}
+
+	public static class Export {
+		private final String name = "export";
+		private Iterable<Category> pages;
+		private Iterator<Category> rows;
+	}
+
+	private static Iterator<Category> categories(final int[] pulled) {
+		return new Iterator<Category>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Category next() {
+				final Category category = new Category("c" + pulled[0]++);
+				category.add(new Category("child"));
+				return category;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Test
+	public void testIteratorSource() {
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.withLimits(QSLimits.NONE.maxElements(2).truncate());
+
+		Writer writer = new StringWriter();
+		final int[] pulled = new int[1];
+		serialization.to(writer).from(categories(pulled)).serialize();
+		Assert.assertEquals("list.category.name=c0&list.category.name=c1&",
+				writer.toString());
+		Assert.assertEquals(3, pulled[0]);
+
+		final Iterable<Category> iterable = new Iterable<Category>() {
+			@Override
+			public Iterator<Category> iterator() {
+				return categories(new int[1]);
+			}
+		};
+		writer = new StringWriter();
+		serialization.to(writer).from(iterable, "rows").include("children")
+				.serialize();
+		Assert.assertEquals(
+				"rows.category.children[0].name=child&rows.category.name=c0&"
+						+ "rows.category.children[0].name=child&rows.category.name=c1&",
+				writer.toString());
+
+		final Export export = new Export();
+		export.rows = categories(pulled);
+		writer = new StringWriter();
+		serialization.to(writer).from(export).include("rows").serialize();
+		Assert.assertEquals(
+				"export.name=export&export.rows[0].name=c3&export.rows[1].name=c4&",
+				writer.toString());
+
+		export.rows = null;
+		export.pages = iterable;
+		writer = new StringWriter();
+		serialization.to(writer).from(export).include("pages").serialize();
+		Assert.assertEquals(
+				"export.name=export&export.pages[0].name=c0&export.pages[1].name=c1&",
+				writer.toString());
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		final List<Category> categories = new ArrayList<Category>();
+		for (int i = 0; i < 1000; i++) {
+			final Category category = new Category("c&" + i);
+			category.add(new Category("child\n" + i));
+			categories.add(category);
+		}
+
+		final List<QSMetrics> reported = new ArrayList<QSMetrics>();
+		final XStreamQSSerialization sequential = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.withMetrics(new QSMetricsListener() {
+					@Override
+					public void serialized(final QSMetrics metrics) {
+						reported.add(metrics);
+					}
+				});
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final XStreamQSSerialization parallel = sequential.parallel(
+					executor, 64);
+			for (final XStreamQSSerialization serialization : new XStreamQSSerialization[] {
+					sequential, sequential.propertiesFormat() }) {
+				final Writer expected = new StringWriter();
+				serialization.to(expected).from(categories, "items")
+						.include("children").serialize();
+
+				final Writer actual = new StringWriter();
+				serialization.parallel(executor, 64).to(actual)
+						.from(categories, "items").include("children")
+						.serialize();
+
+				Assert.assertEquals(expected.toString(), actual.toString());
+			}
+
+			final Writer writer = new StringWriter();
+			parallel.to(writer).from(categories).serialize();
+			Assert.assertTrue(writer.toString().startsWith(
+					"list.category.name=c%260&list.category.name=c%261&"));
+
+			// more chunks than in flight; proxies initialized by this thread
+			final List<Category> proxied = new ArrayList<Category>();
+			for (int i = 0; i < 1000; i++) {
+				final Category category = new Category("p" + i);
+				category.add(new CategoryProxy("child" + i));
+				proxied.add(category);
+			}
+			final CategoryProxies proxies = new CategoryProxies();
+			final Writer proxiedWriter = new StringWriter();
+			new XStreamQSSerialization(new DefaultTypeNameExtractor(), proxies)
+					.parallel(executor, 10).to(proxiedWriter).from(proxied)
+					.include("children").serialize();
+			Assert.assertTrue(proxiedWriter.toString().startsWith(
+					"list.category.children[0].name=child0&list.category.name=p0&"));
+			Assert.assertEquals(1000, proxies.initialized);
+			Assert.assertEquals(Collections.singleton(Thread.currentThread()),
+					proxies.threads);
+		} finally {
+			executor.shutdown();
+		}
+
+		for (int i = 0; i < 4; i += 2) {
+			Assert.assertEquals(reported.get(i).getNodeCount(),
+					reported.get(i + 1).getNodeCount());
+			Assert.assertEquals(reported.get(i).getLeafCount(),
+					reported.get(i + 1).getLeafCount());
+			Assert.assertEquals(reported.get(i).getCharsWritten(),
+					reported.get(i + 1).getCharsWritten());
+			Assert.assertEquals(reported.get(i).getMaxDepth(),
+					reported.get(i + 1).getMaxDepth());
+		}
+	}
+
+	private static class ETags implements QSETagListener {
+		private final List<String> etags = new ArrayList<String>();
+		private final List<Boolean> notModified = new ArrayList<Boolean>();
+
+		@Override
+		public void etag(final String etag, final boolean notModified) {
+			etags.add(etag);
+			this.notModified.add(notModified);
+		}
+	}
+
+	@Test
+	public void testETag() throws Exception {
+		final List<Category> categories = new ArrayList<Category>();
+		for (int i = 0; i < 100; i++) {
+			categories.add(new Category("ação " + i));
+		}
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.propertiesFormat();
+		final Writer expected = new StringWriter();
+		serialization.to(expected).from(categories).serialize();
+		final QSHashingWriter hashing = new QSHashingWriter(null);
+		hashing.write(expected.toString());
+		final String etag = QSETag.format(hashing.getHash(), null);
+		Assert.assertTrue(etag.matches("\"[0-9a-f]{16}\""));
+
+		final ETags etags = new ETags();
+		Writer writer = new StringWriter();
+		serialization.withETag(etags).to(writer).from(categories).serialize();
+		Assert.assertEquals(expected.toString(), writer.toString());
+		Assert.assertEquals(etag, etags.etags.get(0));
+		Assert.assertFalse(etags.notModified.get(0));
+
+		// conditional
+		final XStreamQSSerialization conditional = serialization.withETag(
+				etags, "\"other\", W/" + etag);
+		writer = new StringWriter();
+		conditional.to(writer).from(categories).serialize();
+		Assert.assertEquals("", writer.toString());
+		Assert.assertEquals(etag, etags.etags.get(1));
+		Assert.assertTrue(etags.notModified.get(1));
+
+		categories.get(0).add(new Category("child"));
+		writer = new StringWriter();
+		conditional.to(writer).from(categories).include("children")
+				.serialize();
+		Assert.assertTrue(writer.toString().startsWith(
+				"list.category.children[0].name=child\n"));
+		Assert.assertFalse(etag.equals(etags.etags.get(2)));
+		Assert.assertFalse(etags.notModified.get(2));
+
+		// compressed output has its own etag and nothing is written when
+		// not modified
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		serialization.withCompression(QSCompression.GZIP)
+				.withETag(etags, "*").to(bytes, "UTF-8").from(categories)
+				.serialize();
+		Assert.assertEquals(0, bytes.size());
+		Assert.assertTrue(etags.etags.get(3).endsWith("-gzip\""));
+		Assert.assertTrue(etags.notModified.get(3));
+
+		serialization.withCompression(QSCompression.GZIP)
+				.withETag(etags, "\"other\"").to(bytes, "UTF-8")
+				.from(categories).serialize();
+		final InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		for (int read; (read = in.read(buffer)) > 0;) {
+			inflated.write(buffer, 0, read);
+		}
+		final Writer full = new StringWriter();
+		serialization.to(full).from(categories).serialize();
+		Assert.assertEquals(full.toString(), inflated.toString("UTF-8"));
+
+		// a single pass: iterators and snapshots are not consumed twice
+		writer = new StringWriter();
+		serialization.withETag(etags, null).to(writer)
+				.from(categories.iterator()).serialize();
+		Assert.assertEquals(full.toString(), writer.toString());
+
+		final Category root = categories.get(0);
+		final Writer rootFull = new StringWriter();
+		serialization.to(rootFull).from(root).include("children").serialize();
+		final QSSnapshot snapshot = new QSSnapshot();
+		final XStreamQSSerialization diff = serialization
+				.withSnapshot(snapshot).withETag(etags, null);
+		writer = new StringWriter();
+		diff.to(writer).from(root).include("children").serialize();
+		Assert.assertEquals(rootFull.toString(), writer.toString());
+		writer = new StringWriter();
+		diff.to(writer).from(root).include("children").serialize();
+		Assert.assertEquals("", writer.toString());
+	}
+
+	@Test
+	public void testFragmentCache() throws Exception {
+		final Filter filter = new Filter("a b", "x", "y&z");
+		final List<Search> searches = new ArrayList<Search>();
+		for (int i = 0; i < 3; i++) {
+			searches.add(new Search("q" + i, filter));
+		}
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer());
+		final QSFragmentCache cache = new QSFragmentCache(2);
+		final List<QSMetrics> reported = new ArrayList<QSMetrics>();
+		final XStreamQSSerialization cached = serialization.withFragmentCache(
+				cache).withMetrics(new QSMetricsListener() {
+			@Override
+			public void serialized(final QSMetrics metrics) {
+				reported.add(metrics);
+			}
+		});
+
+		Writer expected = new StringWriter();
+		serialization.withMetrics(cached.getMetricsListener()).to(expected)
+				.from(searches).include("filter", "filter.tags")
+				.serialize();
+		Writer actual = new StringWriter();
+		cached.to(actual).from(searches)
+				.include("filter", "filter.tags").serialize();
+		Assert.assertEquals(expected.toString(), actual.toString());
+		Assert.assertTrue(actual.toString().contains(
+				"search.filter.tags[1]=y%26z&"));
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(reported.get(0).getNodeCount(), reported.get(1)
+				.getNodeCount());
+		Assert.assertEquals(reported.get(0).getLeafCount(), reported.get(1)
+				.getLeafCount());
+		Assert.assertEquals(reported.get(0).getMaxDepth(), reported.get(1)
+				.getMaxDepth());
+
+		// other prefix, with the same aliases
+		actual = new StringWriter();
+		cached.to(actual).from(new Search("other", filter))
+				.include("filter", "filter.tags").serialize();
+		Assert.assertEquals(3, cache.getHits());
+		Assert.assertEquals("search.filter.tags[0]=x&"
+				+ "search.filter.tags[1]=y%26z&search.filter.name=a+b&"
+				+ "search.query=other&",
+				actual.toString());
+
+		// other rules
+		actual = new StringWriter();
+		cached.to(actual).from(new Search("other", filter)).include("filter")
+				.serialize();
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertFalse(actual.toString().contains("tags"));
+
+		// new version, evicting the least recently used
+		filter.name = "c";
+		filter.version++;
+		expected = new StringWriter();
+		serialization.to(expected).from(searches)
+				.include("filter", "filter.tags").serialize();
+		actual = new StringWriter();
+		cached.to(actual).from(searches)
+				.include("filter", "filter.tags").serialize();
+		Assert.assertEquals(expected.toString(), actual.toString());
+		Assert.assertEquals(3, cache.getMisses());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testBatchInitializer() throws Exception {
+		final Customer seller = new Customer(0);
+		final List<Order> orders = new ArrayList<Order>();
+		for (int i = 1; i <= 3; i++) {
+			orders.add(new Order("o" + i, new Customer(i), seller));
+		}
+
+		final Customers customers = new Customers();
+		final Writer writer = new StringWriter();
+		new XStreamQSSerialization(new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).withBatchInitializer(customers)
+				.to(writer).from(orders).include("buyer", "seller")
+				.serialize();
+
+		// one batch per path, each value loaded once
+		Assert.assertEquals(2, customers.batches.size());
+		Assert.assertEquals(3, customers.batches.get(0).size());
+		Assert.assertEquals(1, customers.batches.get(1).size());
+		Assert.assertTrue(writer.toString().startsWith(
+				"list.order.buyer.id=1&list.order.buyer.name=c1&"));
+		Assert.assertTrue(writer.toString().contains(
+				"list.order.buyer.name=c3&"));
+		Assert.assertTrue(writer.toString().contains(
+				"list.order.seller.name=c0&"));
+
+		// excluded fields are not loaded
+		customers.batches.clear();
+		final Order order = new Order("o4", new Customer(4), new Customer(5));
+		new XStreamQSSerialization(new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).withBatchInitializer(customers)
+				.to(new StringWriter()).from(order).include("seller")
+				.serialize();
+		Assert.assertEquals(1, customers.batches.size());
+		Assert.assertSame(order.seller, customers.batches.get(0).get(0));
+		Assert.assertFalse(order.buyer.loaded);
+
+		// proxies are walked through the actual object
+		customers.batches.clear();
+		final Order target = new Order("o6", new Customer(6), new Customer(7));
+		new XStreamQSSerialization(new DefaultTypeNameExtractor(),
+				new OrderProxies()).withBatchInitializer(customers)
+				.to(new StringWriter()).from(new OrderProxy(target))
+				.include("buyer").serialize();
+		Assert.assertEquals(1, customers.batches.size());
+		Assert.assertSame(target.buyer, customers.batches.get(0).get(0));
+		Assert.assertFalse(target.seller.loaded);
+
+		// paths rejected by the filter are never loaded
+		customers.batches.clear();
+		final Order filtered = new Order("o8", new Customer(8), new Customer(9));
+		final Writer filteredWriter = new StringWriter();
+		new XStreamQSSerialization(new DefaultTypeNameExtractor(),
+				new NullProxyInitializer()).withBatchInitializer(customers)
+				.withPathFilter(QSPathFilter.NONE.exclude("order.seller"))
+				.to(filteredWriter).from(filtered).include("buyer", "seller")
+				.serialize();
+		Assert.assertTrue(customers.batches.isEmpty());
+		Assert.assertFalse(filtered.seller.loaded);
+		Assert.assertTrue(filteredWriter.toString().contains(
+				"order.buyer.id=8&"));
+		Assert.assertFalse(filteredWriter.toString().contains("seller"));
+	}
+
+	@Test
+	public void testPathFilter() throws Exception {
+		final QSPathFilter filter = QSPathFilter.NONE.include(
+				"list.search.query", "list.search.filter.tags[*]").exclude(
+				"**.tags[1]");
+
+		final List<Search> searches = new ArrayList<Search>();
+		searches.add(new Search("q0", new Filter("a", "x", "y", "z")));
+		searches.add(new Search("q1", new Filter("b")));
+
+		final List<QSMetrics> reported = new ArrayList<QSMetrics>();
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.withMetrics(new QSMetricsListener() {
+					@Override
+					public void serialized(final QSMetrics metrics) {
+						reported.add(metrics);
+					}
+				});
+
+		Writer writer = new StringWriter();
+		serialization.withPathFilter(filter).to(writer).from(searches)
+				.include("filter", "filter.tags").serialize();
+		Assert.assertEquals("list.search.filter.tags[0]=x&"
+				+ "list.search.filter.tags[2]=z&list.search.query=q0&"
+				+ "list.search.query=q1&", writer.toString());
+
+		writer = new StringWriter();
+		serialization.withPathFilter(QSPathFilter.NONE.exclude("**.filter"))
+				.to(writer).from(searches).include("filter", "filter.tags")
+				.serialize();
+		Assert.assertEquals("list.search.query=q0&list.search.query=q1&",
+				writer.toString());
+
+		writer = new StringWriter();
+		serialization.to(writer).from(searches)
+				.include("filter", "filter.tags").serialize();
+		Assert.assertTrue(writer.toString().contains("list.search.filter.name=a&"));
+
+		// the excluded fields are never visited
+		Assert.assertTrue(reported.get(1).getNodeCount() < reported.get(2)
+				.getNodeCount());
+		Assert.assertEquals(5, reported.get(1).getNodeCount());
+
+		// a Map field is written as an index, but filtered by its name
+		final Product product = new Product("Goiaba");
+		product.setData(new LinkedHashMap<Long, Integer>());
+		product.getData().put(1L, 10);
+		product.setUsers(new ArrayList<Product>());
+		product.getUsers().add(new Product("mamao"));
+		final String data = "product[0][0][0]=1&product[0][0][1]=10&";
+		for (final String pattern : new String[] { "product.data",
+				"product.data[*]", "product.data[0]" }) {
+			writer = new StringWriter();
+			serialization.withPathFilter(QSPathFilter.NONE.include(pattern))
+					.to(writer).from(product).recursive().serialize();
+			Assert.assertEquals(pattern, data, writer.toString());
+		}
+		writer = new StringWriter();
+		serialization.withPathFilter(
+				QSPathFilter.NONE.include("product.data[*][1]")).to(writer)
+				.from(product).recursive().serialize();
+		Assert.assertEquals("product[0][0][1]=10&", writer.toString());
+		writer = new StringWriter();
+		serialization.withPathFilter(QSPathFilter.NONE.exclude("product.data"))
+				.to(writer).from(product).recursive().serialize();
+		Assert.assertFalse(writer.toString().contains("product[0]"));
+		Assert.assertTrue(writer.toString().contains("product.users[0]"));
+	}
+
+	@Test
+	public void testTee() throws Exception {
+		final List<Search> searches = new ArrayList<Search>();
+		searches.add(new Search("a b", new Filter("f=1", "x", "y&z")));
+		searches.add(new Search("c", new Filter("g")));
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer());
+		final Writer expectedObject = new StringWriter();
+		serialization.to(expectedObject).from(searches)
+				.include("filter", "filter.tags").serialize();
+		final Writer expectedProperties = new StringWriter();
+		serialization.propertiesFormat().to(expectedProperties)
+				.from(searches).include("filter", "filter.tags").serialize();
+		final Writer expectedArray = new StringWriter();
+		serialization.arrayFormat().to(expectedArray).from(searches)
+				.include("filter", "filter.tags").serialize();
+
+		final List<QSMetrics> reported = new ArrayList<QSMetrics>();
+		final Writer object = new StringWriter();
+		final Writer properties = new StringWriter();
+		final Writer array = new StringWriter();
+		serialization
+				.withTee(properties,
+						serialization.propertiesFormat().getFormatWriter())
+				.withTee(array, serialization.arrayFormat().getFormatWriter())
+				.withMetrics(new QSMetricsListener() {
+					@Override
+					public void serialized(final QSMetrics metrics) {
+						reported.add(metrics);
+					}
+				}).to(object).from(searches).include("filter", "filter.tags")
+				.serialize();
+
+		Assert.assertEquals(expectedObject.toString(), object.toString());
+		Assert.assertEquals(expectedProperties.toString(),
+				properties.toString());
+		Assert.assertEquals(expectedArray.toString(), array.toString());
+		Assert.assertFalse(expectedObject.toString().equals(
+				expectedProperties.toString()));
+		Assert.assertEquals(1, reported.size());
+		Assert.assertEquals(object.toString().length(), reported.get(0)
+				.getCharsWritten());
+
+		// the tees receive only the entries within the limits
+		final Writer limitedProperties = new StringWriter();
+		serialization.withTee(limitedProperties,
+				serialization.propertiesFormat().getFormatWriter())
+				.withLimits(QSLimits.NONE.maxEntries(2).truncate())
+				.to(new StringWriter()).from(searches)
+				.include("filter", "filter.tags").serialize();
+		Assert.assertTrue(expectedProperties.toString().startsWith(
+				limitedProperties.toString()));
+		Assert.assertEquals(2, limitedProperties.toString().split("\n").length);
+
+		// the tees receive the removed entries of the snapshot
+		final Category root = new Category("root");
+		root.add(new Category("a"));
+		final Category b = root.add(new Category("b"));
+		final XStreamQSSerialization diff = serialization.propertiesFormat()
+				.withSnapshot(new QSSnapshot());
+		diff.to(new StringWriter()).from(root).include("children").serialize();
+		root.children.remove(b);
+		final Writer main = new StringWriter();
+		final Writer tee = new StringWriter();
+		diff.withTee(tee, serialization.propertiesFormat().getFormatWriter())
+				.to(main).from(root).include("children").serialize();
+		Assert.assertEquals("#category.children[1].name=\n", main.toString());
+		Assert.assertEquals(main.toString(), tee.toString());
+		try {
+			diff.withTee(new StringWriter(), serialization.getFormatWriter())
+					.to(new StringWriter()).from(root);
+			Assert.fail("tee accepted without removal syntax");
+		} catch (final IllegalArgumentException e) {
+		}
+
+		// the same writer may be added more than once
+		Assert.assertEquals(2, serialization.withTee(tee,
+				serialization.getFormatWriter()).withTee(tee,
+				serialization.getFormatWriter()).getTees().size());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		final Category root = new Category("root");
+		root.add(new Category("a"));
+		final Category b = root.add(new Category("b"));
+
+		final QSSnapshot snapshot = new QSSnapshot();
+		final XStreamQSSerialization diff = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.propertiesFormat().withSnapshot(snapshot);
+
+		Writer writer = new StringWriter();
+		diff.to(writer).from(root).include("children").serialize();
+		final Writer full = new StringWriter();
+		diff.withSnapshot(null).to(full).from(root).include("children")
+				.serialize();
+		Assert.assertEquals(full.toString(), writer.toString());
+		Assert.assertEquals(3, snapshot.size());
+
+		writer = new StringWriter();
+		diff.to(writer).from(root).include("children").serialize();
+		Assert.assertEquals("", writer.toString());
+
+		root.children.remove(b);
+		root.children.set(0, new Category("a2"));
+		writer = new StringWriter();
+		diff.to(writer).from(root).include("children").serialize();
+		Assert.assertEquals("category.children[0].name=a2\n"
+				+ "#category.children[1].name=\n", writer.toString());
+		Assert.assertEquals(2, snapshot.size());
+
+		// query strings have no syntax for removed entries
+		try {
+			diff.objectFormat().to(new StringWriter()).from(root);
+			Assert.fail("snapshot accepted without removal syntax");
+		} catch (final IllegalArgumentException e) {
+			Assert.assertEquals(2, snapshot.size());
+		}
+	}
+
+	@Test
+	public void testCompression() throws Exception {
+		Assert.assertEquals(QSCompression.GZIP,
+				QSCompression.negotiate("deflate, gzip"));
+		Assert.assertEquals(QSCompression.DEFLATE,
+				QSCompression.negotiate("gzip;q=0.5, deflate"));
+		Assert.assertEquals(QSCompression.DEFLATE,
+				QSCompression.negotiate("gzip;q=0, *"));
+		Assert.assertNull(QSCompression.negotiate("identity"));
+		Assert.assertNull(QSCompression.negotiate(null));
+		final Locale locale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr", "TR"));
+		try {
+			Assert.assertEquals(QSCompression.GZIP,
+					QSCompression.negotiate("GZIP"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+
+		final List<Category> categories = new ArrayList<Category>();
+		for (int i = 0; i < 200; i++) {
+			categories.add(new Category("ação " + i));
+		}
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.propertiesFormat();
+		final Writer expected = new StringWriter();
+		serialization.to(expected).from(categories).serialize();
+
+		for (final QSCompression compression : QSCompression.values()) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			serialization.withCompression(compression).to(out, "UTF-8")
+					.from(categories).serialize();
+			Assert.assertTrue(out.size() < (expected.toString().length() / 4));
+
+			final InputStream in = compression == QSCompression.GZIP ? new GZIPInputStream(
+					new ByteArrayInputStream(out.toByteArray()))
+					: new InflaterInputStream(new ByteArrayInputStream(
+							out.toByteArray()));
+			final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1024];
+			for (int read; (read = in.read(buffer)) > 0;) {
+				inflated.write(buffer, 0, read);
+			}
+			Assert.assertEquals(expected.toString(), inflated.toString("UTF-8"));
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serialization.to(out, "UTF-8").from(categories).serialize();
+		Assert.assertEquals(expected.toString(), out.toString("UTF-8"));
+
+		// a failed serialization still finishes the stream
+		out = new ByteArrayOutputStream();
+		try {
+			serialization.withCompression(QSCompression.GZIP)
+					.withLimits(QSLimits.NONE.maxEntries(10))
+					.to(out, "UTF-8").from(categories).serialize();
+			Assert.fail("limit not exceeded");
+		} catch (final QSLimitExceededException e) {
+			final InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+					out.toByteArray()));
+			final byte[] buffer = new byte[1024];
+			int total = 0;
+			for (int read; (read = in.read(buffer)) > 0;) {
+				total += read;
+			}
+			Assert.assertTrue(total > 0);
+		}
+	}
+
+	@Test
+	public void testMetrics() {
+		final List<QSMetrics> reported = new ArrayList<QSMetrics>();
+		final QSMetricsListener listener = new QSMetricsListener() {
+			@Override
+			public void serialized(final QSMetrics metrics) {
+				reported.add(metrics);
+			}
+		};
+
+		final Product product = new Product("Goiaba");
+		product.setOld(new Product("uva"));
+
+		final XStreamQSSerialization serialization = new XStreamQSSerialization(
+				new DefaultTypeNameExtractor(), new NullProxyInitializer())
+				.withMetrics(listener).objectFormat();
+		Assert.assertSame(listener, serialization.getMetricsListener());
+
+		final Writer writer = new StringWriter();
+		serialization.to(writer).from(product).recursive().serialize();
+		Assert.assertEquals("product.name=Goiaba&product.old.name=uva&",
+				writer.toString());
+
+		Assert.assertEquals(1, reported.size());
+		final QSMetrics metrics = reported.get(0);
+		Assert.assertEquals(Product.class, metrics.getRootType());
+		// product, name, old, name and the empty outer-class of each Product
+		Assert.assertEquals(6, metrics.getNodeCount());
+		Assert.assertEquals(2, metrics.getLeafCount());
+		Assert.assertEquals(3, metrics.getMaxDepth());
+		Assert.assertEquals(writer.toString().length(),
+				metrics.getCharsWritten());
+		Assert.assertTrue(metrics.getDurationNanos() >= 0);
+		Assert.assertFalse(metrics.isFailed());
+
+		serialization.withMetrics(null).to(new StringWriter()).from(product)
+				.serialize();
+		Assert.assertEquals(1, reported.size());
+
+		// a failing listener doesn't fail the serialization
+		final Writer failing = new StringWriter();
+		serialization.withMetrics(new QSMetricsListener() {
+			@Override
+			public void serialized(final QSMetrics metrics) {
+				throw new IllegalStateException("listener");
+			}
+		}).to(failing).from(product).recursive().serialize();
+		Assert.assertEquals("product.name=Goiaba&product.old.name=uva&",
+				failing.toString());
+
+		// a failing listener doesn't hide the failure of the serialization
+		try {
+			serialization.withMetrics(new QSMetricsListener() {
+				@Override
+				public void serialized(final QSMetrics metrics) {
+					throw new IllegalStateException("listener");
+				}
+			}).withLimits(QSLimits.NONE.maxEntries(1))
+					.to(new StringWriter()).from(product).recursive()
+					.serialize();
+			Assert.fail("limit not enforced");
+		} catch (final QSLimitExceededException e) {
+		}
+	}
+
 	/**
 	 * Test method for
 	 * {@link com.moisespsena.vraptor.qsserialization.serialization.xstream.XStreamQSSerialization#from(java.lang.Object, java.lang.String)}
@@ -139,8 +1282,7 @@ public class XStreamQSSerializationTest {
 
 		product.setData(data);
 
-		serialization.propertiesFormat();
-		serialization.from(product, "produto").recursive().serialize();
+		serialization.propertiesFormat().from(product, "produto").recursive().serialize();
 
 		final String result = writer.toString();
 
@@ -170,8 +1312,7 @@ public class XStreamQSSerializationTest {
 				writer, new DefaultTypeNameExtractor(),
 				new NullProxyInitializer());
 
-		serialization.arrayFormat();
-		serialization.from(product).recursive().serialize();
+		serialization.arrayFormat().from(product).recursive().serialize();
 
 		final String result = writer.toString();
 		final String expectedResult = "product[name]=Goiaba&product[old][name]=uva&";
@@ -193,8 +1334,7 @@ public class XStreamQSSerializationTest {
 				writer, new DefaultTypeNameExtractor(),
 				new NullProxyInitializer());
 
-		serialization.propertiesFormat();
-		serialization.from(product).recursive().serialize();
+		serialization.propertiesFormat().from(product).recursive().serialize();
 
 		final String result = writer.toString();
 		final String expectedResult = "product.name=Goiaba\nproduct.old.name=uva\n";
@@ -216,8 +1356,7 @@ public class XStreamQSSerializationTest {
 				writer, new DefaultTypeNameExtractor(),
 				new NullProxyInitializer());
 
-		serialization.propertiesFormat();
-		serialization.from(product, "name spaced").recursive().serialize();
+		serialization.propertiesFormat().from(product, "name spaced").recursive().serialize();
 
 		final String result = writer.toString();
 		final String expectedResult = "name\\ spaced.name=Goiaba\nname\\ spaced.old.name=uva\n";
@@ -239,8 +1378,7 @@ public class XStreamQSSerializationTest {
 				writer, new DefaultTypeNameExtractor(),
 				new NullProxyInitializer());
 
-		serialization.propertiesFormat();
-		serialization.from(product).recursive().serialize();
+		serialization.propertiesFormat().from(product).recursive().serialize();
 
 		final String result = writer.toString();
 		final String expectedResult = "product.name=Goiaba\\\n\tda Amazonia\nproduct.old.name=uva\n";